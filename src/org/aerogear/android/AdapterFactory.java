@@ -18,32 +18,107 @@
 package org.aerogear.android;
 
 import org.aerogear.android.datamanager.IdGenerator;
+import org.aerogear.android.datamanager.LongIdGenerator;
+import org.aerogear.android.impl.datamanager.BoundedMemoryStorage;
+import org.aerogear.android.impl.datamanager.DefaultIdGenerator;
+import org.aerogear.android.impl.datamanager.FileStorage;
+import org.aerogear.android.impl.datamanager.LongKeyedMemoryStorage;
 import org.aerogear.android.impl.datamanager.MemoryStorage;
+import org.aerogear.android.impl.datamanager.SerializedMemoryStorage;
 import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.impl.datamanager.StoreConfig;
+import org.aerogear.android.impl.datamanager.TimeOrderedIdGenerator;
 import org.aerogear.android.impl.datamanager.StoreType;
+import org.aerogear.android.core.HttpProvider;
+import org.aerogear.android.impl.core.CachingHttpProvider;
+import org.aerogear.android.impl.core.Http2Provider;
+import org.aerogear.android.impl.core.HttpConnectionPool;
 import org.aerogear.android.impl.core.HttpRestProvider;
+import org.aerogear.android.impl.pipeline.CachedPipe;
+import org.aerogear.android.impl.pipeline.PipeConfig;
 import org.aerogear.android.impl.pipeline.RestAdapter;
+import org.aerogear.android.impl.pipeline.Transport;
 import org.aerogear.android.impl.pipeline.Type;
 import org.aerogear.android.pipeline.Pipe;
 
+import java.io.File;
 import java.net.URL;
+import java.util.concurrent.Executor;
 
+import static org.aerogear.android.impl.datamanager.StoreType.FILE;
 import static org.aerogear.android.impl.datamanager.StoreType.MEMORY;
+import static org.aerogear.android.impl.datamanager.StoreType.SERIALIZED;
 
 final class AdapterFactory {
 
     private AdapterFactory() {}
 
-    public static Pipe createPipe(Type type, Class klass, URL url) {
+    public static Pipe createPipe(Type type, Class klass, URL url, Executor executor,
+                                  HttpConnectionPool connectionPool, PipeConfig config) {
         if (type.equals(Type.REST)) {
-            return new RestAdapter(klass, new HttpRestProvider(url));
+            HttpRestProvider restProvider = new HttpRestProvider(url, connectionPool);
+            restProvider.setRequestCompressionThreshold(config.getRequestCompressionThreshold());
+            restProvider.setRetryPolicy(config.getRetryPolicy());
+            restProvider.setCircuitBreaker(config.getCircuitBreaker());
+            restProvider.setTimeouts(config.getConnectTimeoutMillis(), config.getReadTimeoutMillis());
+            HttpProvider httpProvider = restProvider;
+            if (config.getTransport() == Transport.HTTP_2) {
+                Http2Provider http2Provider = new Http2Provider(url, connectionPool, restProvider);
+                http2Provider.setRequestCompressionThreshold(config.getRequestCompressionThreshold());
+                http2Provider.setRetryPolicy(config.getRetryPolicy());
+                http2Provider.setCircuitBreaker(config.getCircuitBreaker());
+                http2Provider.setTimeouts(config.getConnectTimeoutMillis(), config.getReadTimeoutMillis());
+                httpProvider = http2Provider;
+            }
+            if (config.getResponseCache() != null) {
+                httpProvider = new CachingHttpProvider(httpProvider, config.getResponseCache(),
+                        config.getResponseCacheTtlMillis());
+            }
+            Pipe pipe = new RestAdapter(klass, httpProvider, executor, config);
+            if (config.getStore() != null) {
+                pipe = new CachedPipe(pipe, config.getStore(), executor, config);
+            }
+            return pipe;
         }
         throw new IllegalArgumentException("Type is not supported yet");
     }
 
-    public static Store createStore(StoreType type, IdGenerator idGenerator) {
+    public static Store createStore(StoreType type, IdGenerator idGenerator, File file, StoreConfig config) {
         if (type.equals(MEMORY)) {
-            return new MemoryStorage(idGenerator);
+            if (config.isLongKeys()) {
+                if (config.isBounded()) {
+                    throw new IllegalArgumentException("Bounded MEMORY stores can not have long keys");
+                }
+                LongIdGenerator longIdGenerator;
+                if (idGenerator instanceof LongIdGenerator) {
+                    longIdGenerator = (LongIdGenerator) idGenerator;
+                } else if (idGenerator.getClass() == DefaultIdGenerator.class) {
+                    longIdGenerator = new TimeOrderedIdGenerator();
+                } else {
+                    throw new IllegalArgumentException("MEMORY stores with long keys need a LongIdGenerator, not a "
+                            + idGenerator.getClass().getName());
+                }
+                return new LongKeyedMemoryStorage(longIdGenerator, config.getIndexes());
+            }
+            if (config.isBounded()) {
+                return new BoundedMemoryStorage(idGenerator, config);
+            }
+            return new MemoryStorage(idGenerator, config.getIndexes());
+        }
+        if (type.equals(FILE)) {
+            if (file == null) {
+                throw new IllegalStateException("A FILE store needs a DataManager created with a directory");
+            }
+            if (config.isBounded() || config.isLongKeys()) {
+                throw new IllegalArgumentException("Only MEMORY stores can be bounded or have long keys");
+            }
+            return new FileStorage(file, idGenerator, config.getIndexes());
+        }
+        if (type.equals(SERIALIZED)) {
+            if (config.isBounded() || config.isLongKeys()) {
+                throw new IllegalArgumentException("Only MEMORY stores can be bounded or have long keys");
+            }
+            return new SerializedMemoryStorage(idGenerator, config.getIndexes(), config.getHotCacheSize());
         }
         throw new IllegalArgumentException("Type is not supported yet");
     }
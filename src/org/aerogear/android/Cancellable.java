@@ -0,0 +1,35 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android;
+
+/**
+ * A handle on an operation in flight.
+ */
+public interface Cancellable {
+
+    /**
+     * Cancels the operation: its request, if one is in flight, is aborted and its callback
+     * is not called. Does nothing once the callback was called.
+     */
+    void cancel();
+
+    /**
+     * Returns whether the operation was cancelled before it completed.
+     */
+    boolean isCancelled();
+
+}
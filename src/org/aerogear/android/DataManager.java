@@ -20,9 +20,12 @@ package org.aerogear.android;
 import org.aerogear.android.datamanager.IdGenerator;
 import org.aerogear.android.datamanager.Store;
 import org.aerogear.android.impl.datamanager.DefaultIdGenerator;
+import org.aerogear.android.impl.datamanager.IndexType;
+import org.aerogear.android.impl.datamanager.StoreConfig;
 import org.aerogear.android.impl.datamanager.StoreType;
 import org.aerogear.android.AdapterFactory;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,12 +38,33 @@ public final class DataManager {
     private final Map<String, Store> stores = new HashMap<String, Store>();
     private final IdGenerator idGenerator;
 
+    /**
+     * The directory holding the files of durable stores, null if there is none.
+     */
+    private final File directory;
+
     public DataManager() {
-        this.idGenerator = new DefaultIdGenerator();
+        this(new DefaultIdGenerator());
     }
 
     public DataManager(IdGenerator idGenerator) {
+        this(idGenerator, null);
+    }
+
+    /**
+     * @param directory The directory holding the files of {@link StoreType#FILE} stores.
+     */
+    public DataManager(File directory) {
+        this(new DefaultIdGenerator(), directory);
+    }
+
+    /**
+     * @param idGenerator The generator of the ids of the saved items.
+     * @param directory The directory holding the files of {@link StoreType#FILE} stores.
+     */
+    public DataManager(IdGenerator idGenerator, File directory) {
         this.idGenerator = idGenerator;
+        this.directory = directory;
     }
 
     /**
@@ -59,7 +83,34 @@ public final class DataManager {
      * @param type The type of the new data store object.
      */
     public Store add(String storeName, StoreType type) {
-        Store store = AdapterFactory.createStore(type, idGenerator);
+        return add(storeName, type, new StoreConfig());
+    }
+
+    /**
+     * Creates a new Store implemention with secondary indexes on some properties of its items.
+     * The actual type is determined by the type argument.
+     *
+     * @param storeName The name of the actual data store object.
+     * @param type The type of the new data store object.
+     * @param indexes The indexed properties and their index type.
+     */
+    public Store add(String storeName, StoreType type, Map<String, IndexType> indexes) {
+        StoreConfig config = new StoreConfig();
+        config.setIndexes(indexes);
+        return add(storeName, type, config);
+    }
+
+    /**
+     * Creates a new Store implemention with the given settings, e.g. a bounded memory store
+     * evicting its least recently used items. The actual type is determined by the type argument.
+     *
+     * @param storeName The name of the actual data store object.
+     * @param type The type of the new data store object.
+     * @param config The settings of the new data store object.
+     */
+    public Store add(String storeName, StoreType type, StoreConfig config) {
+        File file = directory == null ? null : new File(directory, storeName);
+        Store store = AdapterFactory.createStore(type, idGenerator, file, config);
         stores.put(storeName, store);
         return store;
     }
@@ -19,13 +19,28 @@ package org.aerogear.android;
 
 import android.util.Log;
 import org.aerogear.android.AdapterFactory;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.impl.core.CircuitBreaker;
+import org.aerogear.android.impl.core.DiskResponseCache;
+import org.aerogear.android.impl.core.HttpConnectionPool;
+import org.aerogear.android.impl.core.RetryPolicy;
+import org.aerogear.android.impl.pipeline.CachedPipe;
+import org.aerogear.android.impl.pipeline.PendingWrite;
+import org.aerogear.android.impl.pipeline.PipeConfig;
+import org.aerogear.android.impl.pipeline.PipelineExecutors;
+import org.aerogear.android.impl.pipeline.RestAdapter;
+import org.aerogear.android.impl.pipeline.Transport;
+import org.aerogear.android.impl.pipeline.WriteBehindQueue;
 import org.aerogear.android.impl.pipeline.Type;
 import org.aerogear.android.pipeline.Pipe;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static org.aerogear.android.impl.pipeline.Type.REST;
 
@@ -37,8 +52,21 @@ public class Pipeline {
 
     private final URL baseURL;
 
+    private final Executor executor;
+
+    private final HttpConnectionPool connectionPool;
+
     private final Map<String, Pipe> pipes = new HashMap<String, Pipe>();
 
+    private RetryPolicy retryPolicy;
+
+    /**
+     * The circuit breaker of each base URL, when enabled.
+     */
+    private final Map<String, CircuitBreaker> circuitBreakers = new HashMap<String, CircuitBreaker>();
+    private int circuitBreakerThreshold = -1;
+    private long circuitBreakerOpenMillis;
+
     /**
      * An initializer method to instantiate the Pipeline,
      *
@@ -46,7 +74,33 @@ public class Pipeline {
      *
      */
     public Pipeline(URL baseURL) {
+        this(baseURL, PipelineExecutors.newBoundedExecutor());
+    }
+
+    /**
+     * An initializer method to instantiate the Pipeline,
+     *
+     * @param baseURL the URL of the server
+     * @param executor the executor shared by all the pipes of this Pipeline,
+     *                 see {@link PipelineExecutors#newBoundedExecutor(int, int)}
+     *
+     */
+    public Pipeline(URL baseURL, Executor executor) {
+        this(baseURL, executor, new HttpConnectionPool());
+    }
+
+    /**
+     * An initializer method to instantiate the Pipeline,
+     *
+     * @param baseURL the URL of the server
+     * @param executor the executor shared by all the pipes of this Pipeline
+     * @param connectionPool the HTTP connections shared by all the pipes of this Pipeline
+     *
+     */
+    public Pipeline(URL baseURL, Executor executor, HttpConnectionPool connectionPool) {
         this.baseURL = baseURL;
+        this.executor = executor;
+        this.connectionPool = connectionPool;
     }
 
     /**
@@ -56,8 +110,12 @@ public class Pipeline {
      *
      */
     public Pipeline(String baseURL) {
+        this(toURL(baseURL));
+    }
+
+    private static URL toURL(String baseURL) {
         try {
-            this.baseURL = new URL(baseURL);
+            return new URL(baseURL);
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException(e);
         }
@@ -67,6 +125,57 @@ public class Pipeline {
         return new BuilderImpl(baseURL);
     }
 
+    /**
+     * Sets how the failed idempotent requests (GET, PUT and DELETE) of the pipes built afterwards
+     * are retried. They are not retried by default.
+     *
+     * @param retryPolicy the policy, shared by the pipes, or null not to retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Guards the base URL of each pipe built afterwards with a {@link CircuitBreaker}, shared by
+     * the pipes with the same base URL, so their requests fail right away while it is unhealthy.
+     *
+     * @param failureThreshold the consecutive failures opening the circuit, see
+     *                         {@link CircuitBreaker#DEFAULT_FAILURE_THRESHOLD}
+     * @param openMillis how long the circuit stays open before a trial request
+     */
+    public void enableCircuitBreakers(int failureThreshold, long openMillis) {
+        this.circuitBreakerThreshold = failureThreshold;
+        this.circuitBreakerOpenMillis = openMillis;
+    }
+
+    /**
+     * Returns the circuit breaker of the given base URL, or null if none of the pipes has one.
+     */
+    public CircuitBreaker getCircuitBreaker(URL baseURL) {
+        synchronized (circuitBreakers) {
+            return circuitBreakers.get(baseURL.toString());
+        }
+    }
+
+    private CircuitBreaker circuitBreakerOf(URL baseURL) {
+        if (circuitBreakerThreshold < 0) {
+            return null;
+        }
+        synchronized (circuitBreakers) {
+            CircuitBreaker circuitBreaker = circuitBreakers.get(baseURL.toString());
+            if (circuitBreaker == null) {
+                circuitBreaker = new CircuitBreaker(baseURL.toString(), circuitBreakerThreshold,
+                        circuitBreakerOpenMillis);
+                circuitBreakers.put(baseURL.toString(), circuitBreaker);
+            }
+            return circuitBreaker;
+        }
+    }
+
     private final class BuilderImpl implements PipeBuilderMandatoryName,
             PipeBuilderMandatoryClass, PipeBuilder {
 
@@ -75,6 +184,7 @@ public class Pipeline {
         private String endpoint;
         private Type type = REST;
         private URL url;
+        private final PipeConfig config = new PipeConfig();
 
         public BuilderImpl(URL url) {
             this.url = url;
@@ -112,9 +222,70 @@ public class Pipeline {
             return this;
         }
 
+        @Override
+        public PipeBuilder recordId(String recordId) {
+            config.setRecordId(recordId);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder bulkEndpoint(String bulkEndpoint) {
+            config.setBulkEndpoint(bulkEndpoint);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder partialUpdates(boolean partialUpdates) {
+            config.setPartialUpdates(partialUpdates);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder transport(Transport transport) {
+            config.setTransport(transport);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder timeouts(int connectMillis, int readMillis, long totalMillis) {
+            config.setConnectTimeoutMillis(connectMillis);
+            config.setReadTimeoutMillis(readMillis);
+            config.setTotalTimeoutMillis(totalMillis);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder compressRequestsAbove(int bytes) {
+            config.setRequestCompressionThreshold(bytes);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder responseCache(DiskResponseCache cache, long ttlMillis) {
+            config.setResponseCache(cache);
+            config.setResponseCacheTtlMillis(ttlMillis);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder writeBehind(File file, Callback<List<PendingWrite>> callback) {
+            config.setWriteBehindFile(file);
+            config.setWriteBehindCallback(callback);
+            return this;
+        }
+
+        @Override
+        public PipeBuilder store(Store store) {
+            config.setStore(store);
+            return this;
+        }
+
         @Override
         public Pipe buildAndAdd() {
-            Pipe pipe = AdapterFactory.createPipe(type, klass, appendEndpoint(url, endpoint));
+            config.setRetryPolicy(retryPolicy);
+            config.setCircuitBreaker(circuitBreakerOf(url));
+            Pipe pipe = AdapterFactory.createPipe(type, klass, appendEndpoint(url, endpoint), executor,
+                    connectionPool, config);
             pipes.put(name, pipe);
             return pipe;
         }
@@ -146,9 +317,35 @@ public class Pipeline {
         public PipeBuilder endpoint(String endpoint);
         public PipeBuilder type(Type type);
         public PipeBuilder url(URL url);
+        public PipeBuilder recordId(String recordId);
+        public PipeBuilder bulkEndpoint(String bulkEndpoint);
+        public PipeBuilder partialUpdates(boolean partialUpdates);
+        public PipeBuilder transport(Transport transport);
+        public PipeBuilder timeouts(int connectMillis, int readMillis, long totalMillis);
+        public PipeBuilder compressRequestsAbove(int bytes);
+        public PipeBuilder responseCache(DiskResponseCache cache, long ttlMillis);
+        public PipeBuilder writeBehind(File file, Callback<List<PendingWrite>> callback);
+        public PipeBuilder store(Store store);
         public Pipe buildAndAdd();
     }
 
+    /**
+     * Sends the queued writes of the pipes writing behind now, e.g. when connectivity comes back.
+     */
+    public void flushPendingWrites() {
+        for (Pipe pipe : pipes.values()) {
+            if (pipe instanceof CachedPipe) {
+                pipe = ((CachedPipe) pipe).getDelegate();
+            }
+            if (pipe instanceof RestAdapter) {
+                WriteBehindQueue queue = ((RestAdapter) pipe).getWriteBehindQueue();
+                if (queue != null) {
+                    queue.flush();
+                }
+            }
+        }
+    }
+
     /**
      * Removes a pipe from the Pipeline object
      *
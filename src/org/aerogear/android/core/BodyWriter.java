@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the body of a request straight to the connection, so it never has to be held in memory.
+ */
+public interface BodyWriter {
+
+    /**
+     * Returns the length of the body in bytes, or -1 if it is only known once written,
+     * in which case the body is sent chunked.
+     *
+     * @return the length of the body, or -1
+     */
+    long getContentLength();
+
+    /**
+     * Writes the body to the given stream, without closing it. Called again for each
+     * retry of the request.
+     *
+     * @param out the stream of the request body
+     * @throws IOException if the stream fails
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+}
@@ -18,13 +18,23 @@
 package org.aerogear.android.core;
 
 import java.net.URL;
+import java.util.Map;
 
+/**
+ * Sends the requests of a pipe. A server answering with an error status makes the
+ * methods reading a whole response throw a {@link HttpStatusException}.
+ */
 public interface HttpProvider {
 
     public URL getUrl();
     public byte [] get() throws Exception;
+    public HeaderAndStream getStream(Map<String, String> parameters) throws RuntimeException;
+    public HeaderAndStream getStream(Map<String, String> parameters, boolean conditional) throws RuntimeException;
     public byte [] post(String data) throws RuntimeException;
+    public byte [] post(BodyWriter body) throws RuntimeException;
     public byte [] put(String id, String data) throws RuntimeException;
+    public byte [] put(String id, BodyWriter body) throws RuntimeException;
+    public byte [] patch(String id, BodyWriter body) throws RuntimeException;
     public byte [] delete(String id) throws RuntimeException;
 
 }
@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.core;
+
+/**
+ * Thrown by a {@link HttpProvider} when the server answers a request with an error status.
+ */
+public class HttpStatusException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final byte[] body;
+
+    /**
+     * @param statusCode the status of the response, 400 or above
+     * @param body the body of the response, may be empty
+     */
+    public HttpStatusException(int statusCode, byte[] body) {
+        super("The server answered with status " + statusCode);
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    /**
+     * @return the status of the response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the body of the response
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Returns whether the server may accept the same request later: it was unavailable
+     * (a 5xx status) or asked to slow down (429).
+     */
+    public boolean isTransient() {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The items inserted, updated and removed by a change of a {@link Store}, e.g. a save or a batch.
+ *
+ * @param <T> The type of the items of the store
+ */
+public final class ChangeSet<T> {
+
+    private final Map<Serializable, T> inserted;
+    private final Map<Serializable, T> updated;
+    private final Set<Serializable> removed;
+
+    /**
+     * @param inserted the new items, by id
+     * @param updated the new version of the updated items, by id
+     * @param removed the ids of the removed items
+     */
+    public ChangeSet(Map<Serializable, T> inserted, Map<Serializable, T> updated, Set<Serializable> removed) {
+        this.inserted = Collections.unmodifiableMap(inserted);
+        this.updated = Collections.unmodifiableMap(updated);
+        this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * @return the new items, by id
+     */
+    public Map<Serializable, T> getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return the new version of the updated items, by id
+     */
+    public Map<Serializable, T> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return the ids of the removed items
+     */
+    public Set<Serializable> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+}
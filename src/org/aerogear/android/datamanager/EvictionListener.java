@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager;
+
+import java.io.Serializable;
+
+/**
+ * Notified when a bounded store drops an item to stay within its limits.
+ *
+ * @param <T> The type of the items of the store
+ */
+public interface EvictionListener<T> {
+
+    /**
+     * Called after the item has been removed from the store.
+     *
+     * @param id the id the item was saved with
+     * @param item the evicted item
+     */
+    void onEviction(Serializable id, T item);
+
+}
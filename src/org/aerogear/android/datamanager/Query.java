@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.datamanager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A predicate on the properties of the items of a {@link Store}. Queries on properties with an
+ * index declared on the store are answered from the index, the others scan all the items.
+ */
+public abstract class Query {
+
+    private Query() {}
+
+    /**
+     * Matches the items whose property equals the given value.
+     */
+    public static Query equal(String property, Object value) {
+        return new Equal(property, value);
+    }
+
+    /**
+     * Matches the items whose property lies between the given bounds, both inclusive.
+     * A null bound leaves the range open on that side.
+     */
+    public static Query between(String property, Comparable<?> from, Comparable<?> to) {
+        return new Range(property, from, to);
+    }
+
+    /**
+     * Matches the items matching all the given queries.
+     */
+    public static Query and(Query... queries) {
+        return new And(Arrays.asList(queries));
+    }
+
+    public static final class Equal extends Query {
+
+        private final String property;
+        private final Object value;
+
+        private Equal(String property, Object value) {
+            this.property = property;
+            this.value = value;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+    }
+
+    public static final class Range extends Query {
+
+        private final String property;
+        private final Comparable<?> from;
+        private final Comparable<?> to;
+
+        private Range(String property, Comparable<?> from, Comparable<?> to) {
+            this.property = property;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+
+        public Comparable<?> getFrom() {
+            return from;
+        }
+
+        public Comparable<?> getTo() {
+            return to;
+        }
+
+    }
+
+    public static final class And extends Query {
+
+        private final List<Query> queries;
+
+        private And(List<Query> queries) {
+            this.queries = Collections.unmodifiableList(queries);
+        }
+
+        public List<Query> getQueries() {
+            return queries;
+        }
+
+    }
+
+}
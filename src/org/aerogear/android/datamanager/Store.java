@@ -21,6 +21,7 @@ import org.aerogear.android.impl.datamanager.StoreType;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 /**
  * Represents an abstraction layer for a storage system.
@@ -50,12 +51,29 @@ public interface Store<T> {
     public T read(Serializable id);
 
     /**
-     * Saves the given object in the underlying storage system.
+     * Reads the objects/records matching the given query from the underlying storage system.
+     *
+     * @param query the predicate to match
+     * @return List of T
+     */
+    public Collection<T> query(Query query);
+
+    /**
+     * Saves the given object in the underlying storage system, under an id generated by the
+     * store. The generated id is not put on the item.
      *
      * @param item Object to save
      */
     public void save(T item);
 
+    /**
+     * Saves the given objects in the underlying storage system at once. Readers see either
+     * none or all of them.
+     *
+     * @param items Objects to save
+     */
+    public void saveAll(Collection<T> items);
+
     /**
      *  Resets the entire storage system.
      */
@@ -68,4 +86,37 @@ public interface Store<T> {
      */
     public void remove(Serializable id);
 
+    /**
+     * Removes the given objects/records from the underlying storage system at once. Readers see
+     * either none or all of them removed.
+     *
+     * @param ids Ids of the items to remove
+     */
+    public void removeAll(Collection<Serializable> ids);
+
+    /**
+     * Starts collecting saves and removes which are applied together, once the returned batch
+     * is committed. Readers see either none or all of its changes.
+     *
+     * @return a new, empty batch of this store
+     */
+    public WriteBatch<T> beginBatch();
+
+    /**
+     * Registers a listener notified of the changes of the store. Each save, remove, reset or
+     * batch makes one change set, delivered on the given executor, e.g. a
+     * {@link org.aerogear.android.impl.core.MainThreadExecutor}.
+     *
+     * @param listener the listener to notify
+     * @param executor the executor running the listener
+     */
+    public void addListener(StoreListener<T> listener, Executor executor);
+
+    /**
+     * Unregisters a listener. Change sets already handed to its executor are still delivered.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(StoreListener<T> listener);
+
 }
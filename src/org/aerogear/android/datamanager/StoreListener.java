@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager;
+
+/**
+ * Notified of the changes of a {@link Store}.
+ *
+ * @param <T> The type of the items of the store
+ */
+public interface StoreListener<T> {
+
+    /**
+     * Called with the changes made by a save, remove or batch. When changes follow each other
+     * faster than they are delivered, they are merged into a single change set.
+     *
+     * @param changes the inserted, updated and removed items
+     */
+    void onChange(ChangeSet<T> changes);
+
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager;
+
+import java.io.Serializable;
+
+/**
+ * Saves and removes collected to be applied to a {@link Store} at once.
+ *
+ * @param <T> The type of the items of the store
+ */
+public interface WriteBatch<T> {
+
+    /**
+     * Adds the save of an item to the batch.
+     *
+     * @param item Object to save
+     * @return this batch
+     */
+    WriteBatch<T> save(T item);
+
+    /**
+     * Adds the save of an item under the given id, instead of a generated one, to the batch.
+     * The item replaces the item saved with that id.
+     *
+     * @param id the id of the item
+     * @param item Object to save
+     * @return this batch
+     */
+    WriteBatch<T> save(Serializable id, T item);
+
+    /**
+     * Adds the removal of an item to the batch.
+     *
+     * @param id Id of the item to remove
+     * @return this batch
+     */
+    WriteBatch<T> remove(Serializable id);
+
+    /**
+     * Adds the removal of all the items of the store, as by {@link Store#reset()}, to the batch.
+     * The changes added after it are applied to the emptied store.
+     *
+     * @return this batch
+     */
+    WriteBatch<T> reset();
+
+    /**
+     * Applies all the collected changes to the store. A batch can be committed only once.
+     *
+     * @throws IllegalStateException if the batch was already committed
+     */
+    void commit();
+
+}
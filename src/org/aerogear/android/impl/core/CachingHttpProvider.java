@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.core;
+
+import android.util.Log;
+import org.aerogear.android.core.BodyWriter;
+import org.aerogear.android.core.HeaderAndStream;
+import org.aerogear.android.core.HttpProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link HttpProvider} answering reads from a {@link DiskResponseCache} while its entries are fresh
+ * and storing the responses it fetches through the wrapped provider. Any write through this
+ * provider drops the cached responses of its URL.
+ */
+public final class CachingHttpProvider implements HttpProvider {
+
+    private static final String TAG = "AeroGear";
+
+    private final HttpProvider delegate;
+    private final DiskResponseCache cache;
+    private final long ttlMillis;
+
+    /**
+     * @param delegate the provider fetching from the network
+     * @param cache the cache, usually shared with other pipes
+     * @param ttlMillis how long a response stays fresh when the server does not say otherwise
+     */
+    public CachingHttpProvider(HttpProvider delegate, DiskResponseCache cache, long ttlMillis) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URL getUrl() {
+        return delegate.getUrl();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] get() throws RuntimeException {
+        HeaderAndStream response = getStream(Collections.<String, String>emptyMap());
+        try {
+            InputStream stream = response.getStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        } catch (IOException e) {
+            Log.e(TAG, "Error on GET of " + getUrl(), e);
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                response.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing GET of " + getUrl(), e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HeaderAndStream getStream(Map<String, String> parameters) throws RuntimeException {
+        return getStream(parameters, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HeaderAndStream getStream(Map<String, String> parameters, boolean conditional) throws RuntimeException {
+        String key = getUrl() + "?" + new TreeMap<String, String>(parameters);
+        HeaderAndStream cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        HeaderAndStream response = delegate.getStream(parameters, conditional);
+        long expiresAt = expiresAt(response);
+        if (response.getStatusCode() != 200 || expiresAt < 0) {
+            return response;
+        }
+        try {
+            InputStream caching = cache.put(key, response.getHeaders(), expiresAt, response.getStream());
+            return new HeaderAndStream(response.getStatusCode(), response.getHeaders(), caching);
+        } catch (IOException e) {
+            Log.w(TAG, "Can not cache GET of " + getUrl(), e);
+            return response;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] post(String data) throws RuntimeException {
+        try {
+            return delegate.post(data);
+        } finally {
+            cache.invalidate(getUrl().toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] post(BodyWriter data) throws RuntimeException {
+        try {
+            return delegate.post(data);
+        } finally {
+            cache.invalidate(getUrl().toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] put(String id, String data) throws RuntimeException {
+        try {
+            return delegate.put(id, data);
+        } finally {
+            cache.invalidate(getUrl().toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] put(String id, BodyWriter data) throws RuntimeException {
+        try {
+            return delegate.put(id, data);
+        } finally {
+            cache.invalidate(getUrl().toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] patch(String id, BodyWriter data) throws RuntimeException {
+        try {
+            return delegate.patch(id, data);
+        } finally {
+            cache.invalidate(getUrl().toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] delete(String id) throws RuntimeException {
+        try {
+            return delegate.delete(id);
+        } finally {
+            cache.invalidate(getUrl().toString());
+        }
+    }
+
+    /**
+     * Honors the <code>no-store</code>, <code>no-cache</code> and <code>max-age</code> directives
+     * of the response, falling back to the TTL of the pipe.
+     *
+     * @return when the response expires or -1 if it must not be cached
+     */
+    private long expiresAt(HeaderAndStream response) {
+        long ttl = ttlMillis;
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-store") || directive.equals("no-cache")) {
+                    return -1;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        ttl = Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                    } catch (NumberFormatException e) {
+                        // keep the TTL of the pipe
+                    }
+                }
+            }
+        }
+        return ttl > 0 ? System.currentTimeMillis() + ttl : -1;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+/**
+ * Stops sending requests to a backend which keeps failing. After a number of consecutive
+ * failures the circuit opens and requests fail right away with a {@link CircuitOpenException};
+ * once the open period is over, one trial request is let through, and its outcome closes the
+ * circuit or opens it again.
+ *
+ * Thread safe; the counters cover the lifetime of the breaker.
+ */
+public final class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private long successCount;
+    private long failureCount;
+    private long rejectedCount;
+    private long openedCount;
+
+    /**
+     * @param name the backend guarded, for the error messages
+     * @param failureThreshold the consecutive failures opening the circuit
+     * @param openMillis how long the circuit stays open before a trial request
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of requests failed right away while the circuit was open.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the number of times the circuit opened.
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    /**
+     * How a request was let through, if it was.
+     */
+    enum Permit {
+        REJECTED, REQUEST, TRIAL
+    }
+
+    /**
+     * Returns whether a request may be sent and whether it is the trial of a half open circuit,
+     * counting it as rejected when it may not.
+     */
+    synchronized Permit acquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return Permit.REQUEST;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return Permit.TRIAL;
+        }
+        rejectedCount++;
+        return Permit.REJECTED;
+    }
+
+    /**
+     * Counts a success. Only the trial closes the circuit; a late answer to a request sent
+     * before it opened leaves it open.
+     */
+    synchronized void onSuccess(Permit permit) {
+        successCount++;
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+        } else if (state == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * Forgets a request cancelled by its caller, which tells nothing about the backend.
+     */
+    synchronized void onCancel(Permit permit) {
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Counts a failure, opening the circuit when it is the trial or one too many while closed.
+     */
+    synchronized void onFailure(Permit permit) {
+        failureCount++;
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+            open();
+        } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        openedCount++;
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+}
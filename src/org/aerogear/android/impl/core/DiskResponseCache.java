@@ -0,0 +1,419 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.core;
+
+import android.util.Log;
+import org.aerogear.android.core.HeaderAndStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size bounded directory of response bodies, keyed by URL. Entries are written to a temporary
+ * file and renamed into place once the whole body was read, so a crash never leaves a partial
+ * entry behind. The least recently used entries are removed when the directory grows past its
+ * maximum size. An instance is thread safe and should be the only user of its directory.
+ */
+public final class DiskResponseCache {
+
+    private static final String TAG = "AeroGear";
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * How much of a body left unread by its consumer is still read to complete the entry.
+     */
+    private static final int MAX_DRAIN_BYTES = 8192;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * The entries in least recently used order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param directory the directory holding the entries, created if needed
+     * @param maxBytes the maximum total size of the entries
+     */
+    public DiskResponseCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Can not create cache directory " + directory);
+        }
+        load();
+    }
+
+    /**
+     * Returns the total size, in bytes, of the cached entries.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Returns the cached response of the given URL, or null if there is none or it expired.
+     */
+    public HeaderAndStream get(String url) {
+        String key = key(url);
+        File file;
+        synchronized (this) {
+            // get, not containsKey, so the entry becomes the most recently used one
+            if (entries.get(key) == null) {
+                return null;
+            }
+            file = new File(directory, key);
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Header header = readHeader(in);
+            if (header.expiresAt < System.currentTimeMillis() || !header.url.equals(url)) {
+                in.close();
+                remove(key);
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return new HeaderAndStream(200, header.headers, in);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry of " + url, e);
+            closeQuietly(in);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a stream reading the given body and copying it into the cache. The entry
+     * is only stored once the stream was read to its end and closed.
+     *
+     * @param url the URL of the response
+     * @param headers the headers of the response; those describing the encoding of the
+     *                body are not stored, the body is read already decoded
+     * @param expiresAt when the entry expires, in milliseconds since the epoch
+     * @param body the response body
+     */
+    public InputStream put(String url, Map<String, String> headers, long expiresAt, InputStream body) throws IOException {
+        File temp = File.createTempFile("entry", TEMP_SUFFIX, directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            Map<String, String> stored = new HashMap<String, String>();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (!isEncodingHeader(header.getKey())) {
+                    stored.put(header.getKey(), header.getValue());
+                }
+            }
+            out.writeInt(VERSION);
+            out.writeLong(expiresAt);
+            out.writeUTF(url);
+            out.writeInt(stored.size());
+            for (Map.Entry<String, String> header : stored.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            temp.delete();
+            throw e;
+        }
+        return new CachingInputStream(body, out, temp, url);
+    }
+
+    /**
+     * Removes the entries whose URL starts with the given prefix.
+     */
+    public synchronized void invalidate(String urlPrefix) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getValue().url.startsWith(urlPrefix)) {
+                iterator.remove();
+                size -= entry.getValue().length;
+                new File(directory, entry.getKey()).delete();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        invalidate("");
+    }
+
+    private synchronized void commit(String url, File temp) {
+        String key = key(url);
+        File target = new File(directory, key);
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                Log.w(TAG, "Can not store cache entry of " + url);
+                temp.delete();
+                return;
+            }
+        }
+        Entry previous = entries.put(key, new Entry(url, target.length()));
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += target.length();
+        trimToSize();
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.length;
+            new File(directory, key).delete();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue().length;
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the directory, dropping the leftovers of interrupted writes.
+     */
+    private synchronized void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> stored = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                stored.add(file);
+            }
+        }
+        File[] byAge = stored.toArray(new File[stored.size()]);
+        Arrays.sort(byAge, new Comparator<File>() {
+            @Override
+            public int compare(File left, File right) {
+                long difference = left.lastModified() - right.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : byAge) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                Header header = readHeader(in);
+                entries.put(file.getName(), new Entry(header.url, file.length()));
+                size += file.length();
+            } catch (IOException e) {
+                file.delete();
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        trimToSize();
+    }
+
+    private static Header readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unknown cache entry version");
+        }
+        Header header = new Header();
+        header.expiresAt = in.readLong();
+        header.url = in.readUTF();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            header.headers.put(in.readUTF(), in.readUTF());
+        }
+        return header;
+    }
+
+    private static boolean isEncodingHeader(String name) {
+        return "Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name);
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    private static final class Header {
+        private long expiresAt;
+        private String url;
+        private final Map<String, String> headers = new HashMap<String, String>();
+    }
+
+    private static final class Entry {
+
+        private final String url;
+        private final long length;
+
+        private Entry(String url, long length) {
+            this.url = url;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * Copies what is read into the temporary file of an entry, which is committed when closed after
+     * the end of the body was reached and discarded otherwise.
+     */
+    private final class CachingInputStream extends FilterInputStream {
+
+        private final OutputStream out;
+        private final File temp;
+        private final String url;
+        private boolean complete;
+        private boolean failed;
+
+        private CachingInputStream(InputStream in, OutputStream out, File temp, String url) {
+            super(in);
+            this.out = out;
+            this.temp = temp;
+            this.url = url;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                complete = true;
+            } else {
+                copy(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read == -1) {
+                complete = true;
+            } else {
+                copy(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            failed = true;
+            return super.skip(count);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                try {
+                    super.close();
+                } finally {
+                    closeQuietly(out);
+                    if (complete && !failed) {
+                        commit(url, temp);
+                    } else {
+                        temp.delete();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Parsers usually stop at the end of the document, before the end of the stream.
+         */
+        private void drain() throws IOException {
+            byte[] buffer = new byte[1024];
+            int drained = 0;
+            while (!complete && !failed && drained < MAX_DRAIN_BYTES) {
+                int read = read(buffer, 0, buffer.length);
+                if (read > 0) {
+                    drained += read;
+                }
+            }
+        }
+
+        private void copy(byte[] buffer, int offset, int count) {
+            if (failed) {
+                return;
+            }
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(TAG, "Can not write cache entry of " + url, e);
+                failed = true;
+            }
+        }
+
+    }
+
+}
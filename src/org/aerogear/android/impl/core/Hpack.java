@@ -0,0 +1,396 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541). Both ends keep the recently sent
+ * headers in a table, so a header repeated on later requests of a connection, as most of
+ * them are, costs a single byte.
+ */
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+            {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+            {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    /**
+     * The first index of each name in the static table.
+     */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+        }
+    }
+
+    /**
+     * Headers whose values change on nearly every request, not worth a place in the table.
+     */
+    private static final Set<String> UNINDEXED = new HashSet<String>(Arrays.asList(
+            ":path", "content-length", "etag", "if-none-match", "if-modified-since", "last-modified", "date"));
+
+    /**
+     * Headers carrying credentials, which intermediaries must never index either.
+     */
+    private static final Set<String> SENSITIVE = new HashSet<String>(Arrays.asList(
+            "authorization", "proxy-authorization", "cookie", "set-cookie"));
+
+    private Hpack() {}
+
+    /**
+     * Encodes header lists, keeping the table of the decoder at the other end in sync.
+     * Not thread safe: header blocks must be encoded in the order they are sent.
+     */
+    static final class Encoder {
+
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+
+        /**
+         * The smallest and last table sizes the decoder allowed since the last header
+         * block, or -1 when it did not change them.
+         */
+        private int smallestMaxSize = -1;
+        private int nextMaxSize = -1;
+
+        /**
+         * Applies the table size the decoder allows, signalled at the start of the next block.
+         */
+        void setMaxTableSize(int maxSize) {
+            if (nextMaxSize < 0 && maxSize == table.maxSize) {
+                return;
+            }
+            smallestMaxSize = smallestMaxSize < 0 ? maxSize : Math.min(smallestMaxSize, maxSize);
+            nextMaxSize = maxSize;
+        }
+
+        byte[] encode(List<Map.Entry<String, String>> headers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (nextMaxSize >= 0) {
+                if (smallestMaxSize < nextMaxSize) {
+                    writeInt(out, 0x20, 5, smallestMaxSize);
+                }
+                writeInt(out, 0x20, 5, nextMaxSize);
+                table.setMaxSize(nextMaxSize);
+                smallestMaxSize = -1;
+                nextMaxSize = -1;
+            }
+            for (Map.Entry<String, String> header : headers) {
+                String name = header.getKey();
+                String value = header.getValue();
+                int index = indexOf(name, value);
+                if (index > 0) {
+                    writeInt(out, 0x80, 7, index);
+                    continue;
+                }
+                int nameIndex = indexOfName(name);
+                if (SENSITIVE.contains(name)) {
+                    writeLiteral(out, 0x10, 4, nameIndex, name, value);
+                } else if (UNINDEXED.contains(name)) {
+                    writeLiteral(out, 0x00, 4, nameIndex, name, value);
+                } else {
+                    writeLiteral(out, 0x40, 6, nameIndex, name, value);
+                    table.add(name, value);
+                }
+            }
+            return out.toByteArray();
+        }
+
+        private int indexOf(String name, String value) {
+            Integer staticIndex = STATIC_NAMES.get(name);
+            if (staticIndex != null) {
+                for (int i = staticIndex - 1; i < STATIC_TABLE.length && STATIC_TABLE[i][0].equals(name); i++) {
+                    if (STATIC_TABLE[i][1].equals(value)) {
+                        return i + 1;
+                    }
+                }
+            }
+            int dynamicIndex = table.indexOf(name, value);
+            return dynamicIndex < 0 ? 0 : STATIC_TABLE.length + 1 + dynamicIndex;
+        }
+
+        private int indexOfName(String name) {
+            Integer staticIndex = STATIC_NAMES.get(name);
+            if (staticIndex != null) {
+                return staticIndex;
+            }
+            int dynamicIndex = table.indexOf(name, null);
+            return dynamicIndex < 0 ? 0 : STATIC_TABLE.length + 1 + dynamicIndex;
+        }
+
+        private static void writeLiteral(ByteArrayOutputStream out, int pattern, int prefixBits,
+                                         int nameIndex, String name, String value) {
+            writeInt(out, pattern, prefixBits, nameIndex);
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+
+        private static void writeString(ByteArrayOutputStream out, String string) {
+            byte[] data = bytes(string);
+            int huffmanLength = Huffman.encodedLength(data);
+            if (huffmanLength < data.length) {
+                writeInt(out, 0x80, 7, huffmanLength);
+                Huffman.encode(data, out);
+            } else {
+                writeInt(out, 0x00, 7, data.length);
+                out.write(data, 0, data.length);
+            }
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int pattern, int prefixBits, int value) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                out.write(pattern | value);
+                return;
+            }
+            out.write(pattern | max);
+            value -= max;
+            while (value >= 0x80) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+    }
+
+    /**
+     * Decodes header blocks. Not thread safe: blocks must be decoded in the order they are received.
+     */
+    static final class Decoder {
+
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private final int maxTableSize;
+
+        private byte[] block;
+        private int position;
+
+        /**
+         * @param maxTableSize the table size announced to the encoder
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+        }
+
+        List<Map.Entry<String, String>> decode(byte[] block) throws IOException {
+            this.block = block;
+            this.position = 0;
+            List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+            boolean headersStarted = false;
+            while (position < block.length) {
+                int first = block[position] & 0xff;
+                if ((first & 0x80) != 0) {
+                    headers.add(entry(readInt(7)));
+                    headersStarted = true;
+                } else if ((first & 0xc0) == 0x40) {
+                    Map.Entry<String, String> header = readLiteral(6);
+                    table.add(header.getKey(), header.getValue());
+                    headers.add(header);
+                    headersStarted = true;
+                } else if ((first & 0xe0) == 0x20) {
+                    if (headersStarted) {
+                        throw new IOException("HPACK table size update after a header");
+                    }
+                    int size = readInt(5);
+                    if (size > maxTableSize) {
+                        throw new IOException("HPACK table size " + size + " above " + maxTableSize);
+                    }
+                    table.setMaxSize(size);
+                } else {
+                    headers.add(readLiteral(4));
+                    headersStarted = true;
+                }
+            }
+            this.block = null;
+            return headers;
+        }
+
+        private Map.Entry<String, String> entry(int index) throws IOException {
+            if (index <= 0) {
+                throw new IOException("Invalid HPACK index " + index);
+            }
+            if (index <= STATIC_TABLE.length) {
+                String[] header = STATIC_TABLE[index - 1];
+                return new SimpleImmutableEntry<String, String>(header[0], header[1]);
+            }
+            Map.Entry<String, String> header = table.get(index - STATIC_TABLE.length - 1);
+            if (header == null) {
+                throw new IOException("Invalid HPACK index " + index);
+            }
+            return header;
+        }
+
+        private Map.Entry<String, String> readLiteral(int prefixBits) throws IOException {
+            int nameIndex = readInt(prefixBits);
+            String name = nameIndex == 0 ? readString() : entry(nameIndex).getKey();
+            return new SimpleImmutableEntry<String, String>(name, readString());
+        }
+
+        private String readString() throws IOException {
+            if (position >= block.length) {
+                throw new IOException("Truncated HPACK block");
+            }
+            boolean huffman = (block[position] & 0x80) != 0;
+            int length = readInt(7);
+            if (length > block.length - position) {
+                throw new IOException("Truncated HPACK block");
+            }
+            byte[] data;
+            if (huffman) {
+                data = Huffman.decode(block, position, length);
+            } else {
+                data = Arrays.copyOfRange(block, position, position + length);
+            }
+            position += length;
+            return string(data);
+        }
+
+        private int readInt(int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = block[position++] & max;
+            if (value < max) {
+                return value;
+            }
+            for (int shift = 0; shift < 28; shift += 7) {
+                if (position >= block.length) {
+                    throw new IOException("Truncated HPACK block");
+                }
+                int b = block[position++] & 0xff;
+                value += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("HPACK integer overflow");
+        }
+
+    }
+
+    /**
+     * The headers added by the last header blocks, newest first, bounded in size.
+     */
+    private static final class DynamicTable {
+
+        /**
+         * The headers, oldest first.
+         */
+        private final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(0);
+        }
+
+        void add(String name, String value) {
+            int entrySize = sizeOf(name, value);
+            evict(entrySize);
+            if (entrySize <= maxSize) {
+                entries.add(new SimpleImmutableEntry<String, String>(name, value));
+                size += entrySize;
+            }
+        }
+
+        /**
+         * @return the entry at the given index, 0 being the newest, or null
+         */
+        Map.Entry<String, String> get(int index) {
+            if (index >= entries.size()) {
+                return null;
+            }
+            return entries.get(entries.size() - 1 - index);
+        }
+
+        /**
+         * @return the index of the newest entry with the given name and value (any value if null), or -1
+         */
+        int indexOf(String name, String value) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                Map.Entry<String, String> entry = entries.get(i);
+                if (entry.getKey().equals(name) && (value == null || entry.getValue().equals(value))) {
+                    return entries.size() - 1 - i;
+                }
+            }
+            return -1;
+        }
+
+        private void evict(int room) {
+            while (size + room > maxSize && !entries.isEmpty()) {
+                Map.Entry<String, String> oldest = entries.remove(0);
+                size -= sizeOf(oldest.getKey(), oldest.getValue());
+            }
+        }
+
+        private static int sizeOf(String name, String value) {
+            return bytes(name).length + bytes(value).length + 32;
+        }
+
+    }
+
+    static byte[] bytes(String string) {
+        try {
+            return string.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String string(byte[] data) {
+        try {
+            return new String(data, "ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,890 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.aerogear.android.impl.core.Http2Frame.*;
+
+/**
+ * A cleartext HTTP/2 connection (RFC 7540) carrying any number of concurrent requests as
+ * independent streams, each flow controlled on its own. A reader thread dispatches the
+ * frames of the server to the streams they belong to.
+ *
+ * Locking: the output and the header encoder are guarded by <code>writeLock</code>, the
+ * streams and the flow control windows by the connection itself. The write lock is
+ * always taken first, and nothing waits on the connection while holding it.
+ */
+final class Http2Connection {
+
+    private static final String TAG = "AeroGear";
+
+    private static final byte[] PREFACE = Hpack.bytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * How many bytes of each response the server may send ahead of what was read.
+     */
+    static final int STREAM_WINDOW = 1 << 20;
+
+    /**
+     * How many bytes of all responses the server may send ahead of what was received.
+     */
+    private static final int CONNECTION_WINDOW = 16 << 20;
+
+    private final String name;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    private final Object writeLock = new Object();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private int nextStreamId = 1;
+
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private int connectionUnacked;
+
+    private final Map<Integer, Stream> streams = new HashMap<Integer, Stream>();
+    private int reservedStreams;
+    private long sendWindow = DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindow = DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+    private boolean goingAway;
+    private IOException failure;
+    private long idleSince = System.currentTimeMillis();
+
+    private Http2Connection(String name, Socket socket) throws IOException {
+        this.name = name;
+        this.socket = socket;
+        this.in = new DataInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE + 9);
+    }
+
+    /**
+     * Connects to the given host and starts HTTP/2 with prior knowledge.
+     *
+     * @param connectTimeoutMillis how long to wait for the server, 0 for the default of 15 seconds
+     * @throws NotSupportedException if the server answers but does not speak HTTP/2
+     */
+    static Http2Connection open(String host, int port, int connectTimeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port),
+                    connectTimeoutMillis > 0 ? connectTimeoutMillis : CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            Http2Connection connection = new Http2Connection(host + ":" + port, socket);
+            connection.start();
+            return connection;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private void start() throws IOException {
+        out.write(PREFACE);
+        Http2Frame.write(out, SETTINGS, 0, 0, settings(
+                SETTINGS_ENABLE_PUSH, 0,
+                SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW));
+        Http2Frame.write(out, WINDOW_UPDATE, 0, 0, intPayload(CONNECTION_WINDOW - DEFAULT_WINDOW_SIZE));
+        out.flush();
+
+        // the server preface is a SETTINGS frame, anything else is an HTTP/1.1 server
+        Http2Frame first;
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        try {
+            first = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+        } catch (ProtocolException e) {
+            throw new NotSupportedException(name);
+        } catch (EOFException e) {
+            throw new NotSupportedException(name);
+        }
+        if (first.type != SETTINGS || first.hasFlag(FLAG_ACK)) {
+            throw new NotSupportedException(name);
+        }
+        socket.setSoTimeout(0);
+        applySettings(first);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        }, "AeroGear HTTP/2 " + name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns whether new streams can be started on this connection.
+     */
+    synchronized boolean isUsable() {
+        return failure == null && !goingAway;
+    }
+
+    /**
+     * Returns whether no stream was open for at least the given time.
+     */
+    synchronized boolean isIdle(long idleMillis) {
+        return streams.isEmpty() && reservedStreams == 0
+                && System.currentTimeMillis() - idleSince >= idleMillis;
+    }
+
+    /**
+     * Sends the headers of a new request, waiting for the server to accept one more stream.
+     *
+     * @param headers the request headers, pseudo headers first, with lower case names
+     * @param endStream true if the request has no body
+     * @param weight the share of the connection the server should give to the response, from 1 to 256
+     */
+    Stream newStream(List<Map.Entry<String, String>> headers, boolean endStream, int weight) throws IOException {
+        synchronized (this) {
+            while (failure == null && !goingAway && streams.size() + reservedStreams >= peerMaxConcurrentStreams) {
+                await();
+            }
+            checkUsable();
+            reservedStreams++;
+        }
+        synchronized (writeLock) {
+            Stream stream;
+            synchronized (this) {
+                reservedStreams--;
+                notifyAll();
+                checkUsable();
+                stream = new Stream(nextStreamId, peerInitialWindow);
+                streams.put(stream.id, stream);
+                nextStreamId += 2;
+                if (nextStreamId < 0) {
+                    // stream ids are exhausted, the next request needs a new connection
+                    goingAway = true;
+                }
+            }
+            try {
+                writeHeaders(stream.id, encoder.encode(headers), endStream, weight);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            return stream;
+        }
+    }
+
+    /**
+     * Returns the stream of the body of a request, sent in DATA frames as fast as the flow
+     * control windows of the server allow. Closing it ends the stream.
+     */
+    OutputStream newBodyStream(Stream stream) {
+        return new BodyOutputStream(stream);
+    }
+
+    /**
+     * Sends bytes of the body of a request, waiting for the flow control windows of the server.
+     * The last call ends the stream, with an empty frame if there is nothing left to send.
+     *
+     * @return false if the server answered already, so the rest of the body is not needed
+     */
+    boolean writeData(Stream stream, byte[] data, int offset, int count, boolean endStream) throws IOException {
+        int end = offset + count;
+        do {
+            int length;
+            synchronized (this) {
+                long since = System.currentTimeMillis();
+                while (stream.error == null && !stream.remoteFinished && !stream.cancelled
+                        && offset < end && (sendWindow <= 0 || stream.sendWindow <= 0)) {
+                    stream.awaitProgress(since);
+                }
+                if (stream.error != null) {
+                    throw stream.error;
+                }
+                if (stream.cancelled) {
+                    throw new IOException("Stream " + stream.id + " cancelled");
+                }
+                if (stream.remoteFinished) {
+                    // the server answered without waiting for the rest of the body
+                    return false;
+                }
+                length = offset == end ? 0 : (int) Math.min(Math.min(end - offset, peerMaxFrameSize),
+                        Math.min(sendWindow, stream.sendWindow));
+                sendWindow -= length;
+                stream.sendWindow -= length;
+            }
+            boolean last = endStream && offset + length == end;
+            try {
+                synchronized (writeLock) {
+                    Http2Frame.write(out, DATA, last ? FLAG_END_STREAM : 0, stream.id, data, offset, length);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            offset += length;
+        } while (offset < end);
+        return true;
+    }
+
+    /**
+     * Asks the server to stop using this connection, closing it once the open streams are done.
+     */
+    void shutdown() {
+        synchronized (this) {
+            goingAway = true;
+            if (failure != null) {
+                return;
+            }
+        }
+        try {
+            synchronized (writeLock) {
+                Http2Frame.write(out, GOAWAY, 0, 0, intPayload(0, NO_ERROR));
+                out.flush();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can not send GOAWAY to " + name, e);
+        }
+        closeIfDone();
+    }
+
+    private void writeHeaders(int streamId, byte[] block, boolean endStream, int weight) throws IOException {
+        // the priority fields come first: no dependency, then the weight
+        byte[] payload = new byte[Math.min(block.length + 5, peerMaxFrameSize)];
+        payload[4] = (byte) (Math.max(1, Math.min(weight, 256)) - 1);
+        int length = payload.length - 5;
+        System.arraycopy(block, 0, payload, 5, length);
+        int flags = FLAG_PRIORITY | (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+        Http2Frame.write(out, HEADERS, flags, streamId, payload);
+        for (int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, peerMaxFrameSize);
+            flags = offset + length == block.length ? FLAG_END_HEADERS : 0;
+            Http2Frame.write(out, CONTINUATION, flags, streamId, block, offset, length);
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) {
+        try {
+            synchronized (writeLock) {
+                Http2Frame.write(out, WINDOW_UPDATE, 0, streamId, intPayload(increment));
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeReset(int streamId, int errorCode) {
+        try {
+            synchronized (writeLock) {
+                Http2Frame.write(out, RST_STREAM, 0, streamId, intPayload(errorCode));
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void readFrames() {
+        try {
+            while (true) {
+                Http2Frame frame = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+                switch (frame.type) {
+                    case DATA:
+                        readData(frame);
+                        break;
+                    case HEADERS:
+                        readHeaders(frame);
+                        break;
+                    case RST_STREAM:
+                        readReset(frame);
+                        break;
+                    case SETTINGS:
+                        if (!frame.hasFlag(FLAG_ACK)) {
+                            applySettings(frame);
+                        }
+                        break;
+                    case PING:
+                        if (!frame.hasFlag(FLAG_ACK)) {
+                            synchronized (writeLock) {
+                                Http2Frame.write(out, PING, FLAG_ACK, 0, frame.payload);
+                                out.flush();
+                            }
+                        }
+                        break;
+                    case GOAWAY:
+                        readGoAway(frame);
+                        break;
+                    case WINDOW_UPDATE:
+                        readWindowUpdate(frame);
+                        break;
+                    case PUSH_PROMISE:
+                    case CONTINUATION:
+                        throw new ConnectionError(PROTOCOL_ERROR, "Unexpected HTTP/2 frame of type " + frame.type);
+                    default:
+                        // PRIORITY and unknown frames are ignored
+                        break;
+                }
+            }
+        } catch (ConnectionError e) {
+            try {
+                synchronized (writeLock) {
+                    Http2Frame.write(out, GOAWAY, 0, 0, intPayload(0, e.errorCode));
+                    out.flush();
+                }
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+            fail(e);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void readData(Http2Frame frame) throws IOException {
+        int offset = 0;
+        int end = frame.payload.length;
+        if (frame.hasFlag(FLAG_PADDED)) {
+            offset = 1;
+            end -= frame.payload.length == 0 ? 0 : frame.payload[0] & 0xff;
+            if (end < offset) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 padding");
+            }
+        }
+
+        // the connection window is replenished as data arrives, the stream ones as it is read
+        connectionUnacked += frame.payload.length;
+        if (connectionUnacked >= CONNECTION_WINDOW / 2) {
+            writeWindowUpdate(0, connectionUnacked);
+            connectionUnacked = 0;
+        }
+
+        synchronized (this) {
+            Stream stream = streams.get(frame.streamId);
+            if (stream == null) {
+                return;
+            }
+            if (end > offset) {
+                byte[] data = new byte[end - offset];
+                System.arraycopy(frame.payload, offset, data, 0, data.length);
+                stream.data.add(data);
+            }
+            stream.unacked += frame.payload.length - (end - offset);
+            if (frame.hasFlag(FLAG_END_STREAM)) {
+                finished(stream);
+            }
+            notifyAll();
+        }
+    }
+
+    private void readHeaders(Http2Frame frame) throws IOException {
+        int offset = 0;
+        int end = frame.payload.length;
+        if (frame.hasFlag(FLAG_PADDED)) {
+            offset = 1;
+            end -= frame.payload.length == 0 ? 0 : frame.payload[0] & 0xff;
+        }
+        if (frame.hasFlag(FLAG_PRIORITY)) {
+            offset += 5;
+        }
+        if (end < offset) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 HEADERS frame");
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream(end - offset);
+        block.write(frame.payload, offset, end - offset);
+        Http2Frame fragment = frame;
+        while (!fragment.hasFlag(FLAG_END_HEADERS)) {
+            fragment = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+            if (fragment.type != CONTINUATION || fragment.streamId != frame.streamId) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Interrupted HTTP/2 header block");
+            }
+            block.write(fragment.payload, 0, fragment.payload.length);
+        }
+
+        // every block goes through the decoder, its table must follow the one of the server
+        List<Map.Entry<String, String>> headers;
+        try {
+            headers = decoder.decode(block.toByteArray());
+        } catch (IOException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+
+        synchronized (this) {
+            Stream stream = streams.get(frame.streamId);
+            if (stream == null) {
+                return;
+            }
+            if (stream.headers == null) {
+                String status = null;
+                for (Map.Entry<String, String> header : headers) {
+                    if (header.getKey().equals(":status")) {
+                        status = header.getValue();
+                    }
+                }
+                if (status == null) {
+                    stream.error = new IOException("HTTP/2 response without status");
+                    streams.remove(stream.id);
+                } else if (!status.startsWith("1")) {
+                    stream.headers = headers;
+                }
+            }
+            // later blocks are trailers, which are not used
+            if (frame.hasFlag(FLAG_END_STREAM)) {
+                finished(stream);
+            }
+            notifyAll();
+        }
+    }
+
+    private void readReset(Http2Frame frame) throws IOException {
+        if (frame.payload.length != 4) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 RST_STREAM frame");
+        }
+        int errorCode = readInt(frame.payload, 0);
+        synchronized (this) {
+            Stream stream = streams.remove(frame.streamId);
+            if (stream != null) {
+                stream.error = errorCode == REFUSED_STREAM
+                        ? new RefusedStreamException("Stream " + stream.id + " refused by " + name)
+                        : new IOException("Stream " + stream.id + " reset by " + name + " with error " + errorCode);
+                idle();
+                notifyAll();
+            }
+        }
+    }
+
+    private void readGoAway(Http2Frame frame) throws IOException {
+        if (frame.payload.length < 8) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 GOAWAY frame");
+        }
+        int lastStreamId = readInt(frame.payload, 0) & 0x7fffffff;
+        synchronized (this) {
+            goingAway = true;
+            // the server did not look at the later streams, they can be sent again elsewhere
+            for (Iterator<Stream> iterator = streams.values().iterator(); iterator.hasNext(); ) {
+                Stream stream = iterator.next();
+                if (stream.id > lastStreamId) {
+                    stream.error = new RefusedStreamException("Stream " + stream.id + " refused by " + name);
+                    iterator.remove();
+                }
+            }
+            idle();
+            notifyAll();
+        }
+        closeIfDone();
+    }
+
+    private void readWindowUpdate(Http2Frame frame) throws IOException {
+        if (frame.payload.length != 4) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 WINDOW_UPDATE frame");
+        }
+        int increment = readInt(frame.payload, 0) & 0x7fffffff;
+        synchronized (this) {
+            if (frame.streamId == 0) {
+                sendWindow += increment;
+            } else {
+                Stream stream = streams.get(frame.streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void applySettings(Http2Frame frame) throws IOException {
+        if (frame.payload.length % 6 != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 SETTINGS frame");
+        }
+        synchronized (writeLock) {
+            synchronized (this) {
+                for (int i = 0; i < frame.payload.length; i += 6) {
+                    int id = (frame.payload[i] & 0xff) << 8 | (frame.payload[i + 1] & 0xff);
+                    int value = readInt(frame.payload, i + 2);
+                    switch (id) {
+                        case SETTINGS_HEADER_TABLE_SIZE:
+                            encoder.setMaxTableSize(value < 0 ? Hpack.DEFAULT_TABLE_SIZE
+                                    : Math.min(value, Hpack.DEFAULT_TABLE_SIZE));
+                            break;
+                        case SETTINGS_MAX_CONCURRENT_STREAMS:
+                            peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                            break;
+                        case SETTINGS_INITIAL_WINDOW_SIZE:
+                            if (value < 0) {
+                                throw new ConnectionError(FLOW_CONTROL_ERROR, "Invalid HTTP/2 window size");
+                            }
+                            for (Stream stream : streams.values()) {
+                                stream.sendWindow += value - peerInitialWindow;
+                            }
+                            peerInitialWindow = value;
+                            break;
+                        case SETTINGS_MAX_FRAME_SIZE:
+                            if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                                throw new ConnectionError(PROTOCOL_ERROR, "Invalid HTTP/2 frame size");
+                            }
+                            peerMaxFrameSize = value;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                notifyAll();
+            }
+            Http2Frame.write(out, SETTINGS, FLAG_ACK, 0, new byte[0]);
+            out.flush();
+        }
+    }
+
+    /**
+     * Marks the server side of a stream as finished, guarded by the connection.
+     */
+    private void finished(Stream stream) {
+        stream.remoteFinished = true;
+        streams.remove(stream.id);
+        idle();
+    }
+
+    private void idle() {
+        if (streams.isEmpty()) {
+            idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private void closeIfDone() {
+        synchronized (this) {
+            if (!goingAway || !streams.isEmpty() || reservedStreams > 0) {
+                return;
+            }
+        }
+        closeQuietly(socket);
+    }
+
+    private void fail(IOException cause) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = new IOException("HTTP/2 connection to " + name + " failed", cause);
+            }
+            for (Stream stream : streams.values()) {
+                if (stream.error == null) {
+                    stream.error = failure;
+                }
+            }
+            streams.clear();
+            notifyAll();
+        }
+        closeQuietly(socket);
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (goingAway) {
+            throw new RefusedStreamException("Connection to " + name + " is shutting down");
+        }
+    }
+
+    /**
+     * Waits on the connection, which must be held.
+     */
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * A request and its response. The response headers are awaited with {@link #awaitHeaders()},
+     * then the body is read from {@link #getBody()}.
+     */
+    final class Stream {
+
+        final int id;
+        private int readTimeoutMillis;
+        private long sendWindow;
+        private List<Map.Entry<String, String>> headers;
+        private final LinkedList<byte[]> data = new LinkedList<byte[]>();
+        private int dataOffset;
+        private int unacked;
+        private boolean remoteFinished;
+        private boolean cancelled;
+        private IOException error;
+
+        private Stream(int id, long sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+
+        /**
+         * Sets how long to wait for the server to make progress on the stream, 0 for no limit.
+         */
+        void setReadTimeout(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        /**
+         * Waits for the final response headers, the <code>:status</code> pseudo header included.
+         */
+        List<Map.Entry<String, String>> awaitHeaders() throws IOException {
+            synchronized (Http2Connection.this) {
+                long since = System.currentTimeMillis();
+                while (headers == null && error == null && !remoteFinished && !cancelled) {
+                    awaitProgress(since);
+                }
+                if (error != null) {
+                    throw error;
+                }
+                if (cancelled) {
+                    throw new IOException("Stream " + id + " cancelled");
+                }
+                if (headers == null) {
+                    throw new IOException("HTTP/2 response without headers");
+                }
+                return new ArrayList<Map.Entry<String, String>>(headers);
+            }
+        }
+
+        /**
+         * Returns the response body. Closing it before its end cancels the stream.
+         */
+        InputStream getBody() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    int read;
+                    int acknowledge = 0;
+                    synchronized (Http2Connection.this) {
+                        long since = System.currentTimeMillis();
+                        while (data.isEmpty() && error == null && !remoteFinished && !cancelled) {
+                            awaitProgress(since);
+                        }
+                        if (error != null) {
+                            throw error;
+                        }
+                        if (cancelled) {
+                            throw new IOException("Stream " + id + " cancelled");
+                        }
+                        if (data.isEmpty()) {
+                            return -1;
+                        }
+                        byte[] chunk = data.getFirst();
+                        read = Math.min(length, chunk.length - dataOffset);
+                        System.arraycopy(chunk, dataOffset, buffer, offset, read);
+                        dataOffset += read;
+                        if (dataOffset == chunk.length) {
+                            data.removeFirst();
+                            dataOffset = 0;
+                        }
+                        unacked += read;
+                        if (unacked >= STREAM_WINDOW / 2 && !remoteFinished) {
+                            acknowledge = unacked;
+                            unacked = 0;
+                        }
+                    }
+                    if (acknowledge > 0) {
+                        writeWindowUpdate(id, acknowledge);
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() {
+                    cancel();
+                }
+            };
+        }
+
+        /**
+         * Waits on the connection, which must be held, failing once the read timeout
+         * passed since the given time.
+         */
+        private void awaitProgress(long since) throws IOException {
+            if (readTimeoutMillis <= 0) {
+                await();
+                return;
+            }
+            long remaining = readTimeoutMillis - (System.currentTimeMillis() - since);
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Stream " + id + " timed out after " + readTimeoutMillis + " ms");
+            }
+            try {
+                Http2Connection.this.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * Tells the server the response is not wanted anymore, unless it was complete.
+         */
+        void cancel() {
+            synchronized (Http2Connection.this) {
+                data.clear();
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                Http2Connection.this.notifyAll();
+                if (remoteFinished || error != null) {
+                    return;
+                }
+                streams.remove(id);
+                idle();
+            }
+            writeReset(id, CANCEL);
+            closeIfDone();
+        }
+
+    }
+
+    /**
+     * Collects the body of a request into frames of the default size, the smallest one the
+     * server may announce, and sends each one as it fills.
+     */
+    private final class BodyOutputStream extends OutputStream {
+
+        private final Stream stream;
+        private final byte[] buffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+        private int count;
+        private boolean answered;
+        private boolean closed;
+
+        BodyOutputStream(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                send(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    send(false);
+                }
+                int copied = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, copied);
+                count += copied;
+                off += copied;
+                len -= copied;
+            }
+        }
+
+        /**
+         * Sends the rest of the body and ends the stream.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                send(true);
+            }
+        }
+
+        private void send(boolean endStream) throws IOException {
+            if (!answered) {
+                answered = !writeData(stream, buffer, 0, count, endStream);
+            }
+            count = 0;
+        }
+
+    }
+
+    /**
+     * Thrown when the server did not process a request, which can safely be sent again.
+     */
+    static class RefusedStreamException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        RefusedStreamException(String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Thrown when a server answers, but not in HTTP/2.
+     */
+    static final class NotSupportedException extends ProtocolException {
+
+        private static final long serialVersionUID = 1L;
+
+        NotSupportedException(String server) {
+            super(server + " does not speak HTTP/2");
+        }
+
+    }
+
+    private static final class ConnectionError extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int errorCode;
+
+        private ConnectionError(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+
+/**
+ * A frame of an HTTP/2 connection (RFC 7540, section 4): a 9 byte header giving the length,
+ * type, flags and stream of the payload which follows.
+ */
+final class Http2Frame {
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    final int type;
+    final int flags;
+    final int streamId;
+    final byte[] payload;
+
+    Http2Frame(int type, int flags, int streamId, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.streamId = streamId;
+        this.payload = payload;
+    }
+
+    boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * Reads the next frame, refusing payloads larger than the given size.
+     */
+    static Http2Frame read(DataInputStream in, int maxFrameSize) throws IOException {
+        int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+        int type = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        int streamId = in.readInt() & 0x7fffffff;
+        if (length > maxFrameSize) {
+            throw new ProtocolException("HTTP/2 frame of " + length + " bytes above " + maxFrameSize);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Http2Frame(type, flags, streamId, payload);
+    }
+
+    static void write(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        write(out, type, flags, streamId, payload, 0, payload.length);
+    }
+
+    static void write(OutputStream out, int type, int flags, int streamId,
+                      byte[] payload, int offset, int length) throws IOException {
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(type);
+        out.write(flags);
+        writeInt(out, streamId & 0x7fffffff);
+        out.write(payload, offset, length);
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * Returns the payload of a SETTINGS frame holding the given identifier and value pairs.
+     */
+    static byte[] settings(int... pairs) {
+        byte[] payload = new byte[pairs.length / 2 * 6];
+        for (int i = 0, p = 0; i < pairs.length; i += 2, p += 6) {
+            payload[p] = (byte) (pairs[i] >>> 8);
+            payload[p + 1] = (byte) pairs[i];
+            payload[p + 2] = (byte) (pairs[i + 1] >>> 24);
+            payload[p + 3] = (byte) (pairs[i + 1] >>> 16);
+            payload[p + 4] = (byte) (pairs[i + 1] >>> 8);
+            payload[p + 5] = (byte) pairs[i + 1];
+        }
+        return payload;
+    }
+
+    static byte[] intPayload(int... values) {
+        byte[] payload = new byte[values.length * 4];
+        for (int i = 0; i < values.length; i++) {
+            payload[4 * i] = (byte) (values[i] >>> 24);
+            payload[4 * i + 1] = (byte) (values[i] >>> 16);
+            payload[4 * i + 2] = (byte) (values[i] >>> 8);
+            payload[4 * i + 3] = (byte) values[i];
+        }
+        return payload;
+    }
+
+}
@@ -0,0 +1,455 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import android.util.Log;
+import org.aerogear.android.core.BodyWriter;
+import org.aerogear.android.core.HeaderAndStream;
+import org.aerogear.android.core.HttpProvider;
+import org.apache.http.MethodNotSupportedException;
+import org.aerogear.android.impl.core.HttpRestProvider.Validators;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.aerogear.android.impl.core.HttpRestProvider.appendIdToURL;
+import static org.aerogear.android.impl.core.HttpRestProvider.appendQueryToURL;
+
+/**
+ * HttpProvider sending its requests over the HTTP/2 connection of the {@link HttpConnectionPool}
+ * to the host of the resource, concurrently with the requests of every other provider to the
+ * same host, with compressed headers.
+ *
+ * HTTP/2 is started with prior knowledge over cleartext connections only: negotiating it over
+ * TLS needs ALPN, which this platform does not offer. Requests to <code>https</code> URLs and to
+ * servers which do not speak HTTP/2 go through the fallback provider instead.
+ */
+public final class Http2Provider implements HttpProvider {
+
+    private static final String TAG = "AeroGear";
+
+    /**
+     * Reads feed the screen, so the server is asked to favour them over writes.
+     */
+    private static final int READ_WEIGHT = 256;
+    private static final int WRITE_WEIGHT = 64;
+
+    private final URL url;
+    private final HttpConnectionPool connectionPool;
+    private final HttpProvider fallback;
+    private final boolean cleartext;
+    private final String host;
+    private final int port;
+
+    /**
+     * Request bodies of at least this many bytes, or of unknown length, are sent gzip compressed,
+     * a negative value disables it.
+     */
+    private int requestCompressionThreshold = -1;
+
+    private RetryPolicy retryPolicy;
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * How long to wait for a connection and for the server to make progress on a stream, 0 for no limit.
+     */
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+
+    /**
+     * The ETag and Last-Modified validators of the last response to each GET URL.
+     */
+    private final ConcurrentMap<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+
+    /**
+     * @param url the URL of the resource
+     * @param connectionPool the connections to use, usually shared with the other providers of a Pipeline
+     * @param fallback the provider used when HTTP/2 is not available, usually an {@link HttpRestProvider}
+     */
+    public Http2Provider(URL url, HttpConnectionPool connectionPool, HttpProvider fallback) {
+        this.url = url;
+        this.connectionPool = connectionPool;
+        this.fallback = fallback;
+        this.cleartext = "http".equalsIgnoreCase(url.getProtocol());
+        this.host = url.getHost();
+        this.port = url.getPort() < 0 ? 80 : url.getPort();
+    }
+
+    /**
+     * Sets the size, in bytes, from which request bodies are sent gzip compressed; bodies whose
+     * size is not known up front are compressed too. A negative value, the default, never
+     * compresses them.
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * Sets how failed idempotent requests are retried, null not to retry them.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the circuit breaker of the backend, null to always send requests.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Sets how long to wait for a connection to the server and for the next bytes of
+     * a response, in milliseconds. 0, the default, waits without limit.
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] get() throws Exception {
+        if (!isAvailable()) {
+            return fallback.get();
+        }
+        try {
+            return body(exchange("GET", url.toString(), null, null, READ_WEIGHT));
+        } catch (Http2Connection.NotSupportedException e) {
+            return fallback.get();
+        } catch (IOException e) {
+            Log.e(TAG, "Error on GET of " + url, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Closing the returned stream before its end cancels the response.
+     */
+    @Override
+    public HeaderAndStream getStream(Map<String, String> parameters) throws RuntimeException {
+        return getStream(parameters, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * When conditional, the validators of the last response to the same URL are sent
+     * along, and a <code>304 Not Modified</code> answer comes back with an empty stream.
+     */
+    @Override
+    public HeaderAndStream getStream(Map<String, String> parameters, boolean conditional) throws RuntimeException {
+        if (!isAvailable()) {
+            return fallback.getStream(parameters, conditional);
+        }
+        String target = appendQueryToURL(url, parameters);
+        Map<String, String> headers = new HashMap<String, String>();
+        Validators known = validators.get(target);
+        if (conditional && known != null) {
+            if (known.etag != null) {
+                headers.put("if-none-match", known.etag);
+            }
+            if (known.lastModified != null) {
+                headers.put("if-modified-since", known.lastModified);
+            }
+        }
+        try {
+            HeaderAndStream response = exchange("GET", target, null, headers, READ_WEIGHT);
+            if (response.getStatusCode() == 200) {
+                String etag = response.getHeader("ETag");
+                String lastModified = response.getHeader("Last-Modified");
+                if (etag == null && lastModified == null) {
+                    validators.remove(target);
+                } else {
+                    validators.put(target, new Validators(etag, lastModified));
+                }
+            }
+            return response;
+        } catch (Http2Connection.NotSupportedException e) {
+            return fallback.getStream(parameters, conditional);
+        } catch (IOException e) {
+            Log.e(TAG, "Error on GET of " + target, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The data is sent encoded as UTF-8.
+     */
+    @Override
+    public byte[] post(String data) throws RuntimeException {
+        return post(ByteArrayBody.utf8(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The body is written to the stream as the request is sent.
+     */
+    @Override
+    public byte[] post(BodyWriter data) throws RuntimeException {
+        if (!isAvailable()) {
+            return fallback.post(data);
+        }
+        try {
+            return body(exchange("POST", url.toString(), data, null, WRITE_WEIGHT));
+        } catch (Http2Connection.NotSupportedException e) {
+            return fallback.post(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Error on POST of " + url, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The data is sent encoded as UTF-8.
+     */
+    @Override
+    public byte[] put(String id, String data) throws RuntimeException {
+        return put(id, ByteArrayBody.utf8(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The body is written to the stream as the request is sent.
+     */
+    @Override
+    public byte[] put(String id, BodyWriter data) throws RuntimeException {
+        if (!isAvailable()) {
+            return fallback.put(id, data);
+        }
+        try {
+            return body(exchange("PUT", appendIdToURL(url, id), data, null, WRITE_WEIGHT));
+        } catch (Http2Connection.NotSupportedException e) {
+            return fallback.put(id, data);
+        } catch (IOException e) {
+            Log.e(TAG, "Error on PUT of " + url, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The body is sent as a JSON Merge Patch. A server answering that it does not support
+     * it makes this throw a RuntimeException caused by a {@link MethodNotSupportedException}.
+     */
+    @Override
+    public byte[] patch(String id, BodyWriter data) throws RuntimeException {
+        if (!isAvailable()) {
+            return fallback.patch(id, data);
+        }
+        try {
+            HeaderAndStream response = exchange("PATCH", appendIdToURL(url, id), data,
+                    Collections.singletonMap("content-type", HttpRestProvider.MERGE_PATCH), WRITE_WEIGHT);
+            if (HttpRestProvider.rejectsPatch(response.getStatusCode())) {
+                response.close();
+                throw new RuntimeException(new MethodNotSupportedException("PATCH is not supported by " + url));
+            }
+            return body(response);
+        } catch (Http2Connection.NotSupportedException e) {
+            return fallback.patch(id, data);
+        } catch (IOException e) {
+            Log.e(TAG, "Error on PATCH of " + url, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] delete(String id) throws RuntimeException {
+        if (!isAvailable()) {
+            return fallback.delete(id);
+        }
+        try {
+            return body(exchange("DELETE", appendIdToURL(url, id), null, null, WRITE_WEIGHT));
+        } catch (Http2Connection.NotSupportedException e) {
+            return fallback.delete(id);
+        } catch (IOException e) {
+            Log.e(TAG, "Error on DELETE of " + url, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the body of a response, throwing a {@link org.aerogear.android.core.HttpStatusException}
+     * if its status is an error.
+     */
+    private static byte[] body(HeaderAndStream response) throws IOException {
+        return HttpRestProvider.body(response.getStatusCode(), response.getStream());
+    }
+
+    private boolean isAvailable() {
+        return cleartext && connectionPool.mayUseHttp2(host, port);
+    }
+
+    /**
+     * Sends a request under the retry policy and circuit breaker, and waits for the response headers.
+     */
+    private HeaderAndStream exchange(String method, String target, BodyWriter data,
+                                     Map<String, String> extraHeaders, final int weight) throws IOException {
+        URL targetUrl = new URL(target);
+        String path = targetUrl.getFile();
+        final List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+        headers.add(header(":method", method));
+        headers.add(header(":scheme", "http"));
+        headers.add(header(":authority", targetUrl.getAuthority()));
+        headers.add(header(":path", path.length() == 0 ? "/" : path));
+        headers.add(header("accept", "application/json"));
+        headers.add(header("accept-encoding", "gzip, deflate"));
+        RequestBody content = null;
+        if (data != null) {
+            content = RequestBody.of(data, requestCompressionThreshold);
+            if (extraHeaders == null || !extraHeaders.containsKey("content-type")) {
+                headers.add(header("content-type", "application/json"));
+            }
+            if (content.isCompressed()) {
+                headers.add(header("content-encoding", "gzip"));
+            }
+            if (content.getContentLength() >= 0) {
+                headers.add(header("content-length", String.valueOf(content.getContentLength())));
+            }
+        }
+        if (extraHeaders != null) {
+            for (Map.Entry<String, String> header : extraHeaders.entrySet()) {
+                headers.add(header(header.getKey(), header.getValue()));
+            }
+        }
+
+        final RequestBody body = content;
+        final RequestControl control = RequestControl.current();
+        boolean idempotent = RequestGuard.isIdempotent(method);
+        return RequestGuard.run(retryPolicy, circuitBreaker, idempotent, new RequestGuard.Attempt<HeaderAndStream>() {
+            @Override
+            public HeaderAndStream send() throws IOException {
+                try {
+                    return sendOnce(headers, body, weight, control);
+                } catch (IOException e) {
+                    if (control != null) {
+                        control.checkpoint();
+                    }
+                    throw e;
+                }
+            }
+
+            @Override
+            public int statusCode(HeaderAndStream response) {
+                return response.getStatusCode();
+            }
+
+            @Override
+            public void discard(HeaderAndStream response) throws IOException {
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Sends a request and waits for the response headers. A request the server refused without
+     * processing it, as it does for the requests in flight when it closes a connection, is sent
+     * once more on a new connection.
+     */
+    private HeaderAndStream sendOnce(List<Map.Entry<String, String>> headers, RequestBody body,
+                                     int weight, RequestControl control) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Http2Connection connection = connectionPool.getHttp2Connection(host, port, connectTimeoutMillis);
+            Http2Connection.Stream stream = null;
+            try {
+                stream = connection.newStream(headers, body == null, weight);
+                stream.setReadTimeout(readTimeoutMillis);
+                if (control != null) {
+                    // stays registered while the response is read
+                    final Http2Connection.Stream cancellable = stream;
+                    control.setAbort(new Runnable() {
+                        @Override
+                        public void run() {
+                            cancellable.cancel();
+                        }
+                    });
+                }
+                if (body != null) {
+                    OutputStream out = connection.newBodyStream(stream);
+                    body.writeTo(out);
+                    out.close();
+                }
+                return response(stream, stream.awaitHeaders());
+            } catch (Http2Connection.RefusedStreamException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (stream != null) {
+                    stream.cancel();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static HeaderAndStream response(Http2Connection.Stream stream,
+                                            List<Map.Entry<String, String>> headers) throws IOException {
+        int statusCode = 0;
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        for (Map.Entry<String, String> header : headers) {
+            if (header.getKey().equals(":status")) {
+                try {
+                    statusCode = Integer.parseInt(header.getValue());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid HTTP/2 status " + header.getValue());
+                }
+            } else if (!header.getKey().startsWith(":")) {
+                HttpRestProvider.addHeader(responseHeaders, header.getKey(), header.getValue());
+            }
+        }
+        InputStream content = HttpRestProvider.decode(stream.getBody(), responseHeaders.get("content-encoding"));
+        return new HeaderAndStream(statusCode, responseHeaders, content);
+    }
+
+    private static Map.Entry<String, String> header(String name, String value) {
+        return new SimpleImmutableEntry<String, String>(name.toLowerCase(), value);
+    }
+
+}
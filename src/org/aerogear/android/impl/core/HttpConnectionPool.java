@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.core;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread safe pool of keep-alive HTTP connections, shared by the {@link HttpRestProvider}s of a
+ * {@link org.aerogear.android.Pipeline}. Connections idle for longer than the idle timeout are
+ * closed, checked lazily when a client is handed out.
+ *
+ * The {@link Http2Provider}s share a single HTTP/2 connection per host instead.
+ */
+public final class HttpConnectionPool {
+
+    public static final int DEFAULT_MAX_TOTAL = 20;
+    public static final int DEFAULT_MAX_PER_ROUTE = 6;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+    private final DefaultHttpClient client;
+    private final ClientConnectionManager connectionManager;
+    private final long idleTimeoutMillis;
+    private volatile long lastEviction = System.currentTimeMillis();
+
+    /**
+     * The HTTP/2 connection to each host and port, and the ones found not to speak HTTP/2.
+     */
+    private final Map<String, Http2Connection> http2Connections = new HashMap<String, Http2Connection>();
+    private final Set<String> http1Servers = new HashSet<String>();
+
+    /**
+     * The connections being opened, by server. They are opened outside of the lock of the pool,
+     * so connecting to a slow server does not hold up the requests to the others.
+     */
+    private final Map<String, PendingConnection> pendingConnections = new HashMap<String, PendingConnection>();
+
+    public HttpConnectionPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxTotal the maximum number of open connections
+     * @param maxPerRoute the maximum number of open connections to one host
+     * @param idleTimeoutMillis how long an unused connection is kept open
+     */
+    public HttpConnectionPool(int maxTotal, int maxPerRoute, final long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        HttpParams params = new BasicHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, maxTotal);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerRoute));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        this.connectionManager = new ThreadSafeClientConnManager(params, registry);
+        this.client = new DefaultHttpClient(connectionManager, params);
+        // retries are left to the RetryPolicy, which backs off and goes through the circuit breaker
+        this.client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+        this.client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy serverAnnounced = new DefaultConnectionKeepAliveStrategy();
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = serverAnnounced.getKeepAliveDuration(response, context);
+                return duration < 0 ? idleTimeoutMillis : Math.min(duration, idleTimeoutMillis);
+            }
+        });
+    }
+
+    /**
+     * Returns the client issuing requests over the pooled connections.
+     */
+    public HttpClient getClient() {
+        evictIfDue();
+        return client;
+    }
+
+    /**
+     * Returns whether the given server may speak HTTP/2, that is it was not found not to.
+     */
+    boolean mayUseHttp2(String host, int port) {
+        synchronized (http2Connections) {
+            return !http1Servers.contains(host + ":" + port);
+        }
+    }
+
+    /**
+     * Returns the HTTP/2 connection to the given server, opening it if there is none usable.
+     *
+     * @param connectTimeoutMillis how long to wait for the server when connecting, 0 for the default
+     * @throws Http2Connection.NotSupportedException if the server does not speak HTTP/2,
+     * which is remembered for the later calls
+     */
+    Http2Connection getHttp2Connection(String host, int port, int connectTimeoutMillis) throws IOException {
+        evictIfDue();
+        String server = host + ":" + port;
+        PendingConnection pending;
+        boolean opening = false;
+        synchronized (http2Connections) {
+            if (http1Servers.contains(server)) {
+                throw new Http2Connection.NotSupportedException(server);
+            }
+            Http2Connection connection = http2Connections.get(server);
+            if (connection != null && connection.isUsable()) {
+                return connection;
+            }
+            pending = pendingConnections.get(server);
+            if (pending == null) {
+                pending = new PendingConnection();
+                pendingConnections.put(server, pending);
+                opening = true;
+            }
+        }
+        if (!opening) {
+            // another request is connecting, share its connection
+            return pending.await(server);
+        }
+
+        Http2Connection connection = null;
+        IOException failure = null;
+        try {
+            connection = Http2Connection.open(host, port, connectTimeoutMillis);
+            return connection;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            synchronized (http2Connections) {
+                pendingConnections.remove(server);
+                if (connection != null) {
+                    http2Connections.put(server, connection);
+                } else if (failure instanceof Http2Connection.NotSupportedException) {
+                    http1Servers.add(server);
+                }
+            }
+            pending.complete(connection, failure);
+        }
+    }
+
+    private void evictIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastEviction > idleTimeoutMillis) {
+            lastEviction = now;
+            evictIdleConnections();
+        }
+    }
+
+    /**
+     * Closes the connections whose keep-alive expired or which were unused for the idle timeout.
+     */
+    public void evictIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        synchronized (http2Connections) {
+            for (Iterator<Http2Connection> iterator = http2Connections.values().iterator(); iterator.hasNext(); ) {
+                Http2Connection connection = iterator.next();
+                if (!connection.isUsable() || connection.isIdle(idleTimeoutMillis)) {
+                    connection.shutdown();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * An HTTP/2 connection being opened, which the other requests to its server wait for.
+     */
+    private static final class PendingConnection {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Http2Connection connection;
+        private IOException failure;
+
+        void complete(Http2Connection connection, IOException failure) {
+            this.connection = connection;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        Http2Connection await(String server) throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (failure instanceof Http2Connection.NotSupportedException) {
+                throw new Http2Connection.NotSupportedException(server);
+            }
+            if (connection == null) {
+                IOException error = new IOException("Can not connect to " + server);
+                error.initCause(failure);
+                throw error;
+            }
+            return connection;
+        }
+
+    }
+
+    /**
+     * Closes all connections. The pool cannot be used afterwards.
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+        synchronized (http2Connections) {
+            for (Http2Connection connection : http2Connections.values()) {
+                connection.shutdown();
+            }
+            http2Connections.clear();
+        }
+    }
+
+}
@@ -18,24 +18,31 @@
 package org.aerogear.android.impl.core;
 
 import android.util.Log;
+import org.aerogear.android.core.BodyWriter;
+import org.aerogear.android.core.HeaderAndStream;
 import org.aerogear.android.core.HttpProvider;
+import org.aerogear.android.core.HttpStatusException;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.MethodNotSupportedException;
 import org.apache.http.client.methods.*;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.entity.BasicHttpEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.params.HttpConnectionParams;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * HttpProvider implementation using principles of REST
@@ -44,12 +51,77 @@ public final class HttpRestProvider implements HttpProvider {
 
     private static final String TAG = "AeroGear";
 
+    /**
+     * The content type of JSON Merge Patches (RFC 7396).
+     */
+    static final String MERGE_PATCH = "application/merge-patch+json";
+
     private final URL url;
-    private final HttpClient client;
+    private final HttpConnectionPool connectionPool;
+
+    /**
+     * Request bodies of at least this many bytes, or of unknown length, are sent gzip compressed,
+     * a negative value disables it.
+     */
+    private int requestCompressionThreshold = -1;
+
+    private RetryPolicy retryPolicy;
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * How long to wait for a connection and for the next bytes of a response, 0 for no limit.
+     */
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+
+    /**
+     * The ETag and Last-Modified validators of the last response to each GET URL.
+     */
+    private final ConcurrentMap<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
 
     public HttpRestProvider(URL url) {
+        this(url, new HttpConnectionPool());
+    }
+
+    /**
+     * @param url the URL of the resource
+     * @param connectionPool the connections to use, usually shared with the other providers of a Pipeline
+     */
+    public HttpRestProvider(URL url, HttpConnectionPool connectionPool) {
         this.url = url;
-        this.client = new DefaultHttpClient();
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Sets the size, in bytes, from which request bodies are sent gzip compressed; bodies whose
+     * size is not known up front are compressed too. A negative value, the default, never
+     * compresses them.
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * Sets how failed idempotent requests are retried, null not to retry them.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the circuit breaker of the backend, null to always send requests.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Sets how long to wait for a connection to the server and for the next bytes of
+     * a response, in milliseconds. 0, the default, waits without limit.
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
     }
 
     /**
@@ -75,12 +147,72 @@ public final class HttpRestProvider implements HttpProvider {
 
     /**
      * {@inheritDoc}
+     *
+     * The returned stream is the content of the response entity; closing it
+     * releases the underlying connection.
+     */
+    @Override
+    public HeaderAndStream getStream(Map<String, String> parameters) throws RuntimeException {
+        return getStream(parameters, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * When conditional, the validators of the last response to the same URL are sent
+     * along, and a <code>304 Not Modified</code> answer comes back with an empty stream.
+     */
+    @Override
+    public HeaderAndStream getStream(Map<String, String> parameters, boolean conditional) throws RuntimeException {
+        String target = appendQueryToURL(url, parameters);
+        HttpGet get = new HttpGet(target);
+        Validators known = validators.get(target);
+        if (conditional && known != null) {
+            if (known.etag != null) {
+                get.setHeader("If-None-Match", known.etag);
+            }
+            if (known.lastModified != null) {
+                get.setHeader("If-Modified-Since", known.lastModified);
+            }
+        }
+        try {
+            HttpResponse response = send(get);
+            int statusCode = response.getStatusLine().getStatusCode();
+            Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (Header header : response.getAllHeaders()) {
+                addHeader(headers, header.getName(), header.getValue());
+            }
+            if (statusCode == 200) {
+                remember(target, response);
+            }
+            InputStream stream = content(response.getEntity());
+            return new HeaderAndStream(statusCode, headers, stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Error on GET of " + target, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The data is sent encoded as UTF-8.
      */
     @Override
     public byte[] post(String data) throws RuntimeException {
+        return post(ByteArrayBody.utf8(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The body is written to the connection as the request is sent.
+     */
+    @Override
+    public byte[] post(BodyWriter data) throws RuntimeException {
         HttpPost post = new HttpPost(url.toString());
-        addBodyRequest(post, data);
         try {
+            addBodyRequest(post, data);
             return execute(post);
         } catch (IOException e) {
             Log.e(TAG, "Error on POST of " + url, e);
@@ -90,12 +222,24 @@ public final class HttpRestProvider implements HttpProvider {
 
     /**
      * {@inheritDoc}
+     *
+     * The data is sent encoded as UTF-8.
      */
     @Override
     public byte[] put(String id, String data) throws RuntimeException {
-        HttpPut put = new HttpPut(appendIdToURL(id));
-        addBodyRequest(put, data);
+        return put(id, ByteArrayBody.utf8(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The body is written to the connection as the request is sent.
+     */
+    @Override
+    public byte[] put(String id, BodyWriter data) throws RuntimeException {
+        HttpPut put = new HttpPut(appendIdToURL(url, id));
         try {
+            addBodyRequest(put, data);
             return execute(put);
         } catch (IOException e) {
             Log.e(TAG, "Error on PUT of " + url, e);
@@ -103,12 +247,38 @@ public final class HttpRestProvider implements HttpProvider {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The body is sent as a JSON Merge Patch. A server answering that it does not support
+     * it makes this throw a RuntimeException caused by a {@link MethodNotSupportedException}.
+     */
+    @Override
+    public byte[] patch(String id, BodyWriter data) throws RuntimeException {
+        HttpPatch patch = new HttpPatch(appendIdToURL(url, id));
+        patch.setHeader("Content-type", MERGE_PATCH);
+        try {
+            addBodyRequest(patch, data);
+            HttpResponse response = send(patch);
+            if (rejectsPatch(response.getStatusLine().getStatusCode())) {
+                if (response.getEntity() != null) {
+                    response.getEntity().consumeContent();
+                }
+                throw new RuntimeException(new MethodNotSupportedException("PATCH is not supported by " + url));
+            }
+            return body(response.getStatusLine().getStatusCode(), content(response.getEntity()));
+        } catch (IOException e) {
+            Log.e(TAG, "Error on PATCH of " + url, e);
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public byte[] delete(String id) throws RuntimeException {
-        HttpDelete delete = new HttpDelete(appendIdToURL(id));
+        HttpDelete delete = new HttpDelete(appendIdToURL(url, id));
         try {
             return execute(delete);
         } catch (IOException e) {
@@ -117,21 +287,163 @@ public final class HttpRestProvider implements HttpProvider {
         }
     }
 
-    private void addBodyRequest(HttpEntityEnclosingRequestBase requestBase, String data) {
-        BasicHttpEntity entity = new BasicHttpEntity();
-        entity.setContent(new ByteArrayInputStream(data.getBytes()));
-        requestBase.setEntity(entity);
+    private void addBodyRequest(HttpEntityEnclosingRequestBase requestBase, BodyWriter data) throws IOException {
+        requestBase.setEntity(new BodyEntity(RequestBody.of(data, requestCompressionThreshold)));
     }
 
     private byte [] execute(HttpRequestBase method) throws IOException {
+        HttpResponse response = send(method);
+        return body(response.getStatusLine().getStatusCode(), content(response.getEntity()));
+    }
+
+    private HttpResponse send(final HttpRequestBase method) throws IOException {
         method.setHeader("Accept", "application/json");
-        method.setHeader("Content-type", "application/json");
-        HttpResponse response = client.execute(method);
-        HttpEntity entity = response.getEntity();
-        return EntityUtils.toByteArray(entity);
+        method.setHeader("Accept-Encoding", "gzip, deflate");
+        if (!method.containsHeader("Content-type")) {
+            method.setHeader("Content-type", "application/json");
+        }
+        if (connectTimeoutMillis > 0) {
+            HttpConnectionParams.setConnectionTimeout(method.getParams(), connectTimeoutMillis);
+        }
+        if (readTimeoutMillis > 0) {
+            HttpConnectionParams.setSoTimeout(method.getParams(), readTimeoutMillis);
+        }
+        final RequestControl control = RequestControl.current();
+        boolean idempotent = RequestGuard.isIdempotent(method.getMethod());
+        return RequestGuard.run(retryPolicy, circuitBreaker, idempotent, new RequestGuard.Attempt<HttpResponse>() {
+            @Override
+            public HttpResponse send() throws IOException {
+                if (control != null) {
+                    // stays registered while the response is read
+                    control.setAbort(new Runnable() {
+                        @Override
+                        public void run() {
+                            method.abort();
+                        }
+                    });
+                }
+                try {
+                    return connectionPool.getClient().execute(method);
+                } catch (IOException e) {
+                    if (control != null) {
+                        control.checkpoint();
+                    }
+                    throw e;
+                }
+            }
+
+            @Override
+            public int statusCode(HttpResponse response) {
+                return response.getStatusLine().getStatusCode();
+            }
+
+            @Override
+            public void discard(HttpResponse response) throws IOException {
+                if (response.getEntity() != null) {
+                    response.getEntity().consumeContent();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the content of a response, decompressed while it is read if the server compressed it.
+     */
+    private InputStream content(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        Header encoding = entity.getContentEncoding();
+        return decode(entity.getContent(), encoding == null ? null : encoding.getValue());
     }
 
-    private String appendIdToURL(String id) {
+    /**
+     * Adds a response header, joining the values of a header sent several times with commas
+     * (RFC 7230, section 3.2.2), so that e.g. no <code>Link</code> header is lost.
+     */
+    static void addHeader(Map<String, String> headers, String name, String value) {
+        String previous = headers.get(name);
+        headers.put(name, previous == null ? value : previous + ", " + value);
+    }
+
+    /**
+     * Returns the given content, decompressed while it is read if it has a known content encoding.
+     */
+    static InputStream decode(InputStream content, String encoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(content);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(content);
+        }
+        return content;
+    }
+
+    /**
+     * Reads the body of a response.
+     *
+     * @throws HttpStatusException if the status is an error
+     */
+    static byte[] body(int statusCode, InputStream content) throws IOException {
+        byte[] body = readFully(content);
+        if (statusCode >= 400) {
+            throw new HttpStatusException(statusCode, body);
+        }
+        return body;
+    }
+
+    /**
+     * Reads the given stream to its end, then closes it.
+     */
+    static byte[] readFully(InputStream content) throws IOException {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        } finally {
+            content.close();
+        }
+    }
+
+    private void remember(String target, HttpResponse response) {
+        Header etag = response.getFirstHeader("ETag");
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        if (etag == null && lastModified == null) {
+            validators.remove(target);
+        } else {
+            validators.put(target, new Validators(etag == null ? null : etag.getValue(),
+                    lastModified == null ? null : lastModified.getValue()));
+        }
+    }
+
+    /**
+     * Returns whether the status answering a PATCH says the server does not support it.
+     */
+    static boolean rejectsPatch(int statusCode) {
+        return statusCode == 405 || statusCode == 415 || statusCode == 501;
+    }
+
+    static String appendQueryToURL(URL url, Map<String, String> parameters) {
+        StringBuilder newUrl = new StringBuilder(url.toString());
+        char separator = url.getQuery() == null ? '?' : '&';
+        try {
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                newUrl.append(separator)
+                        .append(URLEncoder.encode(parameter.getKey(), "UTF-8"))
+                        .append('=')
+                        .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+                separator = '&';
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return newUrl.toString();
+    }
+
+    static String appendIdToURL(URL url, String id) {
         StringBuilder newUrl = new StringBuilder(url.toString());
         if( !url.toString().endsWith("/")) {
             newUrl.append("/");
@@ -140,4 +452,35 @@ public final class HttpRestProvider implements HttpProvider {
         return newUrl.toString();
     }
 
+    /**
+     * The PATCH method, which the HttpClient of Android does not provide.
+     */
+    private static final class HttpPatch extends HttpEntityEnclosingRequestBase {
+
+        HttpPatch(String uri) {
+            setURI(URI.create(uri));
+        }
+
+        @Override
+        public String getMethod() {
+            return "PATCH";
+        }
+
+    }
+
+    /**
+     * The validators of a response, sent back to make a later request conditional.
+     */
+    static final class Validators {
+
+        final String etag;
+        final String lastModified;
+
+        Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import org.aerogear.android.core.BodyWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The body of a request as it goes on the wire: the bytes of a {@link BodyWriter},
+ * gzip compressed when they reach the compression threshold of the provider. Bodies of
+ * unknown length are compressed whenever compression is enabled, measuring them would
+ * mean writing them twice.
+ */
+final class RequestBody {
+
+    private final BodyWriter writer;
+    private final long contentLength;
+    private final boolean compressed;
+
+    private RequestBody(BodyWriter writer, long contentLength, boolean compressed) {
+        this.writer = writer;
+        this.contentLength = contentLength;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Decides how to send the body of the given writer.
+     *
+     * @param compressionThreshold the size from which bodies are compressed, negative to never compress
+     */
+    static RequestBody of(BodyWriter writer, int compressionThreshold) {
+        long length = writer.getContentLength();
+        if (compressionThreshold < 0) {
+            return new RequestBody(writer, length, false);
+        }
+        if (length < 0 || length >= compressionThreshold) {
+            return new RequestBody(writer, -1, true);
+        }
+        return new RequestBody(writer, length, false);
+    }
+
+    /**
+     * Returns the number of bytes sent, or -1 if they are sent chunked.
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Writes the body to the given stream, without closing it.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (!compressed) {
+            writer.writeTo(out);
+            return;
+        }
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        writer.writeTo(gzip);
+        gzip.finish();
+    }
+
+}
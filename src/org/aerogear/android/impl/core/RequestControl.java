@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import org.aerogear.android.Cancellable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels the requests of one pipe operation, when asked to or when its deadline passes.
+ *
+ * The thread working for the operation attaches the control while it sends requests, so the
+ * providers find it with {@link #current()} and register how to abort the request in flight.
+ */
+public final class RequestControl implements Cancellable {
+
+    /**
+     * The handle of an operation which completed before it could be cancelled.
+     */
+    public static final Cancellable FINISHED = new Cancellable() {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private static final ThreadLocal<RequestControl> CURRENT = new ThreadLocal<RequestControl>();
+
+    private static final ScheduledExecutorService DEADLINES = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AeroGear deadlines");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final long totalTimeoutMillis;
+
+    private boolean cancelled;
+    private boolean expired;
+    private boolean finished;
+    private Runnable abort;
+    private ScheduledFuture<?> deadline;
+
+    /**
+     * @param totalTimeoutMillis the time the operation may take from {@link #start()}, 0 for no limit
+     */
+    public RequestControl(long totalTimeoutMillis) {
+        this.totalTimeoutMillis = totalTimeoutMillis;
+    }
+
+    /**
+     * Returns the control of the operation the current thread works for, or null.
+     */
+    public static RequestControl current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Starts counting the total timeout.
+     */
+    public synchronized void start() {
+        if (totalTimeoutMillis > 0 && deadline == null && !finished) {
+            deadline = DEADLINES.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire();
+                }
+            }, totalTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Makes this the control of the current thread, until {@link #detach()}.
+     */
+    public void attach() {
+        CURRENT.set(this);
+    }
+
+    public void detach() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Marks the operation as complete, cancelling it does nothing afterwards.
+     *
+     * @return false if it was cancelled before
+     */
+    public boolean finish() {
+        ScheduledFuture<?> pending;
+        synchronized (this) {
+            finished = true;
+            abort = null;
+            pending = deadline;
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        return !isCancelled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel() {
+        Runnable pendingAbort;
+        ScheduledFuture<?> pending;
+        synchronized (this) {
+            if (finished || cancelled) {
+                return;
+            }
+            cancelled = true;
+            pendingAbort = abort;
+            pending = deadline;
+            notifyAll();
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        if (pendingAbort != null) {
+            pendingAbort.run();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns whether the total timeout passed before the operation completed.
+     */
+    public synchronized boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Throws the reason to stop the operation, if it was cancelled or ran out of time.
+     *
+     * @throws OperationCancelledException if cancelled
+     * @throws SocketTimeoutException if the total timeout passed
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (cancelled) {
+            throw new OperationCancelledException();
+        }
+        if (expired) {
+            throw new SocketTimeoutException("Operation took longer than " + totalTimeoutMillis + " ms");
+        }
+    }
+
+    /**
+     * Waits for the given time, or until the operation is cancelled or runs out of time.
+     *
+     * @throws OperationCancelledException if cancelled
+     * @throws SocketTimeoutException if the total timeout passed
+     */
+    synchronized void pause(long millis) throws IOException {
+        long end = System.currentTimeMillis() + millis;
+        try {
+            for (long left = millis; left > 0 && !cancelled && !expired; left = end - System.currentTimeMillis()) {
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        checkpoint();
+    }
+
+    /**
+     * Sets how to abort the request in flight, null once it completed. The abort runs
+     * right away if the operation was already cancelled or ran out of time.
+     */
+    void setAbort(Runnable abort) {
+        boolean stopped;
+        synchronized (this) {
+            this.abort = abort;
+            stopped = cancelled || expired;
+        }
+        if (stopped && abort != null) {
+            abort.run();
+        }
+    }
+
+    private void expire() {
+        Runnable pendingAbort;
+        synchronized (this) {
+            if (finished || cancelled) {
+                return;
+            }
+            expired = true;
+            pendingAbort = abort;
+            notifyAll();
+        }
+        if (pendingAbort != null) {
+            pendingAbort.run();
+        }
+    }
+
+}
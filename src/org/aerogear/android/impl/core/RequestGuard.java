@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+
+/**
+ * Runs the attempts of a request through an optional {@link CircuitBreaker} and {@link RetryPolicy}.
+ */
+final class RequestGuard {
+
+    /**
+     * One attempt of a request, giving its response.
+     */
+    interface Attempt<R> {
+
+        R send() throws IOException;
+
+        int statusCode(R response);
+
+        /**
+         * Releases a response dropped for a retry.
+         */
+        void discard(R response) throws IOException;
+
+    }
+
+    private RequestGuard() {}
+
+    /**
+     * Returns whether requests of the given method may be sent again: GET, HEAD, PUT and DELETE.
+     * A PATCH is not, as applying some patches twice differs from applying them once.
+     */
+    static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method);
+    }
+
+    /**
+     * @param idempotent whether the request can be sent again, only those are retried
+     * @return the response of the last attempt
+     * @throws CircuitOpenException when the circuit breaker did not let an attempt through
+     */
+    static <R> R run(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, boolean idempotent,
+                     Attempt<R> attempt) throws IOException {
+        if (retryPolicy != null) {
+            retryPolicy.onRequest();
+        }
+        RequestControl control = RequestControl.current();
+        for (int retry = 0; ; retry++) {
+            if (control != null) {
+                control.checkpoint();
+            }
+            CircuitBreaker.Permit permit = circuitBreaker == null ? null : circuitBreaker.acquire();
+            if (permit == CircuitBreaker.Permit.REJECTED) {
+                throw new CircuitOpenException(circuitBreaker.getName());
+            }
+            R response;
+            try {
+                response = attempt.send();
+            } catch (OperationCancelledException e) {
+                // says nothing about the backend
+                if (circuitBreaker != null) {
+                    circuitBreaker.onCancel(permit);
+                }
+                throw e;
+            } catch (ProtocolException e) {
+                // the backend answered, in a way retrying would not change
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess(permit);
+                }
+                throw e;
+            } catch (IOException e) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onFailure(permit);
+                }
+                if (!mayRetry(retryPolicy, control, idempotent, retry)) {
+                    throw e;
+                }
+                backoff(retryPolicy, control, retry);
+                continue;
+            } catch (RuntimeException e) {
+                // a failure of the client, which must not keep a trial request in flight
+                if (circuitBreaker != null) {
+                    circuitBreaker.onCancel(permit);
+                }
+                throw e;
+            }
+            int statusCode = attempt.statusCode(response);
+            if (circuitBreaker != null) {
+                if (statusCode >= 500) {
+                    circuitBreaker.onFailure(permit);
+                } else {
+                    circuitBreaker.onSuccess(permit);
+                }
+            }
+            if ((statusCode == 502 || statusCode == 503 || statusCode == 504)
+                    && mayRetry(retryPolicy, control, idempotent, retry)) {
+                attempt.discard(response);
+                backoff(retryPolicy, control, retry);
+                continue;
+            }
+            return response;
+        }
+    }
+
+    private static boolean mayRetry(RetryPolicy retryPolicy, RequestControl control, boolean idempotent, int retry) {
+        if (control != null && control.isExpired()) {
+            return false;
+        }
+        return retryPolicy != null && idempotent && retryPolicy.acquireRetry(retry);
+    }
+
+    /**
+     * Waits before the given retry, stopping early when the operation is cancelled or runs out of time.
+     */
+    private static void backoff(RetryPolicy retryPolicy, RequestControl control, int retry) throws IOException {
+        long millis = retryPolicy.backoffMillis(retry);
+        if (control != null) {
+            control.pause(millis);
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import java.util.Random;
+
+/**
+ * How the idempotent requests (GET, HEAD, PUT and DELETE) of a {@link org.aerogear.android.Pipeline}
+ * are retried when they fail with an I/O error or a 502, 503 or 504 response.
+ *
+ * Retries wait an exponentially growing delay, randomized so that clients which failed together
+ * do not come back together. They are also bounded by a budget shared by all the requests: each
+ * request adds a fraction of a retry to it, so that, once the initial allowance is spent,
+ * retries stay a small part of the traffic while a backend is down.
+ *
+ * Thread safe; the counters cover the lifetime of the policy.
+ */
+public final class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.2;
+    public static final int DEFAULT_BUDGET_ALLOWANCE = 10;
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double budgetRatio;
+    private final int budgetAllowance;
+    private final Random random = new Random();
+
+    private double budget;
+    private long requestCount;
+    private long retryCount;
+    private long budgetExhaustedCount;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+                DEFAULT_BUDGET_RATIO, DEFAULT_BUDGET_ALLOWANCE);
+    }
+
+    /**
+     * @param maxRetries the retries of a single request
+     * @param initialBackoffMillis the upper bound of the delay before the first retry, doubled for each next one
+     * @param maxBackoffMillis the upper bound of any delay
+     * @param budgetRatio the retries earned by each request
+     * @param budgetAllowance the retries available from the start, which is also the most the budget holds
+     */
+    public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis,
+                       double budgetRatio, int budgetAllowance) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.budgetRatio = budgetRatio;
+        this.budgetAllowance = budgetAllowance;
+        this.budget = budgetAllowance;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the number of requests sent under this policy, retries excluded.
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of retries sent.
+     */
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Returns the number of retries given up because the budget was spent.
+     */
+    public synchronized long getBudgetExhaustedCount() {
+        return budgetExhaustedCount;
+    }
+
+    /**
+     * Counts a new request, earning its share of the budget.
+     */
+    synchronized void onRequest() {
+        requestCount++;
+        budget = Math.min(budgetAllowance, budget + budgetRatio);
+    }
+
+    /**
+     * Takes a retry from the budget.
+     *
+     * @param retry the number of retries already sent for the request
+     * @return whether the request can be retried
+     */
+    synchronized boolean acquireRetry(int retry) {
+        if (retry >= maxRetries) {
+            return false;
+        }
+        if (budget < 1) {
+            budgetExhaustedCount++;
+            return false;
+        }
+        budget--;
+        retryCount++;
+        return true;
+    }
+
+    /**
+     * Returns a random delay before the given retry, from 0 up to the exponential backoff.
+     *
+     * @param retry the number of retries already sent for the request
+     */
+    long backoffMillis(int retry) {
+        long ceiling = initialBackoffMillis << Math.min(retry, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * (ceiling + 1));
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.EvictionListener;
+import org.aerogear.android.datamanager.IdGenerator;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.SizeEstimator;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.BufferedWriteBatch.Operation;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory implementation of Store {@link Store} holding at most a given number of items, or items
+ * of a given estimated size. When a save goes over the limits the least recently read or saved
+ * items are evicted.
+ */
+public class BoundedMemoryStorage<T> implements Store<T> {
+
+    private final LinkedHashMap<Serializable, Entry<T>> data =
+            new LinkedHashMap<Serializable, Entry<T>>(16, 0.75f, true);
+    private final IdGenerator idGenerator;
+    private final Indexes indexes;
+    private final StoreListeners<T> listeners = new StoreListeners<T>();
+    private final int maxEntries;
+    private final long maxBytes;
+    private final SizeEstimator<? super T> sizeEstimator;
+    private final EvictionListener<? super T> evictionListener;
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param idGenerator the generator of the ids of saved items
+     * @param config the limits, size estimator, eviction listener and indexes of the store
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedMemoryStorage(IdGenerator idGenerator, StoreConfig config) {
+        this.idGenerator = idGenerator;
+        this.indexes = new Indexes(config.getIndexes());
+        this.maxEntries = config.getMaxEntries();
+        this.maxBytes = config.getMaxBytes();
+        this.sizeEstimator = config.getSizeEstimator();
+        this.evictionListener = config.getEvictionListener();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StoreType getType() {
+        return StoreType.MEMORY;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns a copy of the items, from the least to the most recently used.
+     * Does not count as a use of the items.
+     */
+    @Override
+    public synchronized Collection<T> readAll() {
+        List<T> items = new ArrayList<T>(data.size());
+        for (Entry<T> entry : data.values()) {
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized T read(Serializable id) {
+        Entry<T> entry = data.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.item;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The matching items count as used.
+     */
+    @Override
+    public synchronized Collection<T> query(Query query) {
+        Set<Serializable> ids = indexes.lookup(query);
+        if (ids == null) {
+            ids = new HashSet<Serializable>();
+            for (Map.Entry<Serializable, Entry<T>> entry : data.entrySet()) {
+                if (QueryMatcher.matches(query, entry.getValue().item)) {
+                    ids.add(entry.getKey());
+                }
+            }
+        }
+        // touching the entries after iterating, as a get() reorders the map
+        List<T> result = new ArrayList<T>(ids.size());
+        for (Serializable id : ids) {
+            Entry<T> entry = data.get(id);
+            if (entry != null && QueryMatcher.matches(query, entry.item)) {
+                result.add(entry.item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(T item) {
+        apply(Collections.singletonList(Operation.save(item)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The items are evicted as usual when they do not all fit in the store.
+     */
+    @Override
+    public void saveAll(Collection<T> items) {
+        apply(BufferedWriteBatch.saves(items));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        ChangeRecorder<T> changes = listeners.record();
+        if (changes != null) {
+            for (Serializable id : data.keySet()) {
+                changes.removed(id);
+            }
+        }
+        data.clear();
+        indexes.clear();
+        bytes = 0;
+        listeners.publish(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void remove(Serializable id) {
+        ChangeRecorder<T> changes = listeners.record();
+        delete(id, changes);
+        listeners.publish(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll(Collection<Serializable> ids) {
+        apply(BufferedWriteBatch.<T>removals(ids));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WriteBatch<T> beginBatch() {
+        return new BufferedWriteBatch<T>(new BufferedWriteBatch.Target<T>() {
+            @Override
+            public void apply(List<Operation<T>> operations) {
+                BoundedMemoryStorage.this.apply(operations);
+            }
+        });
+    }
+
+    /**
+     * @return the number of items in the store
+     */
+    public synchronized int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the estimated size of the items in the store, in bytes. Always 0 when the store
+     * has no byte limit, as the items are not measured then.
+     */
+    public synchronized long sizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of reads which found their item
+     */
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of reads which did not find their item
+     */
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of items evicted to stay within the limits
+     */
+    public synchronized long evictionCount() {
+        return evictions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Evicted items are reported as removed.
+     */
+    @Override
+    public void addListener(StoreListener<T> listener, Executor executor) {
+        listeners.add(listener, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener(StoreListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    private void apply(List<Operation<T>> operations) {
+        // measuring the items can be slow, so it is done before taking the lock
+        long[] sizes = new long[operations.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            Operation<T> operation = operations.get(i);
+            if (operation.isSave() && maxBytes >= 0) {
+                sizes[i] = sizeEstimator.sizeOf(operation.item);
+            }
+        }
+        List<Map.Entry<Serializable, Entry<T>>> evicted;
+        synchronized (this) {
+            ChangeRecorder<T> changes = listeners.record();
+            for (int i = 0; i < sizes.length; i++) {
+                Operation<T> operation = operations.get(i);
+                if (operation.isReset()) {
+                    for (Serializable id : new ArrayList<Serializable>(data.keySet())) {
+                        delete(id, changes);
+                    }
+                } else if (operation.isRemove()) {
+                    delete(operation.id, changes);
+                } else {
+                    Serializable newId = operation.saveId(idGenerator);
+                    Entry<T> previous = data.put(newId, new Entry<T>(operation.item, sizes[i]));
+                    if (previous != null) {
+                        bytes -= previous.size;
+                        indexes.remove(newId, previous.item);
+                    }
+                    bytes += sizes[i];
+                    indexes.add(newId, operation.item);
+                    if (changes != null) {
+                        changes.saved(newId, operation.item, previous != null);
+                    }
+                }
+            }
+            evicted = evictOverLimits();
+            if (changes != null) {
+                for (Map.Entry<Serializable, Entry<T>> entry : evicted) {
+                    changes.removed(entry.getKey());
+                }
+            }
+            listeners.publish(changes);
+        }
+        notifyEvicted(evicted);
+    }
+
+    private void delete(Serializable id, ChangeRecorder<T> changes) {
+        Entry<T> entry = data.remove(id);
+        if (entry != null) {
+            bytes -= entry.size;
+            indexes.remove(id, entry.item);
+            if (changes != null) {
+                changes.removed(id);
+            }
+        }
+    }
+
+    private List<Map.Entry<Serializable, Entry<T>>> evictOverLimits() {
+        List<Map.Entry<Serializable, Entry<T>>> evicted = Collections.emptyList();
+        Iterator<Map.Entry<Serializable, Entry<T>>> eldest = data.entrySet().iterator();
+        while (isOverLimits() && eldest.hasNext()) {
+            Map.Entry<Serializable, Entry<T>> entry = eldest.next();
+            eldest.remove();
+            bytes -= entry.getValue().size;
+            indexes.remove(entry.getKey(), entry.getValue().item);
+            evictions++;
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<Map.Entry<Serializable, Entry<T>>>();
+            }
+            evicted.add(new AbstractMap.SimpleImmutableEntry<Serializable, Entry<T>>(entry));
+        }
+        return evicted;
+    }
+
+    private boolean isOverLimits() {
+        return (maxEntries >= 0 && data.size() > maxEntries) || (maxBytes >= 0 && bytes > maxBytes);
+    }
+
+    private void notifyEvicted(List<Map.Entry<Serializable, Entry<T>>> evicted) {
+        if (evictionListener == null) {
+            return;
+        }
+        for (Map.Entry<Serializable, Entry<T>> entry : evicted) {
+            evictionListener.onEviction(entry.getKey(), entry.getValue().item);
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final T item;
+        private final long size;
+
+        private Entry(T item, long size) {
+            this.item = item;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.IdGenerator;
+import org.aerogear.android.datamanager.WriteBatch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link WriteBatch} collecting its operations in memory and handing them to its store on commit.
+ */
+final class BufferedWriteBatch<T> implements WriteBatch<T> {
+
+    /**
+     * Applies the operations of a batch to a store, all at once.
+     */
+    interface Target<T> {
+
+        void apply(List<Operation<T>> operations);
+
+    }
+
+    private final Target<T> target;
+    private final List<Operation<T>> operations = new ArrayList<Operation<T>>();
+    private boolean committed;
+
+    BufferedWriteBatch(Target<T> target) {
+        this.target = target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized WriteBatch<T> save(T item) {
+        checkNotCommitted();
+        operations.add(Operation.save(item));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized WriteBatch<T> save(Serializable id, T item) {
+        checkNotCommitted();
+        operations.add(Operation.save(id, item));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized WriteBatch<T> reset() {
+        checkNotCommitted();
+        operations.add(Operation.<T>reset());
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized WriteBatch<T> remove(Serializable id) {
+        checkNotCommitted();
+        operations.add(Operation.<T>remove(id));
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void commit() {
+        checkNotCommitted();
+        committed = true;
+        if (!operations.isEmpty()) {
+            target.apply(operations);
+        }
+    }
+
+    private void checkNotCommitted() {
+        if (committed) {
+            throw new IllegalStateException("The batch was already committed");
+        }
+    }
+
+    /**
+     * @return the saves of the given items
+     */
+    static <T> List<Operation<T>> saves(Collection<T> items) {
+        List<Operation<T>> operations = new ArrayList<Operation<T>>(items.size());
+        for (T item : items) {
+            operations.add(Operation.save(item));
+        }
+        return operations;
+    }
+
+    /**
+     * @return the removals of the given ids
+     */
+    static <T> List<Operation<T>> removals(Collection<Serializable> ids) {
+        List<Operation<T>> operations = new ArrayList<Operation<T>>(ids.size());
+        for (Serializable id : ids) {
+            operations.add(Operation.<T>remove(id));
+        }
+        return operations;
+    }
+
+    /**
+     * A save of an item, a removal of an id or the removal of all the items.
+     */
+    static final class Operation<T> {
+
+        private enum Kind {
+            SAVE, REMOVE, RESET
+        }
+
+        private final Kind kind;
+        final T item;
+        final Serializable id;
+
+        private Operation(Kind kind, T item, Serializable id) {
+            this.kind = kind;
+            this.item = item;
+            this.id = id;
+        }
+
+        static <T> Operation<T> save(T item) {
+            return new Operation<T>(Kind.SAVE, item, null);
+        }
+
+        static <T> Operation<T> save(Serializable id, T item) {
+            if (id == null) {
+                throw new IllegalArgumentException("The id of a saved item can not be null");
+            }
+            return new Operation<T>(Kind.SAVE, item, id);
+        }
+
+        static <T> Operation<T> remove(Serializable id) {
+            if (id == null) {
+                throw new IllegalArgumentException("The id of a removed item can not be null");
+            }
+            return new Operation<T>(Kind.REMOVE, null, id);
+        }
+
+        static <T> Operation<T> reset() {
+            return new Operation<T>(Kind.RESET, null, null);
+        }
+
+        boolean isSave() {
+            return kind == Kind.SAVE;
+        }
+
+        boolean isRemove() {
+            return kind == Kind.REMOVE;
+        }
+
+        boolean isReset() {
+            return kind == Kind.RESET;
+        }
+
+        /**
+         * @return the id given to the saved item, or a new one
+         */
+        Serializable saveId(IdGenerator idGenerator) {
+            // TODO Put newId on item; the stores do not know the id property of their items yet,
+            // see Store#save
+            return id != null ? id : idGenerator.generate();
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.ChangeSet;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the changes of a store into a {@link ChangeSet}, merging the changes of the same
+ * item: an insert followed by a removal cancel out, a removal followed by an insert is an update.
+ * Not thread safe.
+ */
+final class ChangeRecorder<T> {
+
+    private final Map<Serializable, T> inserted = new LinkedHashMap<Serializable, T>();
+    private final Map<Serializable, T> updated = new LinkedHashMap<Serializable, T>();
+    private final Set<Serializable> removed = new HashSet<Serializable>();
+
+    void saved(Serializable id, T item, boolean existed) {
+        if (inserted.containsKey(id)) {
+            inserted.put(id, item);
+        } else if (existed || removed.remove(id)) {
+            updated.put(id, item);
+        } else {
+            inserted.put(id, item);
+        }
+    }
+
+    void removed(Serializable id) {
+        if (inserted.remove(id) == null) {
+            updated.remove(id);
+            removed.add(id);
+        }
+    }
+
+    void add(ChangeSet<T> changes) {
+        for (Serializable id : changes.getRemoved()) {
+            removed(id);
+        }
+        for (Map.Entry<Serializable, T> entry : changes.getInserted().entrySet()) {
+            saved(entry.getKey(), entry.getValue(), false);
+        }
+        for (Map.Entry<Serializable, T> entry : changes.getUpdated().entrySet()) {
+            saved(entry.getKey(), entry.getValue(), true);
+        }
+    }
+
+    boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    ChangeSet<T> toChangeSet() {
+        return new ChangeSet<T>(new HashMap<Serializable, T>(inserted), new HashMap<Serializable, T>(updated),
+                new HashSet<Serializable>(removed));
+    }
+
+}
@@ -0,0 +1,756 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.datamanager;
+
+import android.util.Log;
+import org.aerogear.android.datamanager.IdGenerator;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.BufferedWriteBatch.Operation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Durable implementation of {@link Store}, keeping its items in an append-only log file.
+ *
+ * Every save or remove appends a checksummed record; an in-memory index maps each id to its
+ * latest record and is rebuilt by scanning the log when the store is opened. A torn record at
+ * the end of the log, left by a crash, is cut off at that point; a damaged record followed by
+ * others fails the opening instead, leaving the log as it is. Once most of the log is made
+ * of overwritten records it is compacted in the background into a new file, which replaces the
+ * old one with an atomic rename.
+ *
+ * Batches and bulk operations are written as one record wrapping the records of their items,
+ * with a single sync, so after a crash either all or none of them is found in the log.
+ *
+ * Items and ids are written with Java serialization, so they have to be {@link Serializable}.
+ */
+public class FileStorage<T> implements Store<T> {
+
+    private static final String TAG = "AeroGear";
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte BATCH = 3;
+    private static final int HEADER_LENGTH = 9;
+
+    /**
+     * Logs smaller than this are never compacted.
+     */
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AeroGear FileStorage compaction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final File compactionFile;
+    private final IdGenerator idGenerator;
+    private final Map<Serializable, Location> index = new HashMap<Serializable, Location>();
+    private final Indexes indexes;
+    private final StoreListeners<T> listeners = new StoreListeners<T>();
+
+    private RandomAccessFile log;
+    private long liveBytes;
+    private int generation;
+    private boolean compacting;
+
+    /**
+     * Opens the store kept in the given file, creating it if needed.
+     *
+     * @param file the log file
+     * @param idGenerator the generator of the ids of saved items
+     */
+    public FileStorage(File file, IdGenerator idGenerator) {
+        this(file, idGenerator, Collections.<String, IndexType>emptyMap());
+    }
+
+    /**
+     * Opens the store kept in the given file, creating it if needed.
+     *
+     * @param file the log file
+     * @param idGenerator the generator of the ids of saved items
+     * @param indexes the indexed properties and their index type, rebuilt from the log on open
+     */
+    public FileStorage(File file, IdGenerator idGenerator, Map<String, IndexType> indexes) {
+        this.file = file;
+        this.compactionFile = new File(file.getPath() + ".compact");
+        this.idGenerator = idGenerator;
+        this.indexes = new Indexes(indexes);
+        try {
+            open();
+        } catch (IOException e) {
+            closeQuietly(log);
+            throw new IllegalStateException("Can not open store " + file, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StoreType getType() {
+        return StoreType.FILE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<T> readAll() {
+        Collection<T> items = new ArrayList<T>(index.size());
+        for (Location location : index.values()) {
+            items.add(readValue(location));
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized T read(Serializable id) {
+        Location location = index.get(id);
+        return location == null ? null : readValue(location);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<T> query(Query query) {
+        Set<Serializable> ids = indexes.lookup(query);
+        List<T> result = new ArrayList<T>();
+        for (Serializable id : ids == null ? index.keySet() : ids) {
+            T item = readValue(index.get(id));
+            if (QueryMatcher.matches(query, item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(T item) {
+        Serializable newId = idGenerator.generate();
+        synchronized (this) {
+            append(Collections.singletonList(new Change<T>(PUT, newId, item)));
+        }
+        compactIfWorthIt();
+    }
+
+    /**
+     * Saves the item under the given id instead of a generated one, replacing the item
+     * saved with that id.
+     *
+     * @param id the id of the item
+     * @param item Object to save
+     */
+    public void save(Serializable id, T item) {
+        saveAll(Collections.singletonMap(id, item));
+    }
+
+    /**
+     * Saves the items under the given ids at once, with a single sync, replacing the items
+     * saved with those ids.
+     *
+     * @param items the items to save, by id
+     */
+    public void saveAll(Map<? extends Serializable, T> items) {
+        List<Operation<T>> operations = new ArrayList<Operation<T>>(items.size());
+        for (Map.Entry<? extends Serializable, T> entry : items.entrySet()) {
+            operations.add(Operation.save(entry.getKey(), entry.getValue()));
+        }
+        apply(operations);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveAll(Collection<T> items) {
+        apply(BufferedWriteBatch.saves(items));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        ChangeRecorder<T> recorded = listeners.record();
+        if (recorded != null) {
+            for (Serializable id : index.keySet()) {
+                recorded.removed(id);
+            }
+        }
+        try {
+            log.setLength(0);
+            log.getFD().sync();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not reset store " + file, e);
+        }
+        index.clear();
+        indexes.clear();
+        liveBytes = 0;
+        generation++;
+        listeners.publish(recorded);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(Serializable id) {
+        synchronized (this) {
+            if (!index.containsKey(id)) {
+                return;
+            }
+            append(Collections.singletonList(new Change<T>(REMOVE, id, null)));
+        }
+        compactIfWorthIt();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll(Collection<Serializable> ids) {
+        apply(BufferedWriteBatch.<T>removals(ids));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WriteBatch<T> beginBatch() {
+        return new BufferedWriteBatch<T>(new BufferedWriteBatch.Target<T>() {
+            @Override
+            public void apply(List<Operation<T>> operations) {
+                FileStorage.this.apply(operations);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener(StoreListener<T> listener, Executor executor) {
+        listeners.add(listener, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener(StoreListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Closes the log file. The store cannot be used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        generation++;
+        log.close();
+    }
+
+    /**
+     * Rewrites the log keeping only the latest record of every stored item. Saves and removes
+     * may go on meanwhile; only the final swap of the files holds the lock of the store.
+     */
+    public void compact() {
+        long end;
+        int startGeneration;
+        Map<Serializable, Location> snapshot;
+        synchronized (this) {
+            if (compacting) {
+                return;
+            }
+            compacting = true;
+            end = fileLength();
+            startGeneration = generation;
+            snapshot = new HashMap<Serializable, Location>(index);
+        }
+
+        RandomAccessFile source = null;
+        RandomAccessFile target = null;
+        try {
+            source = new RandomAccessFile(file, "r");
+            target = new RandomAccessFile(compactionFile, "rw");
+            target.setLength(0);
+            Map<Serializable, Location> compacted = new HashMap<Serializable, Location>();
+            long live = 0;
+            for (Map.Entry<Serializable, Location> entry : snapshot.entrySet()) {
+                Location location = entry.getValue();
+                compacted.put(entry.getKey(), new Location(target.getFilePointer(), location.length));
+                target.write(readRecord(source, location));
+                live += location.length;
+            }
+
+            synchronized (this) {
+                if (generation != startGeneration) {
+                    return;
+                }
+                // replay what was appended while copying
+                long position = end;
+                long length = fileLength();
+                while (position < length) {
+                    Record batch = readRecordAt(source, position, length);
+                    for (Record record : batch.items()) {
+                        Location moved = new Location(target.getFilePointer(), record.length);
+                        target.write(record.bytes);
+                        Location previous = record.type == PUT ? compacted.put(record.id, moved) : compacted.remove(record.id);
+                        if (previous != null) {
+                            live -= previous.length;
+                        }
+                        if (record.type == PUT) {
+                            live += record.length;
+                        }
+                    }
+                    position += batch.length;
+                }
+                target.getFD().sync();
+                target.close();
+                target = null;
+                log.close();
+                boolean replaced;
+                try {
+                    replaced = compactionFile.renameTo(file);
+                } finally {
+                    log = new RandomAccessFile(file, "rw");
+                }
+                if (!replaced) {
+                    throw new IOException("Can not replace " + file);
+                }
+                index.clear();
+                index.putAll(compacted);
+                liveBytes = live;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Compaction of " + file + " failed", e);
+        } finally {
+            closeQuietly(source);
+            closeQuietly(target);
+            compactionFile.delete();
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    private void apply(List<Operation<T>> operations) {
+        synchronized (this) {
+            List<Change<T>> changes = new ArrayList<Change<T>>(operations.size());
+            // the ids stored once the changes so far are applied
+            Set<Serializable> ids = new HashSet<Serializable>(index.keySet());
+            for (Operation<T> operation : operations) {
+                if (operation.isReset()) {
+                    for (Serializable id : ids) {
+                        changes.add(new Change<T>(REMOVE, id, null));
+                    }
+                    ids.clear();
+                } else if (operation.isRemove()) {
+                    if (ids.remove(operation.id)) {
+                        changes.add(new Change<T>(REMOVE, operation.id, null));
+                    }
+                } else {
+                    Serializable id = operation.saveId(idGenerator);
+                    ids.add(id);
+                    changes.add(new Change<T>(PUT, id, operation.item));
+                }
+            }
+            if (changes.isEmpty()) {
+                return;
+            }
+            append(changes);
+        }
+        compactIfWorthIt();
+    }
+
+    private void compactIfWorthIt() {
+        synchronized (this) {
+            long length = fileLength();
+            if (compacting || length < MIN_COMPACTION_BYTES || length - liveBytes < liveBytes) {
+                return;
+            }
+        }
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    private void open() throws IOException {
+        compactionFile.delete();
+        log = new RandomAccessFile(file, "rw");
+        long length = log.length();
+        long position = 0;
+        while (position < length) {
+            Record record;
+            try {
+                record = readRecordAt(log, position, length);
+            } catch (IOException e) {
+                if (!isTornTail(log, position, length)) {
+                    // records follow, which must not be thrown away with it
+                    throw new IOException("Corrupt record at " + position + " of " + file, e);
+                }
+                Log.w(TAG, "Dropping torn record at " + position + " of " + file, e);
+                log.setLength(position);
+                log.getFD().sync();
+                break;
+            }
+            for (Record item : record.items()) {
+                Location previous = item.type == PUT
+                        ? index.put(item.id, new Location(item.position, item.length))
+                        : index.remove(item.id);
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                }
+                if (item.type == PUT) {
+                    liveBytes += item.length;
+                }
+            }
+            position += record.length;
+        }
+        if (!indexes.isEmpty()) {
+            for (Map.Entry<Serializable, Location> entry : index.entrySet()) {
+                indexes.add(entry.getKey(), readValue(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Writes the changes with a single sync, wrapped in a batch record when there are many,
+     * then applies them to the indexes.
+     */
+    private void append(List<Change<T>> changes) {
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            int[] offsets = new int[changes.size()];
+            int[] lengths = new int[changes.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                Change<T> change = changes.get(i);
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream(payload);
+                out.writeObject(change.id);
+                if (change.type == PUT) {
+                    out.writeObject(change.item);
+                }
+                out.close();
+                offsets[i] = records.size();
+                writeRecord(records, change.type, payload.toByteArray());
+                lengths[i] = records.size() - offsets[i];
+            }
+
+            long end = log.length();
+            long offset = end;
+            byte[] bytes;
+            if (changes.size() == 1) {
+                bytes = records.toByteArray();
+            } else {
+                ByteArrayOutputStream batch = new ByteArrayOutputStream(HEADER_LENGTH + records.size());
+                writeRecord(batch, BATCH, records.toByteArray());
+                bytes = batch.toByteArray();
+                offset += HEADER_LENGTH;
+            }
+            log.seek(end);
+            try {
+                log.write(bytes);
+                log.getFD().sync();
+            } catch (IOException e) {
+                // drop what was written, the next records would follow a torn one otherwise
+                truncate(end);
+                throw e;
+            }
+
+            ChangeRecorder<T> recorded = listeners.record();
+            for (int i = 0; i < offsets.length; i++) {
+                Change<T> change = changes.get(i);
+                Location location = new Location(offset + offsets[i], lengths[i]);
+                Location previous = change.type == PUT ? index.put(change.id, location) : index.remove(change.id);
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                    if (!indexes.isEmpty()) {
+                        indexes.remove(change.id, readValue(previous));
+                    }
+                }
+                if (change.type == PUT) {
+                    liveBytes += location.length;
+                    indexes.add(change.id, change.item);
+                }
+                if (recorded != null) {
+                    if (change.type == PUT) {
+                        recorded.saved(change.id, change.item, previous != null);
+                    } else {
+                        recorded.removed(change.id);
+                    }
+                }
+            }
+            listeners.publish(recorded);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not write to store " + file, e);
+        }
+    }
+
+    private void truncate(long length) {
+        try {
+            log.setLength(length);
+        } catch (IOException e) {
+            Log.w(TAG, "Can not truncate store " + file, e);
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream target, byte type, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream record = new DataOutputStream(target);
+        record.writeByte(type);
+        record.writeInt(payload.length);
+        record.writeInt((int) crc.getValue());
+        record.write(payload);
+        record.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T readValue(Location location) {
+        try {
+            byte[] record = readRecord(log, location);
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(record, HEADER_LENGTH, record.length - HEADER_LENGTH));
+            in.readObject();
+            return (T) in.readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not read from store " + file, e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Can not read from store " + file, e);
+        }
+    }
+
+    private static byte[] readRecord(RandomAccessFile source, Location location) throws IOException {
+        byte[] record = new byte[location.length];
+        source.seek(location.offset);
+        source.readFully(record);
+        return record;
+    }
+
+    /**
+     * Reads and verifies the record starting at the given position.
+     *
+     * @throws IOException if the record is truncated or its checksum does not match
+     */
+    private static Record readRecordAt(RandomAccessFile source, long position, long length) throws IOException {
+        if (position + HEADER_LENGTH > length) {
+            throw new IOException("Truncated record header");
+        }
+        source.seek(position);
+        source.readByte();
+        int payloadLength = source.readInt();
+        if (payloadLength < 0 || position + HEADER_LENGTH + payloadLength > length) {
+            throw new IOException("Truncated record");
+        }
+        byte[] bytes = new byte[HEADER_LENGTH + payloadLength];
+        source.seek(position);
+        source.readFully(bytes);
+        return parseRecord(bytes, 0, bytes.length, position);
+    }
+
+    /**
+     * Returns whether the unreadable record at the given position is the torn end of the log, left
+     * by a crash while appending it: it runs past the end of the file, or only zeros follow it.
+     */
+    private static boolean isTornTail(RandomAccessFile source, long position, long length) throws IOException {
+        if (position + HEADER_LENGTH > length) {
+            return true;
+        }
+        source.seek(position + 1);
+        long end = position + HEADER_LENGTH + Math.max(0, source.readInt());
+        if (end >= length) {
+            return true;
+        }
+        source.seek(end);
+        byte[] buffer = new byte[4096];
+        for (long remaining = length - end; remaining > 0; ) {
+            int read = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != 0) {
+                    return false;
+                }
+            }
+            remaining -= read;
+        }
+        return true;
+    }
+
+    /**
+     * Verifies and decodes the record starting at the given index of the buffer, and the records
+     * of a batch.
+     *
+     * @param position the position of the record in the log
+     */
+    private static Record parseRecord(byte[] buffer, int start, int end, long position) throws IOException {
+        if (start + HEADER_LENGTH > end) {
+            throw new IOException("Truncated record header");
+        }
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(buffer, start, HEADER_LENGTH));
+        byte type = header.readByte();
+        int payloadLength = header.readInt();
+        int checksum = header.readInt();
+        if ((type != PUT && type != REMOVE && type != BATCH) || payloadLength < 0
+                || payloadLength > end - start - HEADER_LENGTH) {
+            throw new IOException("Truncated record");
+        }
+        int payloadStart = start + HEADER_LENGTH;
+        int recordEnd = payloadStart + payloadLength;
+        CRC32 crc = new CRC32();
+        crc.update(buffer, payloadStart, payloadLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch");
+        }
+        byte[] bytes = Arrays.copyOfRange(buffer, start, recordEnd);
+        if (type == BATCH) {
+            List<Record> items = new ArrayList<Record>();
+            int itemStart = payloadStart;
+            while (itemStart < recordEnd) {
+                Record item = parseRecord(buffer, itemStart, recordEnd, position + itemStart - start);
+                if (item.type == BATCH) {
+                    throw new IOException("Nested batch record");
+                }
+                items.add(item);
+                itemStart += item.length;
+            }
+            return new Record(type, null, bytes, position, items);
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer, payloadStart, payloadLength));
+            return new Record(type, (Serializable) in.readObject(), bytes, position, null);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown id class: " + e.getMessage());
+        }
+    }
+
+    private long fileLength() {
+        try {
+            return log.length();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not read store " + file, e);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    private static final class Location {
+
+        private final long offset;
+        private final int length;
+
+        private Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+    }
+
+    private static final class Record {
+
+        private final byte type;
+        private final Serializable id;
+        private final byte[] bytes;
+        private final int length;
+        private final long position;
+        private final List<Record> items;
+
+        private Record(byte type, Serializable id, byte[] bytes, long position, List<Record> items) {
+            this.type = type;
+            this.id = id;
+            this.bytes = bytes;
+            this.length = bytes.length;
+            this.position = position;
+            this.items = items;
+        }
+
+        /**
+         * @return the records of a batch, or this record alone
+         */
+        private List<Record> items() {
+            return items == null ? Collections.singletonList(this) : items;
+        }
+
+    }
+
+    private static final class Change<T> {
+
+        private final byte type;
+        private final Serializable id;
+        private final T item;
+
+        private Change(byte type, Serializable id, T item) {
+            this.type = type;
+            this.id = id;
+            this.item = item;
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.impl.reflection.PropertyAccessor;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The secondary indexes of a store, mapping property values to the ids of the items holding them.
+ * Not thread safe; the store guards it with its own lock.
+ */
+final class Indexes {
+
+    private final Map<String, IndexType> types;
+    private final Map<String, Map<Object, Set<Serializable>>> indexes = new HashMap<String, Map<Object, Set<Serializable>>>();
+
+    Indexes(Map<String, IndexType> types) {
+        this.types = new HashMap<String, IndexType>(types);
+        clear();
+    }
+
+    boolean isEmpty() {
+        return types.isEmpty();
+    }
+
+    void add(Serializable id, Object item) {
+        for (Map.Entry<String, Map<Object, Set<Serializable>>> index : indexes.entrySet()) {
+            Object value = PropertyAccessor.read(item, index.getKey());
+            if (value == null && types.get(index.getKey()) == IndexType.SORTED) {
+                continue;
+            }
+            Set<Serializable> ids = index.getValue().get(value);
+            if (ids == null) {
+                ids = new HashSet<Serializable>();
+                index.getValue().put(value, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    void remove(Serializable id, Object item) {
+        for (Map.Entry<String, Map<Object, Set<Serializable>>> index : indexes.entrySet()) {
+            Object value = PropertyAccessor.read(item, index.getKey());
+            if (value == null && types.get(index.getKey()) == IndexType.SORTED) {
+                continue;
+            }
+            Set<Serializable> ids = index.getValue().get(value);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    index.getValue().remove(value);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        indexes.clear();
+        for (Map.Entry<String, IndexType> type : types.entrySet()) {
+            Map<Object, Set<Serializable>> index = type.getValue() == IndexType.SORTED
+                    ? new TreeMap<Object, Set<Serializable>>(QueryMatcher.ORDER)
+                    : new HashMap<Object, Set<Serializable>>();
+            indexes.put(type.getKey(), index);
+        }
+    }
+
+    /**
+     * Returns the ids of the candidate items of the query, or null if no index helps answering it.
+     * The candidates still have to be checked against the query.
+     */
+    Set<Serializable> lookup(Query query) {
+        if (query instanceof Query.Equal) {
+            Query.Equal equal = (Query.Equal) query;
+            Map<Object, Set<Serializable>> index = indexes.get(equal.getProperty());
+            if (index == null) {
+                return null;
+            }
+            if (equal.getValue() == null && index instanceof TreeMap) {
+                return null;
+            }
+            Set<Serializable> ids = index.get(equal.getValue());
+            return ids == null ? new HashSet<Serializable>() : new HashSet<Serializable>(ids);
+        }
+
+        if (query instanceof Query.Range) {
+            Query.Range range = (Query.Range) query;
+            if (types.get(range.getProperty()) != IndexType.SORTED) {
+                return null;
+            }
+            NavigableMap<Object, Set<Serializable>> index = (NavigableMap<Object, Set<Serializable>>) indexes.get(range.getProperty());
+            if (range.getFrom() != null) {
+                index = index.tailMap(range.getFrom(), true);
+            }
+            if (range.getTo() != null) {
+                index = index.headMap(range.getTo(), true);
+            }
+            Set<Serializable> ids = new HashSet<Serializable>();
+            for (Set<Serializable> matching : index.values()) {
+                ids.addAll(matching);
+            }
+            return ids;
+        }
+
+        if (query instanceof Query.And) {
+            Set<Serializable> ids = null;
+            for (Query part : ((Query.And) query).getQueries()) {
+                Set<Serializable> matching = lookup(part);
+                if (matching == null) {
+                    continue;
+                }
+                if (ids == null) {
+                    ids = matching;
+                } else {
+                    ids.retainAll(matching);
+                }
+            }
+            return ids;
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.LongIdGenerator;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.BufferedWriteBatch.Operation;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory implementation of Store {@link Store} keyed by primitive long ids, so that saving an
+ * item does not allocate a key object. Ids may be given as integral numbers or as decimal
+ * strings, such as the record ids of a pipe; other ids are never found.
+ *
+ * The store is thread safe, every operation holds its lock.
+ */
+public class LongKeyedMemoryStorage<T> implements Store<T> {
+
+    private final LongObjectMap<T> data = new LongObjectMap<T>();
+    private final LongIdGenerator idGenerator;
+    private final Indexes indexes;
+    private final StoreListeners<T> listeners = new StoreListeners<T>();
+
+    public LongKeyedMemoryStorage(LongIdGenerator idGenerator) {
+        this(idGenerator, Collections.<String, IndexType>emptyMap());
+    }
+
+    /**
+     * @param idGenerator the generator of the ids of saved items
+     * @param indexes the indexed properties and their index type
+     */
+    public LongKeyedMemoryStorage(LongIdGenerator idGenerator, Map<String, IndexType> indexes) {
+        this.idGenerator = idGenerator;
+        this.indexes = new Indexes(indexes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StoreType getType() {
+        return StoreType.MEMORY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<T> readAll() {
+        return data.values();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized T read(Serializable id) {
+        Long key = toLong(id);
+        return key == null ? null : data.get(key);
+    }
+
+    /**
+     * Reads a specific object/record without boxing its id.
+     *
+     * @param id id from the desired object
+     * @return T
+     */
+    public synchronized T read(long id) {
+        return data.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<T> query(Query query) {
+        Set<Serializable> ids = indexes.lookup(query);
+        Collection<T> candidates;
+        if (ids == null) {
+            candidates = data.values();
+        } else {
+            candidates = new ArrayList<T>(ids.size());
+            for (Serializable id : ids) {
+                candidates.add(data.get((Long) id));
+            }
+        }
+        List<T> result = new ArrayList<T>();
+        for (T item : candidates) {
+            if (item != null && QueryMatcher.matches(query, item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(T item) {
+        long newId = idGenerator.generateLong();
+        synchronized (this) {
+            ChangeRecorder<T> changes = listeners.record();
+            put(newId, item, changes);
+            listeners.publish(changes);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveAll(Collection<T> items) {
+        apply(BufferedWriteBatch.saves(items));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        ChangeRecorder<T> changes = listeners.record();
+        if (changes != null) {
+            for (long id : data.keys()) {
+                changes.removed(id);
+            }
+        }
+        data.clear();
+        indexes.clear();
+        listeners.publish(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void remove(Serializable id) {
+        Long key = toLong(id);
+        if (key != null) {
+            remove(key.longValue());
+        }
+    }
+
+    /**
+     * Removes a specific object/record without boxing its id.
+     *
+     * @param id Id of item to remove
+     */
+    public synchronized void remove(long id) {
+        ChangeRecorder<T> changes = listeners.record();
+        delete(id, changes);
+        listeners.publish(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll(Collection<Serializable> ids) {
+        apply(BufferedWriteBatch.<T>removals(ids));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WriteBatch<T> beginBatch() {
+        return new BufferedWriteBatch<T>(new BufferedWriteBatch.Target<T>() {
+            @Override
+            public void apply(List<Operation<T>> operations) {
+                LongKeyedMemoryStorage.this.apply(operations);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener(StoreListener<T> listener, Executor executor) {
+        listeners.add(listener, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener(StoreListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    private synchronized void apply(List<Operation<T>> operations) {
+        // every id is resolved before anything changes, so an invalid one fails the whole batch
+        Long[] keys = new Long[operations.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Operation<T> operation = operations.get(i);
+            if (operation.isReset()) {
+                continue;
+            }
+            if (operation.id == null && !operation.isRemove()) {
+                keys[i] = idGenerator.generateLong();
+                continue;
+            }
+            keys[i] = toLong(operation.id);
+            if (keys[i] == null && !operation.isRemove()) {
+                throw new IllegalArgumentException("The ids of the items must be longs: " + operation.id);
+            }
+        }
+
+        ChangeRecorder<T> changes = listeners.record();
+        for (int i = 0; i < keys.length; i++) {
+            Operation<T> operation = operations.get(i);
+            if (operation.isReset()) {
+                for (long id : data.keys()) {
+                    delete(id, changes);
+                }
+            } else if (operation.isRemove()) {
+                if (keys[i] != null) {
+                    delete(keys[i], changes);
+                }
+            } else {
+                put(keys[i], operation.item, changes);
+            }
+        }
+        listeners.publish(changes);
+    }
+
+    /**
+     * Returns the long key of the given id, or null if it is not an integral number.
+     */
+    static Long toLong(Serializable id) {
+        if (id instanceof Long) {
+            return (Long) id;
+        }
+        if (id instanceof Integer || id instanceof Short || id instanceof Byte) {
+            return ((Number) id).longValue();
+        }
+        if (id instanceof String) {
+            try {
+                return Long.valueOf((String) id);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void put(long id, T item, ChangeRecorder<T> changes) {
+        T previous = data.put(id, item);
+        if (!indexes.isEmpty()) {
+            if (previous != null) {
+                indexes.remove(id, previous);
+            }
+            indexes.add(id, item);
+        }
+        if (changes != null) {
+            changes.saved(id, item, previous != null);
+        }
+    }
+
+    private void delete(long id, ChangeRecorder<T> changes) {
+        T item = data.remove(id);
+        if (item == null) {
+            return;
+        }
+        if (!indexes.isEmpty()) {
+            indexes.remove(id, item);
+        }
+        if (changes != null) {
+            changes.removed(id);
+        }
+    }
+
+}
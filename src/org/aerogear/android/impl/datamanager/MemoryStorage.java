@@ -18,21 +18,58 @@
 package org.aerogear.android.impl.datamanager;
 
 import org.aerogear.android.datamanager.IdGenerator;
+import org.aerogear.android.datamanager.Query;
 import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.BufferedWriteBatch.Operation;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Memory implementation of Store {@link Store}.
+ *
+ * The store is thread safe: reads never block, and writers only contend when they hit the same
+ * segment of the map (or when the store has indexes, which are updated under a lock).
+ * Batches are applied one at a time, and {@link #readAll()} and {@link #query(Query)} retry
+ * while one is being applied, so they never return part of a batch.
  */
 public class MemoryStorage<T> implements Store<T> {
 
-    private final Map<Serializable, T> data = new HashMap<Serializable, T>();
+    /**
+     * How often reads of many items retry while writers keep changing them.
+     */
+    private static final int SNAPSHOT_ATTEMPTS = 3;
+
+    private final Map<Serializable, T> data = new ConcurrentHashMap<Serializable, T>();
     private final IdGenerator idGenerator;
+    private final Indexes indexes;
+    private final StoreListeners<T> listeners = new StoreListeners<T>();
+
+    /**
+     * Incremented after every change of the data, so readers can tell whether a copy is consistent.
+     */
+    private final AtomicLong modifications = new AtomicLong();
+    private final AtomicInteger activeBatches = new AtomicInteger();
+    private final Object batchLock = new Object();
+    private volatile Snapshot<T> snapshot;
 
     public MemoryStorage(IdGenerator idGenerator) {
+        this(idGenerator, Collections.<String, IndexType>emptyMap());
+    }
+
+    /**
+     * @param idGenerator the generator of the ids of saved items
+     * @param indexes the indexed properties and their index type
+     */
+    public MemoryStorage(IdGenerator idGenerator, Map<String, IndexType> indexes) {
         this.idGenerator = idGenerator;
+        this.indexes = new Indexes(indexes);
     }
 
     /**
@@ -45,10 +82,27 @@ public class MemoryStorage<T> implements Store<T> {
 
     /**
      * {@inheritDoc}
+     *
+     * Returns an unmodifiable copy of the items, shared between callers until the next change.
      */
     @Override
     public Collection<T> readAll() {
-        return data.values();
+        Snapshot<T> current = snapshot;
+        long version = modifications.get();
+        if (current != null && current.version == version) {
+            return current.items;
+        }
+
+        Collection<T> items = readConsistently(new Read<Collection<T>>() {
+            @Override
+            public Collection<T> run() {
+                return Collections.unmodifiableList(new ArrayList<T>(data.values()));
+            }
+        });
+        if (modifications.get() == version && activeBatches.get() == 0) {
+            snapshot = new Snapshot<T>(version, items);
+        }
+        return items;
     }
 
     /**
@@ -59,14 +113,60 @@ public class MemoryStorage<T> implements Store<T> {
         return data.get(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<T> query(final Query query) {
+        return readConsistently(new Read<Collection<T>>() {
+            @Override
+            public Collection<T> run() {
+                return find(query);
+            }
+        });
+    }
+
+    private Collection<T> find(Query query) {
+        Set<Serializable> ids;
+        synchronized (indexes) {
+            ids = indexes.lookup(query);
+        }
+        Collection<T> candidates;
+        if (ids == null) {
+            candidates = data.values();
+        } else {
+            candidates = new ArrayList<T>(ids.size());
+            for (Serializable id : ids) {
+                candidates.add(data.get(id));
+            }
+        }
+        List<T> result = new ArrayList<T>();
+        for (T item : candidates) {
+            if (item != null && QueryMatcher.matches(query, item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void save(T item) {
         Serializable newId = idGenerator.generate();
-        // TODO Put newId on item
-        data.put(newId, item);
+        ChangeRecorder<T> changes = listeners.record();
+        put(newId, item, changes);
+        modifications.incrementAndGet();
+        listeners.publish(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveAll(Collection<T> items) {
+        apply(BufferedWriteBatch.saves(items));
     }
 
     /**
@@ -74,7 +174,18 @@ public class MemoryStorage<T> implements Store<T> {
      */
     @Override
     public void reset() {
+        ChangeRecorder<T> changes = listeners.record();
+        if (changes != null) {
+            for (Serializable id : data.keySet()) {
+                changes.removed(id);
+            }
+        }
         data.clear();
+        synchronized (indexes) {
+            indexes.clear();
+        }
+        modifications.incrementAndGet();
+        listeners.publish(changes);
     }
 
     /**
@@ -82,7 +193,142 @@ public class MemoryStorage<T> implements Store<T> {
      */
     @Override
     public void remove(Serializable id) {
-        data.remove(id);
+        ChangeRecorder<T> changes = listeners.record();
+        if (delete(id, changes)) {
+            modifications.incrementAndGet();
+            listeners.publish(changes);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll(Collection<Serializable> ids) {
+        apply(BufferedWriteBatch.<T>removals(ids));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WriteBatch<T> beginBatch() {
+        return new BufferedWriteBatch<T>(new BufferedWriteBatch.Target<T>() {
+            @Override
+            public void apply(List<Operation<T>> operations) {
+                MemoryStorage.this.apply(operations);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener(StoreListener<T> listener, Executor executor) {
+        listeners.add(listener, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener(StoreListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    private void apply(List<Operation<T>> operations) {
+        synchronized (batchLock) {
+            // readers seeing the batch start or end running start over
+            activeBatches.incrementAndGet();
+            modifications.incrementAndGet();
+            ChangeRecorder<T> changes = listeners.record();
+            try {
+                for (Operation<T> operation : operations) {
+                    if (operation.isReset()) {
+                        for (Serializable id : new ArrayList<Serializable>(data.keySet())) {
+                            delete(id, changes);
+                        }
+                    } else if (operation.isRemove()) {
+                        delete(operation.id, changes);
+                    } else {
+                        put(operation.saveId(idGenerator), operation.item, changes);
+                    }
+                }
+            } finally {
+                modifications.incrementAndGet();
+                activeBatches.decrementAndGet();
+            }
+            listeners.publish(changes);
+        }
+    }
+
+    private void put(Serializable id, T item, ChangeRecorder<T> changes) {
+        T previous = data.put(id, item);
+        if (!indexes.isEmpty()) {
+            synchronized (indexes) {
+                if (previous != null) {
+                    indexes.remove(id, previous);
+                }
+                indexes.add(id, item);
+            }
+        }
+        if (changes != null) {
+            changes.saved(id, item, previous != null);
+        }
+    }
+
+    private boolean delete(Serializable id, ChangeRecorder<T> changes) {
+        T item = data.remove(id);
+        if (item == null) {
+            return false;
+        }
+        if (changes != null) {
+            changes.removed(id);
+        }
+        if (!indexes.isEmpty()) {
+            synchronized (indexes) {
+                indexes.remove(id, item);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a read of many items until no write happened meanwhile. Once out of attempts, runs it
+     * while holding off batches, so it may see single writes but never part of a batch.
+     */
+    private <R> R readConsistently(Read<R> read) {
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long version = modifications.get();
+            if (activeBatches.get() == 0) {
+                R result = read.run();
+                if (modifications.get() == version) {
+                    return result;
+                }
+            }
+        }
+        synchronized (batchLock) {
+            return read.run();
+        }
+    }
+
+    private interface Read<R> {
+
+        R run();
+
+    }
+
+    private static final class Snapshot<T> {
+
+        private final long version;
+        private final Collection<T> items;
+
+        private Snapshot(long version, Collection<T> items) {
+            this.version = version;
+            this.items = items;
+        }
+
     }
 
 }
\ No newline at end of file
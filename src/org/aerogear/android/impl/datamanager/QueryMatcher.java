@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.impl.reflection.PropertyAccessor;
+
+import java.util.Comparator;
+
+/**
+ * Checks the items of a store against a {@link Query}.
+ */
+final class QueryMatcher {
+
+    /**
+     * Orders numbers by their value whatever their type, and other values by their natural order.
+     */
+    static final Comparator<Object> ORDER = new Comparator<Object>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Object left, Object right) {
+            if (left instanceof Number && right instanceof Number) {
+                return compareNumbers((Number) left, (Number) right);
+            }
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+    };
+
+    private QueryMatcher() {}
+
+    /**
+     * Returns whether the given item matches the query.
+     */
+    static boolean matches(Query query, Object item) {
+        if (query instanceof Query.Equal) {
+            Query.Equal equal = (Query.Equal) query;
+            Object actual = PropertyAccessor.read(item, equal.getProperty());
+            return equal.getValue() == null ? actual == null : equal.getValue().equals(actual);
+        }
+        if (query instanceof Query.Range) {
+            Query.Range range = (Query.Range) query;
+            Object actual = PropertyAccessor.read(item, range.getProperty());
+            if (actual == null) {
+                return false;
+            }
+            return (range.getFrom() == null || ORDER.compare(range.getFrom(), actual) <= 0)
+                    && (range.getTo() == null || ORDER.compare(range.getTo(), actual) >= 0);
+        }
+        if (query instanceof Query.And) {
+            for (Query part : ((Query.And) query).getQueries()) {
+                if (!matches(part, item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        throw new IllegalArgumentException("Query is not supported yet: " + query.getClass().getName());
+    }
+
+    private static int compareNumbers(Number left, Number right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            long leftValue = left.longValue();
+            long rightValue = right.longValue();
+            return leftValue < rightValue ? -1 : (leftValue == rightValue ? 0 : 1);
+        }
+        return Double.compare(left.doubleValue(), right.doubleValue());
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+}
@@ -0,0 +1,437 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.IdGenerator;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.BufferedWriteBatch.Operation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory implementation of Store {@link Store} keeping its items serialized in large direct
+ * buffers, outside of the object graph the garbage collector has to walk. Items are
+ * deserialized on every read, unless they are found in the optional cache of recently read items.
+ *
+ * Items are appended to the current buffer; the space of removed or overwritten items is taken
+ * back by copying the live items into fresh buffers once it makes up most of the store.
+ *
+ * Items are written with Java serialization, so they have to be {@link Serializable}. The store
+ * is thread safe, every operation holds its lock.
+ */
+public class SerializedMemoryStorage<T> implements Store<T> {
+
+    /**
+     * The size of the buffers, larger items get a buffer of their own.
+     */
+    private static final int ARENA_SIZE = 256 * 1024;
+
+    /**
+     * How many emptied buffers are kept around for reuse.
+     */
+    private static final int MAX_POOLED_ARENAS = 4;
+
+    private final IdGenerator idGenerator;
+    private final Indexes indexes;
+    private final StoreListeners<T> listeners = new StoreListeners<T>();
+    private final Map<Serializable, Slot> slots = new HashMap<Serializable, Slot>();
+    private final List<ByteBuffer> arenas = new ArrayList<ByteBuffer>();
+    private final Deque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+    private final LinkedHashMap<Serializable, T> hotItems;
+    private final int hotCacheSize;
+
+    private ByteBuffer current;
+    private long liveBytes;
+    private long usedBytes;
+
+    public SerializedMemoryStorage(IdGenerator idGenerator) {
+        this(idGenerator, Collections.<String, IndexType>emptyMap(), 0);
+    }
+
+    /**
+     * @param idGenerator the generator of the ids of saved items
+     * @param indexes the indexed properties and their index type
+     * @param hotCacheSize how many recently read items are kept deserialized, 0 for none. They
+     * are shared between readers, which should not change them.
+     */
+    public SerializedMemoryStorage(IdGenerator idGenerator, Map<String, IndexType> indexes, final int hotCacheSize) {
+        this.idGenerator = idGenerator;
+        this.indexes = new Indexes(indexes);
+        this.hotCacheSize = hotCacheSize;
+        this.hotItems = new LinkedHashMap<Serializable, T>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Serializable, T> eldest) {
+                return size() > hotCacheSize;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StoreType getType() {
+        return StoreType.SERIALIZED;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<T> readAll() {
+        List<T> items = new ArrayList<T>(slots.size());
+        for (Map.Entry<Serializable, Slot> entry : slots.entrySet()) {
+            T item = hotItems.get(entry.getKey());
+            items.add(item != null ? item : decode(entry.getValue()));
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized T read(Serializable id) {
+        T item = hotItems.get(id);
+        if (item != null) {
+            return item;
+        }
+        Slot slot = slots.get(id);
+        if (slot == null) {
+            return null;
+        }
+        item = decode(slot);
+        if (hotCacheSize > 0) {
+            hotItems.put(id, item);
+        }
+        return item;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<T> query(Query query) {
+        Set<Serializable> ids = indexes.lookup(query);
+        List<T> result = new ArrayList<T>();
+        for (Serializable id : ids == null ? slots.keySet() : ids) {
+            T item = hotItems.get(id);
+            if (item == null) {
+                Slot slot = slots.get(id);
+                if (slot == null) {
+                    continue;
+                }
+                item = decode(slot);
+            }
+            if (QueryMatcher.matches(query, item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(T item) {
+        apply(Collections.singletonList(Operation.save(item)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveAll(Collection<T> items) {
+        apply(BufferedWriteBatch.saves(items));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        ChangeRecorder<T> changes = listeners.record();
+        if (changes != null) {
+            for (Serializable id : slots.keySet()) {
+                changes.removed(id);
+            }
+        }
+        slots.clear();
+        hotItems.clear();
+        indexes.clear();
+        recycleArenas();
+        liveBytes = 0;
+        usedBytes = 0;
+        listeners.publish(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void remove(Serializable id) {
+        ChangeRecorder<T> changes = listeners.record();
+        if (delete(id, changes)) {
+            compactIfWorthIt();
+            listeners.publish(changes);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll(Collection<Serializable> ids) {
+        apply(BufferedWriteBatch.<T>removals(ids));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WriteBatch<T> beginBatch() {
+        return new BufferedWriteBatch<T>(new BufferedWriteBatch.Target<T>() {
+            @Override
+            public void apply(List<Operation<T>> operations) {
+                SerializedMemoryStorage.this.apply(operations);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener(StoreListener<T> listener, Executor executor) {
+        listeners.add(listener, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener(StoreListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the bytes taken by the serialized items, not counting the space of removed ones
+     */
+    public synchronized long sizeInBytes() {
+        return liveBytes;
+    }
+
+    private void apply(List<Operation<T>> operations) {
+        // serializing can be slow, so it is done before taking the lock
+        byte[][] encoded = new byte[operations.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            Operation<T> operation = operations.get(i);
+            if (operation.isSave()) {
+                encoded[i] = encode(operation.item);
+            }
+        }
+        synchronized (this) {
+            ChangeRecorder<T> changes = listeners.record();
+            for (int i = 0; i < encoded.length; i++) {
+                Operation<T> operation = operations.get(i);
+                if (operation.isReset()) {
+                    for (Serializable id : new ArrayList<Serializable>(slots.keySet())) {
+                        delete(id, changes);
+                    }
+                } else if (operation.isRemove()) {
+                    delete(operation.id, changes);
+                } else {
+                    Serializable newId = operation.saveId(idGenerator);
+                    Slot previous = slots.put(newId, write(encoded[i]));
+                    if (previous != null) {
+                        release(newId, previous);
+                    }
+                    liveBytes += encoded[i].length;
+                    indexes.add(newId, operation.item);
+                    if (changes != null) {
+                        changes.saved(newId, operation.item, previous != null);
+                    }
+                }
+            }
+            compactIfWorthIt();
+            listeners.publish(changes);
+        }
+    }
+
+    private boolean delete(Serializable id, ChangeRecorder<T> changes) {
+        Slot slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        release(id, slot);
+        if (changes != null) {
+            changes.removed(id);
+        }
+        return true;
+    }
+
+    private void release(Serializable id, Slot slot) {
+        liveBytes -= slot.length;
+        hotItems.remove(id);
+        if (!indexes.isEmpty()) {
+            indexes.remove(id, decode(slot));
+        }
+    }
+
+    private Slot write(byte[] bytes) {
+        ByteBuffer arena;
+        if (bytes.length > ARENA_SIZE) {
+            arena = ByteBuffer.allocateDirect(bytes.length);
+            arenas.add(arena);
+        } else {
+            if (current == null || current.remaining() < bytes.length) {
+                current = pool.isEmpty() ? ByteBuffer.allocateDirect(ARENA_SIZE) : pool.pop();
+                arenas.add(current);
+            }
+            arena = current;
+        }
+        Slot slot = new Slot(arena, arena.position(), bytes.length);
+        arena.put(bytes);
+        usedBytes += bytes.length;
+        return slot;
+    }
+
+    /**
+     * Copies the live items into fresh buffers once most of the used space belongs to removed
+     * or overwritten items.
+     */
+    private void compactIfWorthIt() {
+        if (usedBytes < ARENA_SIZE || usedBytes - liveBytes < liveBytes) {
+            return;
+        }
+        List<ByteBuffer> old = new ArrayList<ByteBuffer>(arenas);
+        arenas.clear();
+        current = null;
+        usedBytes = 0;
+        for (Map.Entry<Serializable, Slot> entry : slots.entrySet()) {
+            Slot slot = entry.getValue();
+            byte[] bytes = new byte[slot.length];
+            ByteBuffer source = slot.arena.duplicate();
+            source.position(slot.offset);
+            source.get(bytes);
+            entry.setValue(write(bytes));
+        }
+        for (ByteBuffer arena : old) {
+            pool(arena);
+        }
+    }
+
+    private void recycleArenas() {
+        for (ByteBuffer arena : arenas) {
+            pool(arena);
+        }
+        arenas.clear();
+        current = null;
+    }
+
+    private void pool(ByteBuffer arena) {
+        if (arena.capacity() == ARENA_SIZE && pool.size() < MAX_POOLED_ARENAS) {
+            arena.clear();
+            pool.push(arena);
+        }
+    }
+
+    private static byte[] encode(Object item) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(item);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can not serialize " + item, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(Slot slot) {
+        ByteBuffer source = slot.arena.duplicate();
+        source.limit(slot.offset + slot.length);
+        source.position(slot.offset);
+        try {
+            return (T) new ObjectInputStream(new ByteBufferInputStream(source)).readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not deserialize item", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Can not deserialize item", e);
+        }
+    }
+
+    private static final class Slot {
+
+        private final ByteBuffer arena;
+        private final int offset;
+        private final int length;
+
+        private Slot(ByteBuffer arena, int offset, int length) {
+            this.arena = arena;
+            this.offset = offset;
+            this.length = length;
+        }
+
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.EvictionListener;
+import org.aerogear.android.datamanager.SizeEstimator;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Per store settings of a {@link org.aerogear.android.DataManager}.
+ */
+public class StoreConfig {
+
+    private Map<String, IndexType> indexes = Collections.emptyMap();
+    private int maxEntries = -1;
+    private long maxBytes = -1;
+    private SizeEstimator sizeEstimator = new SerializedSizeEstimator();
+    private EvictionListener evictionListener;
+    private boolean longKeys;
+    private int hotCacheSize;
+
+    /**
+     * The indexed properties of the items of the store and their index type.
+     */
+    public Map<String, IndexType> getIndexes() {
+        return indexes;
+    }
+
+    public void setIndexes(Map<String, IndexType> indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * The number of items a {@link StoreType#MEMORY} store keeps before evicting the least
+     * recently used ones. A negative value, the default, does not limit it.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * The estimated size, in bytes, of the items a {@link StoreType#MEMORY} store keeps before
+     * evicting the least recently used ones. A negative value, the default, does not limit it.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Estimates the size of the items when {@link #getMaxBytes()} is set. Defaults to the length
+     * of their serialized form.
+     */
+    public SizeEstimator getSizeEstimator() {
+        return sizeEstimator;
+    }
+
+    public void setSizeEstimator(SizeEstimator sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    /**
+     * Notified of the items evicted from a bounded store, may be null.
+     */
+    public EvictionListener getEvictionListener() {
+        return evictionListener;
+    }
+
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Whether a {@link StoreType#MEMORY} store keys its items by primitive longs, see
+     * {@link LongKeyedMemoryStorage}. Its ids come from the generator of the DataManager, which
+     * must be a {@link org.aerogear.android.datamanager.LongIdGenerator}; the default
+     * {@link DefaultIdGenerator} is replaced by a {@link TimeOrderedIdGenerator}, and other
+     * generators are refused. Defaults to false.
+     */
+    public boolean isLongKeys() {
+        return longKeys;
+    }
+
+    public void setLongKeys(boolean longKeys) {
+        this.longKeys = longKeys;
+    }
+
+    /**
+     * How many recently read items a {@link StoreType#SERIALIZED} store keeps deserialized.
+     * Defaults to 0, deserializing the items on every read.
+     */
+    public int getHotCacheSize() {
+        return hotCacheSize;
+    }
+
+    public void setHotCacheSize(int hotCacheSize) {
+        this.hotCacheSize = hotCacheSize;
+    }
+
+    /**
+     * @return true if the store has a limit on its entries or size
+     */
+    public boolean isBounded() {
+        return maxEntries >= 0 || maxBytes >= 0;
+    }
+
+}
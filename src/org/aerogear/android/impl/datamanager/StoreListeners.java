@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.ChangeSet;
+import org.aerogear.android.datamanager.StoreListener;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The listeners of a store. Change sets reach every listener in the order they were published,
+ * on its executor; the ones published while a listener is behind are merged into one.
+ */
+final class StoreListeners<T> {
+
+    private final CopyOnWriteArrayList<Registration<T>> registrations = new CopyOnWriteArrayList<Registration<T>>();
+
+    void add(StoreListener<T> listener, Executor executor) {
+        registrations.add(new Registration<T>(listener, executor));
+    }
+
+    void remove(StoreListener<T> listener) {
+        for (Registration<T> registration : registrations) {
+            if (registration.listener == listener) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * @return true if there is no listener, so the changes do not have to be recorded
+     */
+    boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    /**
+     * Publishes the recorded changes, if any. Call it before releasing the lock guarding the
+     * changes, to keep change sets in order.
+     */
+    void publish(ChangeRecorder<T> changes) {
+        if (changes == null || changes.isEmpty()) {
+            return;
+        }
+        ChangeSet<T> changeSet = changes.toChangeSet();
+        for (Registration<T> registration : registrations) {
+            registration.enqueue(changeSet);
+        }
+    }
+
+    /**
+     * @return a recorder for the changes of an operation, or null if nobody listens
+     */
+    ChangeRecorder<T> record() {
+        return isEmpty() ? null : new ChangeRecorder<T>();
+    }
+
+    private static final class Registration<T> implements Runnable {
+
+        private final StoreListener<T> listener;
+        private final Executor executor;
+        private final Queue<ChangeSet<T>> pending = new ConcurrentLinkedQueue<ChangeSet<T>>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Registration(StoreListener<T> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        private void enqueue(ChangeSet<T> changeSet) {
+            pending.add(changeSet);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            ChangeRecorder<T> merged = new ChangeRecorder<T>();
+            ChangeSet<T> changeSet;
+            while ((changeSet = pending.poll()) != null) {
+                merged.add(changeSet);
+            }
+            try {
+                if (!merged.isEmpty()) {
+                    listener.onChange(merged.toChangeSet());
+                }
+            } finally {
+                scheduled.set(false);
+                // change sets added while delivering were not scheduled
+                if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                    executor.execute(this);
+                }
+            }
+        }
+
+    }
+
+}
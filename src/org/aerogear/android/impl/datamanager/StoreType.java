@@ -22,6 +22,8 @@ package org.aerogear.android.impl.datamanager;
  */
 public enum StoreType {
 
-    MEMORY
+    MEMORY,
+    FILE,
+    SERIALIZED
 
 }
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.datamanager;
+
+import org.aerogear.android.datamanager.LongIdGenerator;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Id Generate using time ordered longs, like Twitter's Snowflake ids: 42 bits of milliseconds
+ * since 2012, 10 bits identifying the generator and a 12 bits sequence.
+ *
+ * The ids of a generator keep increasing, even if the clock goes back or more than 4096 ids are
+ * generated in a millisecond (in which case they run ahead of the clock for a while). Generating
+ * an id is lock free and, unlike {@link DefaultIdGenerator}, does not use a secure random source.
+ */
+public class TimeOrderedIdGenerator implements LongIdGenerator {
+
+    private static final long EPOCH = 1325376000000L; // 2012-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+    private static final int TIME_SHIFT = NODE_BITS + SEQUENCE_BITS;
+
+    private final long node;
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * Creates a generator with a random node, so that two generators are unlikely to return
+     * the same ids.
+     */
+    public TimeOrderedIdGenerator() {
+        this(new Random().nextInt((int) MAX_NODE + 1));
+    }
+
+    /**
+     * @param node the number, from 0 to 1023, telling the ids of this generator apart from
+     * the ids of other generators
+     */
+    public TimeOrderedIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("The node must be between 0 and " + MAX_NODE);
+        }
+        this.node = node;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@link Long}
+     */
+    @Override
+    public Long generate() {
+        return generateLong();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long generateLong() {
+        while (true) {
+            long previous = last.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long time = previous >>> TIME_SHIFT;
+            long sequence = previous & MAX_SEQUENCE;
+            if (now > time) {
+                time = now;
+                sequence = 0;
+            } else if (sequence < MAX_SEQUENCE) {
+                sequence++;
+            } else {
+                time++;
+                sequence = 0;
+            }
+            long id = (time << TIME_SHIFT) | (node << SEQUENCE_BITS) | sequence;
+            if (last.compareAndSet(previous, id)) {
+                return id;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import android.util.Log;
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.reflection.PropertyAccessor;
+import org.aerogear.android.pipeline.PagedList;
+import org.aerogear.android.pipeline.Pipe;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link Pipe} keeping what it reads and writes in a {@link Store}.
+ *
+ * A read delivers the items of the store right away, when there are any, then refreshes them
+ * from the server in the background: the fresh items replace the content of the store and are
+ * delivered to the same callback a second time. Saves and removals accepted by the server are
+ * written to the store too. Items are kept under their record id, or a generated one for items
+ * which do not have one yet.
+ */
+public final class CachedPipe<T> implements Pipe<T> {
+
+    private static final String TAG = "AeroGear";
+
+    private final Pipe<T> delegate;
+    private final Store<T> store;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+    private final PipeConfig config;
+
+    /**
+     * @param delegate the pipe reading and writing on the server
+     * @param store the store keeping the items of the pipe
+     * @param executor runs the reads and writes of the store
+     * @param config the settings of the pipe, for the record id of its items
+     */
+    public CachedPipe(Pipe<T> delegate, Store<T> store, Executor executor, PipeConfig config) {
+        this(delegate, store, executor, PipelineExecutors.mainThread(), config);
+    }
+
+    /**
+     * @param callbackExecutor hands the results of the store to the callbacks
+     */
+    CachedPipe(Pipe<T> delegate, Store<T> store, Executor executor, Executor callbackExecutor, PipeConfig config) {
+        this.delegate = delegate;
+        this.store = store;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.config = config;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Type getType() {
+        return delegate.getType();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URL getUrl() {
+        return delegate.getUrl();
+    }
+
+    /**
+     * @return the pipe reading and writing on the server
+     */
+    public Pipe<T> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the store keeping the items of this pipe
+     */
+    public Store<T> getStore() {
+        return store;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The callback first receives the items of the store, unless it is empty, then the items
+     * read from the server (or the failure of the read).
+     */
+    @Override
+    public Cancellable read(Callback<List<T>> callback) {
+        final OperationHandle handle = new OperationHandle();
+        final Callback<List<T>> delivery = handle.deliverTo(callback);
+        final AtomicBoolean refreshed = new AtomicBoolean();
+
+        execute(new StoreTask<List<T>>(delivery) {
+            @Override
+            protected List<T> inBackground() {
+                return Collections.unmodifiableList(new ArrayList<T>(store.readAll()));
+            }
+
+            @Override
+            protected void onSuccess(List<T> cached) {
+                // the refresh may have won the race, its items are the ones to show
+                if (!cached.isEmpty() && !refreshed.get()) {
+                    delivery.onSuccess(cached);
+                }
+            }
+
+            @Override
+            protected void onFailure(Exception e) {
+                Log.w(TAG, "Can not read the store of " + getUrl(), e);
+            }
+        });
+
+        handle.follow(delegate.read(new Callback<List<T>>() {
+            @Override
+            public void onSuccess(final List<T> fresh) {
+                refreshed.set(true);
+                writeThrough(fresh, true, delivery);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                refreshed.set(true);
+                delivery.onFailure(e);
+            }
+        }));
+        return handle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable readPaged(PageConfig config, Callback<PagedList<T>> callback) {
+        return delegate.readPaged(config, callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable save(final T item, Callback<T> callback) {
+        OperationHandle handle = new OperationHandle();
+        final Callback<T> delivery = handle.deliverTo(callback);
+        handle.follow(delegate.save(item, new Callback<T>() {
+            @Override
+            public void onSuccess(T data) {
+                // RestAdapter does not hand the saved item back
+                final T saved = data != null ? data : item;
+                writeThrough(Collections.singletonList(saved), false, new Callback<List<T>>() {
+                    @Override
+                    public void onSuccess(List<T> items) {
+                        delivery.onSuccess(saved);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        delivery.onFailure(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                delivery.onFailure(e);
+            }
+        }));
+        return handle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable saveAll(Collection<T> items, Callback<List<T>> callback) {
+        OperationHandle handle = new OperationHandle();
+        final Callback<List<T>> delivery = handle.deliverTo(callback);
+        handle.follow(delegate.saveAll(items, new Callback<List<T>>() {
+            @Override
+            public void onSuccess(List<T> saved) {
+                writeThrough(saved, false, delivery);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                delivery.onFailure(e);
+            }
+        }));
+        return handle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable remove(final String id, final Callback<Void> callback) {
+        return removeAll(Collections.singletonList(id), callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable removeAll(Collection<String> ids, Callback<Void> callback) {
+        OperationHandle handle = new OperationHandle();
+        final Callback<Void> delivery = handle.deliverTo(callback);
+        final List<String> removed = new ArrayList<String>(ids);
+        Callback<Void> removeFromStore = new Callback<Void>() {
+            @Override
+            public void onSuccess(Void data) {
+                execute(new StoreTask<Void>(delivery) {
+                    @Override
+                    protected Void inBackground() {
+                        WriteBatch<T> batch = store.beginBatch();
+                        for (String id : removed) {
+                            batch.remove(id);
+                        }
+                        batch.commit();
+                        return null;
+                    }
+
+                    @Override
+                    protected void onFailure(Exception e) {
+                        // the server removed them, the store will catch up on the next read
+                        Log.w(TAG, "Can not remove items from the store of " + getUrl(), e);
+                        delivery.onSuccess(null);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                delivery.onFailure(e);
+            }
+        };
+        if (removed.size() == 1) {
+            handle.follow(delegate.remove(removed.get(0), removeFromStore));
+        } else {
+            handle.follow(delegate.removeAll(removed, removeFromStore));
+        }
+        return handle;
+    }
+
+    /**
+     * Saves the items in the store, replacing its content if asked to, then hands them to the callback.
+     */
+    private void writeThrough(final List<T> items, final boolean replace, final Callback<List<T>> callback) {
+        execute(new StoreTask<List<T>>(callback) {
+            @Override
+            protected List<T> inBackground() throws Exception {
+                WriteBatch<T> batch = store.beginBatch();
+                if (replace) {
+                    batch.reset();
+                }
+                for (T item : items) {
+                    String id = readId(item);
+                    if (id == null || id.length() == 0) {
+                        batch.save(item);
+                    } else {
+                        batch.save(id, item);
+                    }
+                }
+                batch.commit();
+                return items;
+            }
+
+            @Override
+            protected void onFailure(Exception e) {
+                // the server has the items, the store will catch up on the next read
+                Log.w(TAG, "Can not save items in the store of " + getUrl(), e);
+                callback.onSuccess(items);
+            }
+        });
+    }
+
+    private String readId(Object item) {
+        Object id = PropertyAccessor.forRecordId(item.getClass(), config.getRecordId()).read(item);
+        return id == null ? null : id.toString();
+    }
+
+    private void execute(StoreTask<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.onFailure(e);
+        }
+    }
+
+    /**
+     * Runs an operation of the store in the background and hands its result to a callback.
+     */
+    private abstract class StoreTask<R> extends PipeTask<R> {
+
+        private final Callback<R> callback;
+        private Exception error;
+
+        StoreTask(Callback<R> callback) {
+            super(callbackExecutor);
+            this.callback = callback;
+        }
+
+        protected abstract R inBackground() throws Exception;
+
+        @Override
+        protected R doInBackground() {
+            try {
+                return inBackground();
+            } catch (Exception e) {
+                error = e;
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(R result) {
+            if (error != null) {
+                onFailure(error);
+            } else {
+                onSuccess(result);
+            }
+        }
+
+        protected void onSuccess(R result) {
+            callback.onSuccess(result);
+        }
+
+        protected void onFailure(Exception e) {
+            callback.onFailure(e);
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Collects the callbacks waiting for the same operation, so only the first one starts it
+ * and all of them receive its result.
+ *
+ * Each caller may cancel its wait; the operation itself is cancelled once nobody waits for it.
+ *
+ * @param <R> the result type of the operation
+ */
+final class CoalescingCallback<R> implements Callback<R> {
+
+    private List<Callback<R>> waiting;
+    private Cancellable operation;
+
+    /**
+     * Registers a callback for the result of the operation.
+     *
+     * @return the wait of the callback, {@link Waiter#isFirst()} if no operation is in flight
+     * and the caller has to start one
+     */
+    synchronized Waiter join(Callback<R> callback) {
+        boolean first = waiting == null;
+        if (first) {
+            waiting = new ArrayList<Callback<R>>();
+        }
+        waiting.add(callback);
+        return new Waiter(callback, waiting, first);
+    }
+
+    @Override
+    public void onSuccess(R data) {
+        for (Callback<R> callback : drain()) {
+            callback.onSuccess(data);
+        }
+    }
+
+    @Override
+    public void onFailure(Exception e) {
+        for (Callback<R> callback : drain()) {
+            callback.onFailure(e);
+        }
+    }
+
+    private synchronized List<Callback<R>> drain() {
+        List<Callback<R>> callbacks = waiting;
+        waiting = null;
+        operation = null;
+        return callbacks == null ? new ArrayList<Callback<R>>() : callbacks;
+    }
+
+    /**
+     * The wait of one callback for the result of the operation.
+     */
+    final class Waiter implements Cancellable {
+
+        private final Callback<R> callback;
+        private final List<Callback<R>> group;
+        private final boolean first;
+        private boolean cancelled;
+
+        private Waiter(Callback<R> callback, List<Callback<R>> group, boolean first) {
+            this.callback = callback;
+            this.group = group;
+            this.first = first;
+        }
+
+        boolean isFirst() {
+            return first;
+        }
+
+        /**
+         * Sets the operation the callbacks wait for; called by the first caller before starting it.
+         */
+        void start(Cancellable started) {
+            synchronized (CoalescingCallback.this) {
+                if (waiting == group) {
+                    operation = started;
+                    return;
+                }
+            }
+            // everybody left already
+            started.cancel();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void cancel() {
+            Cancellable abandoned = null;
+            synchronized (CoalescingCallback.this) {
+                if (cancelled || waiting != group) {
+                    return;
+                }
+                cancelled = true;
+                for (Iterator<Callback<R>> it = waiting.iterator(); it.hasNext(); ) {
+                    if (it.next() == callback) {
+                        it.remove();
+                        break;
+                    }
+                }
+                if (waiting.isEmpty()) {
+                    abandoned = operation;
+                    waiting = null;
+                    operation = null;
+                }
+            }
+            if (abandoned != null) {
+                abandoned.cancel();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isCancelled() {
+            synchronized (CoalescingCallback.this) {
+                return cancelled;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import org.aerogear.android.core.BodyWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Body of a request serializing an object to JSON, encoded as UTF-8, straight into the
+ * connection. The length is unknown until written, so the body is sent chunked. A
+ * {@link JsonElement} is written with the null members the given Gson serializes.
+ */
+final class JsonBody implements BodyWriter {
+
+    private final Gson gson;
+    private final Object data;
+
+    JsonBody(Gson gson, Object data) {
+        this.gson = gson;
+        this.data = data;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        try {
+            if (data instanceof JsonElement) {
+                // a tree is written as is; found by its runtime class, it would be serialized field by field
+                gson.toJson((JsonElement) data, writer);
+            } else {
+                gson.toJson(data, writer);
+            }
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        // the writer buffers; the stream stays open for the caller
+        writer.flush();
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+/**
+ * Computes JSON Merge Patches (RFC 7396): the document which, merged into the old state of
+ * an object, gives its new state.
+ */
+final class MergePatch {
+
+    private MergePatch() {
+    }
+
+    /**
+     * Returns the members of <code>after</code> which differ from <code>before</code>, with
+     * a null for each member it no longer has. Nested objects are compared member by member,
+     * any other changed value, arrays included, is sent whole.
+     *
+     * @return the patch, empty if nothing changed
+     */
+    static JsonObject diff(JsonObject before, JsonObject after) {
+        JsonObject patch = new JsonObject();
+        for (Map.Entry<String, JsonElement> member : after.entrySet()) {
+            JsonElement old = before.get(member.getKey());
+            JsonElement current = member.getValue();
+            if (old != null && old.isJsonObject() && current.isJsonObject()) {
+                JsonObject nested = diff(old.getAsJsonObject(), current.getAsJsonObject());
+                if (!nested.entrySet().isEmpty()) {
+                    patch.add(member.getKey(), nested);
+                }
+            } else if (!current.equals(old)) {
+                patch.add(member.getKey(), current);
+            }
+        }
+        for (Map.Entry<String, JsonElement> member : before.entrySet()) {
+            if (!after.has(member.getKey())) {
+                patch.add(member.getKey(), JsonNull.INSTANCE);
+            }
+        }
+        return patch;
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.core.HeaderAndStream;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the query parameters of the first and the following pages of a paged read.
+ */
+final class NextPageResolver {
+
+    private NextPageResolver() {}
+
+    static Map<String, String> firstPage(PageConfig config) {
+        Map<String, String> query = new LinkedHashMap<String, String>();
+        if (config.getStrategy() == PageConfig.Strategy.OFFSET) {
+            query.put(config.getOffsetParameter(), String.valueOf(config.getOffset()));
+        }
+        query.put(config.getLimitParameter(), String.valueOf(config.getLimit()));
+        return query;
+    }
+
+    /**
+     * @param pipeUrl the URL of the pipe, which the links of a response are relative to
+     * @return the query of the next page or null if the given response was the last page
+     * @throws IllegalArgumentException if the next page is another resource than the pipe, the
+     *                                  provider of the pipe can not read it
+     */
+    static Map<String, String> nextPage(PageConfig config, URL pipeUrl, Map<String, String> query,
+                                        HeaderAndStream response, int pageSize) {
+        switch (config.getStrategy()) {
+            case OFFSET:
+                if (pageSize < config.getLimit()) {
+                    return null;
+                }
+                Map<String, String> next = new LinkedHashMap<String, String>(query);
+                int offset = Integer.parseInt(query.get(config.getOffsetParameter()));
+                next.put(config.getOffsetParameter(), String.valueOf(offset + config.getLimit()));
+                return next;
+            case WEB_LINKING:
+                String link = findLink(response.getHeader("Link"), config.getNextIdentifier());
+                if (link == null) {
+                    return null;
+                }
+                Map<String, String> linked = parseQuery(resolve(pipeUrl, link));
+                // a link without parameters would read the first page again
+                return linked.isEmpty() ? null : linked;
+            case HEADERS:
+                String token = response.getHeader(config.getNextIdentifier());
+                if (token == null || token.length() == 0) {
+                    return null;
+                }
+                Map<String, String> cursor = new LinkedHashMap<String, String>(query);
+                cursor.put(config.getCursorParameter(), token);
+                return cursor;
+            default:
+                throw new IllegalArgumentException("Strategy is not supported yet");
+        }
+    }
+
+    /**
+     * Finds the target of the link with the given rel in a RFC 5988 <code>Link</code> header value,
+     * e.g. <code>&lt;http://server.com/tasks?page=2&gt;; rel="next"</code>.
+     */
+    static String findLink(String header, String rel) {
+        if (header == null) {
+            return null;
+        }
+        for (String link : split(header, ',')) {
+            link = link.trim();
+            int end = link.indexOf('>');
+            if (!link.startsWith("<") || end < 0) {
+                continue;
+            }
+            for (String param : split(link.substring(end + 1), ';')) {
+                String[] nameValue = param.trim().split("=", 2);
+                if (nameValue.length == 2 && nameValue[0].trim().equalsIgnoreCase("rel")) {
+                    String value = nameValue[1].trim().replace("\"", "");
+                    for (String candidate : value.split(" ")) {
+                        if (candidate.equals(rel)) {
+                            return link.substring(1, end).trim();
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits a header value at the given separator, except within a quoted string or a link target.
+     */
+    private static List<String> split(String value, char separator) {
+        List<String> parts = new ArrayList<String>();
+        boolean quoted = false;
+        boolean inTarget = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' && !inTarget) {
+                quoted = !quoted;
+            } else if (c == '<' && !quoted) {
+                inTarget = true;
+            } else if (c == '>' && !quoted) {
+                inTarget = false;
+            } else if (c == separator && !quoted && !inTarget) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+        return parts;
+    }
+
+    /**
+     * Resolves a link against the URL of the pipe, checking it targets the pipe itself.
+     */
+    private static URL resolve(URL pipeUrl, String link) {
+        URL target;
+        try {
+            target = new URL(pipeUrl, link);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid next page link " + link, e);
+        }
+        if (!target.getProtocol().equalsIgnoreCase(pipeUrl.getProtocol())
+                || !target.getHost().equalsIgnoreCase(pipeUrl.getHost())
+                || port(target) != port(pipeUrl)
+                || !path(target).equals(path(pipeUrl))) {
+            throw new IllegalArgumentException("Can not follow the next page link " + link
+                    + ", it is not a page of " + pipeUrl);
+        }
+        return target;
+    }
+
+    private static int port(URL url) {
+        return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    }
+
+    private static String path(URL url) {
+        String path = url.getPath();
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static Map<String, String> parseQuery(URL link) {
+        Map<String, String> query = new LinkedHashMap<String, String>();
+        String queryString = link.getQuery();
+        if (queryString == null || queryString.length() == 0) {
+            return query;
+        }
+        try {
+            for (String pair : queryString.split("&")) {
+                if (pair.length() == 0) {
+                    continue;
+                }
+                String[] keyValue = pair.split("=", 2);
+                String value = keyValue.length == 2 ? URLDecoder.decode(keyValue[1], "UTF-8") : "";
+                query.put(URLDecoder.decode(keyValue[0], "UTF-8"), value);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return query;
+    }
+
+}
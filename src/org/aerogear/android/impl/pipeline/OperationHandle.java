@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+
+/**
+ * Handle of an operation made of several steps, e.g. a request to the server followed by a
+ * write to a store. Cancelling it cancels the step in flight and drops the result.
+ */
+final class OperationHandle implements Cancellable {
+
+    private boolean cancelled;
+    private Cancellable step;
+
+    /**
+     * Sets the step in flight, cancelling it right away if the operation was cancelled.
+     */
+    void follow(Cancellable started) {
+        synchronized (this) {
+            if (!cancelled) {
+                step = started;
+                return;
+            }
+        }
+        started.cancel();
+    }
+
+    /**
+     * Wraps a callback so it is not called once the operation was cancelled.
+     */
+    <R> Callback<R> deliverTo(final Callback<R> callback) {
+        return new Callback<R>() {
+            @Override
+            public void onSuccess(R data) {
+                if (!isCancelled()) {
+                    callback.onSuccess(data);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (!isCancelled()) {
+                    callback.onFailure(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel() {
+        Cancellable pending;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = step;
+            step = null;
+        }
+        if (pending != null) {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+/**
+ * Describes how a {@link org.aerogear.android.pipeline.Pipe} pages through a collection.
+ */
+public class PageConfig {
+
+    /**
+     * Where the location of the next page is taken from.
+     */
+    public enum Strategy {
+
+        /**
+         * The next page is computed by adding the limit to the offset query parameter.
+         */
+        OFFSET,
+
+        /**
+         * The next page is the <code>Link</code> header entry whose rel matches the next identifier (RFC 5988).
+         */
+        WEB_LINKING,
+
+        /**
+         * The response header named by the next identifier carries a token, which is sent
+         * back in the cursor query parameter.
+         */
+        HEADERS
+
+    }
+
+    private Strategy strategy = Strategy.OFFSET;
+    private String offsetParameter = "offset";
+    private String limitParameter = "limit";
+    private String cursorParameter = "cursor";
+    private String nextIdentifier = "next";
+    private int offset = 0;
+    private int limit = 10;
+    private boolean prefetch = false;
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public String getOffsetParameter() {
+        return offsetParameter;
+    }
+
+    public void setOffsetParameter(String offsetParameter) {
+        this.offsetParameter = offsetParameter;
+    }
+
+    public String getLimitParameter() {
+        return limitParameter;
+    }
+
+    public void setLimitParameter(String limitParameter) {
+        this.limitParameter = limitParameter;
+    }
+
+    public String getCursorParameter() {
+        return cursorParameter;
+    }
+
+    public void setCursorParameter(String cursorParameter) {
+        this.cursorParameter = cursorParameter;
+    }
+
+    /**
+     * The rel of the next link for {@link Strategy#WEB_LINKING} or the name of the
+     * header carrying the next token for {@link Strategy#HEADERS}.
+     */
+    public String getNextIdentifier() {
+        return nextIdentifier;
+    }
+
+    public void setNextIdentifier(String nextIdentifier) {
+        this.nextIdentifier = nextIdentifier;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * When set, the page after the one delivered to a callback is read right away,
+     * so {@link org.aerogear.android.pipeline.PagedList#next} can usually answer without waiting.
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import java.io.Serializable;
+
+/**
+ * A save or removal waiting in a {@link WriteBehindQueue} to be sent to the server.
+ */
+public final class PendingWrite implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+    private final String id;
+    private final String body;
+
+    PendingWrite(long sequence, String id, String body) {
+        this.sequence = sequence;
+        this.id = id;
+        this.body = body;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the id of the saved or removed object, null for a new object
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the JSON of the saved object, null for a removal
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return true if the object is removed, false if it is saved
+     */
+    public boolean isRemove() {
+        return body == null;
+    }
+
+    boolean hasId() {
+        return id != null && id.length() > 0;
+    }
+
+    @Override
+    public String toString() {
+        return (isRemove() ? "remove " : "save ") + (hasId() ? id : "new object #" + sequence);
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.Callback;
+import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.impl.core.CircuitBreaker;
+import org.aerogear.android.impl.core.RetryPolicy;
+import org.aerogear.android.impl.core.DiskResponseCache;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Per pipe settings of a {@link RestAdapter}.
+ */
+public class PipeConfig {
+
+    private String recordId = "id";
+    private String bulkEndpoint;
+    private boolean partialUpdates;
+    private int requestCompressionThreshold = -1;
+    private Transport transport = Transport.HTTP_1_1;
+    private RetryPolicy retryPolicy;
+    private CircuitBreaker circuitBreaker;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    private long totalTimeoutMillis;
+    private DiskResponseCache responseCache;
+    private long responseCacheTtlMillis;
+    private File writeBehindFile;
+    private long writeBehindDelayMillis = 2000;
+    private int writeBehindBatchSize = 50;
+    private Callback<List<PendingWrite>> writeBehindCallback;
+    private Store store;
+
+    /**
+     * The name of the property holding the id of the objects of the pipe. Used unless the
+     * class marks a field or getter with {@link org.aerogear.android.RecordId}.
+     */
+    public String getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(String recordId) {
+        this.recordId = recordId;
+    }
+
+    /**
+     * The endpoint, relative to the pipe URL, accepting many objects in one request:
+     * a PUT of a JSON array saves them and a DELETE of comma separated ids removes them,
+     * split over several requests when the ids would make too long a URL. When not set,
+     * bulk operations send one request per object.
+     */
+    public String getBulkEndpoint() {
+        return bulkEndpoint;
+    }
+
+    public void setBulkEndpoint(String bulkEndpoint) {
+        this.bulkEndpoint = bulkEndpoint;
+    }
+
+    /**
+     * Whether saves of objects read through the pipe send only their changed fields, as a
+     * JSON Merge Patch, instead of putting the whole object. Servers which do not support
+     * PATCH get the whole object again. Pipes writing behind always send whole objects.
+     * False by default.
+     */
+    public boolean isPartialUpdates() {
+        return partialUpdates;
+    }
+
+    public void setPartialUpdates(boolean partialUpdates) {
+        this.partialUpdates = partialUpdates;
+    }
+
+    /**
+     * The size, in bytes, from which request bodies are sent gzip compressed; objects are
+     * serialized while they are sent, so their bodies are compressed whatever their size.
+     * A negative value, the default, never compresses them.
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * The HTTP version the pipe speaks, {@link Transport#HTTP_1_1} by default.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * How failed idempotent requests are retried, or null not to retry them.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * The circuit breaker of the backend, or null.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * How long, in milliseconds, to wait for a connection to the server, 0 for no limit.
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * How long, in milliseconds, to wait for the next bytes of a response, 0 for no limit.
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * How long, in milliseconds, an operation may take with all its requests and retries
+     * before it fails, 0 for no limit.
+     */
+    public long getTotalTimeoutMillis() {
+        return totalTimeoutMillis;
+    }
+
+    public void setTotalTimeoutMillis(long totalTimeoutMillis) {
+        this.totalTimeoutMillis = totalTimeoutMillis;
+    }
+
+    /**
+     * The disk cache answering reads of the pipe, or null to always read from the server.
+     */
+    public DiskResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(DiskResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * How long a cached response stays fresh when its Cache-Control header does not say otherwise.
+     */
+    public long getResponseCacheTtlMillis() {
+        return responseCacheTtlMillis;
+    }
+
+    public void setResponseCacheTtlMillis(long responseCacheTtlMillis) {
+        this.responseCacheTtlMillis = responseCacheTtlMillis;
+    }
+
+    /**
+     * The file of the {@link WriteBehindQueue} of the pipe, or null to send saves and removals
+     * right away.
+     */
+    public File getWriteBehindFile() {
+        return writeBehindFile;
+    }
+
+    public void setWriteBehindFile(File writeBehindFile) {
+        this.writeBehindFile = writeBehindFile;
+    }
+
+    /**
+     * How long the write-behind queue waits after a write before flushing, collecting the
+     * writes made meanwhile.
+     */
+    public long getWriteBehindDelayMillis() {
+        return writeBehindDelayMillis;
+    }
+
+    public void setWriteBehindDelayMillis(long writeBehindDelayMillis) {
+        this.writeBehindDelayMillis = writeBehindDelayMillis;
+    }
+
+    /**
+     * The most writes the write-behind queue sends in a flush.
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    /**
+     * Notified of the writes sent, or dropped, by each flush of the write-behind queue, may be null.
+     */
+    public Callback<List<PendingWrite>> getWriteBehindCallback() {
+        return writeBehindCallback;
+    }
+
+    public void setWriteBehindCallback(Callback<List<PendingWrite>> writeBehindCallback) {
+        this.writeBehindCallback = writeBehindCallback;
+    }
+
+    /**
+     * The store keeping what the pipe reads and writes, see {@link CachedPipe}, or null.
+     */
+    public Store getStore() {
+        return store;
+    }
+
+    public void setStore(Store store) {
+        this.store = store;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The background part of a pipe operation, run by the executor of the pipe, whose result is
+ * handed over through the callback executor, the main thread by default.
+ */
+abstract class PipeTask<R> implements Runnable {
+
+    private final Executor callbackExecutor;
+
+    PipeTask(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    protected abstract R doInBackground();
+
+    protected abstract void onPostExecute(R result);
+
+    @Override
+    public final void run() {
+        final R result = doInBackground();
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onPostExecute(result);
+            }
+        });
+    }
+
+}
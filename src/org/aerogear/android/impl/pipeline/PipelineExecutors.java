@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.impl.core.MainThreadExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors running the operations of the {@link org.aerogear.android.pipeline.Pipe}s of a
+ * {@link org.aerogear.android.Pipeline}.
+ */
+public final class PipelineExecutors {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUE_LIMIT = 128;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private PipelineExecutors() {}
+
+    /**
+     * Creates an executor with {@link #DEFAULT_THREADS} threads and a queue of {@link #DEFAULT_QUEUE_LIMIT} operations.
+     */
+    public static ThreadPoolExecutor newBoundedExecutor() {
+        return newBoundedExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_LIMIT);
+    }
+
+    /**
+     * Creates an executor running at most the given number of operations in parallel. Idle threads
+     * are released after a while. Once queueLimit operations are waiting, further ones are rejected
+     * and reported to their callback.
+     *
+     * @param threads the maximum number of parallel operations
+     * @param queueLimit the maximum number of waiting operations
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(int threads, int queueLimit) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueLimit),
+                new PipelineThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the executor handing the results of the operations to their callbacks, on the main thread.
+     */
+    public static Executor mainThread() {
+        return MainThread.INSTANCE;
+    }
+
+    /**
+     * Holds the shared main thread executor, created on first use.
+     */
+    private static final class MainThread {
+
+        private static final Executor INSTANCE = new MainThreadExecutor();
+
+    }
+
+    private static final class PipelineThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AeroGear Pipeline #" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -19,16 +19,39 @@ package org.aerogear.android.impl.pipeline;
 
 import android.os.AsyncTask;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import java.lang.reflect.Array;
 import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.core.HeaderAndStream;
 import org.aerogear.android.core.HttpProvider;
+import org.aerogear.android.impl.core.RequestControl;
+import org.aerogear.android.impl.reflection.PropertyAccessor;
+import org.aerogear.android.pipeline.BulkOperationException;
+import org.aerogear.android.pipeline.PagedList;
 import org.aerogear.android.pipeline.Pipe;
+import org.apache.http.MethodNotSupportedException;
 
-import java.lang.reflect.Method;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Rest implementation of {@link Pipe}.
@@ -37,6 +60,19 @@ public final class RestAdapter<T> implements Pipe<T> {
 
     private final static Gson gson = new Gson();
 
+    /**
+     * Writes the nulls of merge patches, which clear the fields they name.
+     */
+    private final static Gson patchGson = new GsonBuilder().serializeNulls().create();
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    /**
+     * The most characters of ids put in the URL of one bulk removal; more ids are removed by
+     * several requests, as servers reject overly long URLs.
+     */
+    static final int MAX_BULK_IDS_LENGTH = 1024;
+
     /**
      * A class of the Generic type this pipe wraps.
      * This is used by GSON for deserializing.
@@ -50,10 +86,61 @@ public final class RestAdapter<T> implements Pipe<T> {
     private final Class<T[]> arrayKlass;
     private final HttpProvider httpProvider;
 
+    /**
+     * Runs the background part of every operation of this pipe.
+     */
+    private final Executor executor;
+    private final Executor callbackExecutor;
+
+    private final PipeConfig config;
+
+    /**
+     * Queues the saves and removals of the pipe when it writes behind, null otherwise.
+     */
+    private final WriteBehindQueue writeBehind;
+
+    /**
+     * The result of the last read, handed out again when the server answers it did not change.
+     */
+    private volatile List<T> lastRead;
+
+    /**
+     * The callbacks of the read in flight; concurrent reads share a single request.
+     */
+    private final CoalescingCallback<List<T>> pendingRead = new CoalescingCallback<List<T>>();
+
+    /**
+     * The state of the objects last read or saved, by id, when the pipe makes partial
+     * updates: a save then only sends the fields which differ from it.
+     */
+    private final ConcurrentMap<String, JsonObject> snapshots = new ConcurrentHashMap<String, JsonObject>();
+
+    /**
+     * Cleared once the server answered it does not support PATCH, saves put whole objects then.
+     */
+    private volatile boolean patchSupported = true;
+
     public RestAdapter(Class<T> klass, HttpProvider httpProvider) {
+        this(klass, httpProvider, AsyncTask.THREAD_POOL_EXECUTOR, new PipeConfig());
+    }
+
+    public RestAdapter(Class<T> klass, HttpProvider httpProvider, Executor executor, PipeConfig config) {
+        this(klass, httpProvider, executor, PipelineExecutors.mainThread(), config);
+    }
+
+    /**
+     * @param callbackExecutor hands the results of the operations to their callbacks
+     */
+    RestAdapter(Class<T> klass, HttpProvider httpProvider, Executor executor, Executor callbackExecutor,
+                PipeConfig config) {
         this.klass = klass;
         this.arrayKlass = asArrayClass(klass);
         this.httpProvider = httpProvider;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.config = config;
+        this.writeBehind = config.getWriteBehindFile() == null
+                ? null : new WriteBehindQueue(config.getWriteBehindFile(), httpProvider, config);
     }
 
     /**
@@ -72,63 +159,127 @@ public final class RestAdapter<T> implements Pipe<T> {
         return httpProvider.getUrl();
     }
 
+    /**
+     * Returns the queue of the writes of this pipe, if it was built to write behind. Its
+     * saves and removals then succeed once queued, and reach the server later.
+     *
+     * @return the queue, or null
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehind;
+    }
+
     @Override
     /**
      * {@inheritDoc}
      */
-    public void read(final Callback<List<T>> callback) {
-        new AsyncTask<Void, Void, AsyncTaskResult<List<T>>>() {
+    public Cancellable read(Callback<List<T>> callback) {
+        CoalescingCallback<List<T>>.Waiter waiter = pendingRead.join(callback);
+        if (!waiter.isFirst()) {
+            return waiter;
+        }
+
+        ControlledTask<List<T>> task = new ControlledTask<List<T>>() {
+            @Override
+            protected AsyncTaskResult inBackground() {
+                List<T> cached = lastRead;
+                try {
+                    HeaderAndStream response = httpProvider.getStream(Collections.<String, String>emptyMap(), cached != null);
+                    try {
+                        control.checkpoint();
+                        if (response.getStatusCode() == HTTP_NOT_MODIFIED && cached != null) {
+                            return new AsyncTaskResult(cached);
+                        }
+                        List<T> result = Collections.unmodifiableList(parse(response.getStream()));
+                        snapshot(result, true);
+                        lastRead = result;
+                        return new AsyncTaskResult(result);
+                    } finally {
+                        response.close();
+                    }
+                } catch (Exception e) {
+                    lastRead = null;
+                    return new AsyncTaskResult(e);
+                }
+            }
+
+            @Override
+            protected void deliver(AsyncTaskResult<List<T>> asyncTaskResult) {
+                if ( asyncTaskResult.getError() != null ) {
+                    pendingRead.onFailure(asyncTaskResult.getError());
+                } else {
+                    pendingRead.onSuccess(asyncTaskResult.getResult());
+                }
+            }
+        };
+        waiter.start(task.control);
+        execute(task, pendingRead);
+        return waiter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable readPaged(PageConfig config, Callback<PagedList<T>> callback) {
+        return readPage(config, NextPageResolver.firstPage(config), WrappingPagedList.deliverTo(config, callback));
+    }
+
+    Cancellable readPage(final PageConfig config, final Map<String, String> query, final Callback<PagedList<T>> callback) {
+        return execute(new ControlledTask<PagedList<T>>() {
             @Override
-            protected AsyncTaskResult doInBackground(Void... voids) {
+            protected AsyncTaskResult inBackground() {
                 try {
-                    byte[] responseBody = httpProvider.get();
-                    String responseAsString = new String(responseBody, "utf-8");
-                    T[] resultArray = gson.fromJson(responseAsString, arrayKlass);
-                    
-                    return new AsyncTaskResult(Arrays.asList(resultArray));
+                    HeaderAndStream response = httpProvider.getStream(query);
+                    try {
+                        control.checkpoint();
+                        List<T> data = parse(response.getStream());
+                        snapshot(data, false);
+                        Map<String, String> nextQuery = NextPageResolver.nextPage(config, httpProvider.getUrl(), query,
+                                response, data.size());
+                        return new AsyncTaskResult(new WrappingPagedList<T>(RestAdapter.this, config, data, nextQuery));
+                    } finally {
+                        response.close();
+                    }
                 } catch (Exception e) {
                     return new AsyncTaskResult(e);
                 }
             }
 
             @Override
-            protected void onPostExecute(AsyncTaskResult<List<T>> asyncTaskResult) {
+            protected void deliver(AsyncTaskResult<PagedList<T>> asyncTaskResult) {
                 if ( asyncTaskResult.getError() != null ) {
                     callback.onFailure(asyncTaskResult.getError());
                 } else {
                     callback.onSuccess(asyncTaskResult.getResult());
                 }
             }
-        }.execute();
+        }, callback);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void save(final T data, final Callback<T> callback) {
+    public Cancellable save(final T data, final Callback<T> callback) {
 
         final String id;
 
-        // TODO: Make "id" field configurable
         try {
-            Method idGetter = data.getClass().getMethod("getId");
-            Object result = idGetter.invoke(data);
-            id = result == null ? null : result.toString();
+            id = readId(data);
         } catch (Exception e) {
             callback.onFailure(e);
-            return;
+            return RequestControl.FINISHED;
         }
 
-        new AsyncTask<Void, Void, AsyncTaskResult<T>>() {
+        return execute(new ControlledTask<T>() {
             @Override
-            protected AsyncTaskResult doInBackground(Void... voids) {
+            protected AsyncTaskResult inBackground() {
                 try {
-                    String body = gson.toJson(data);
-                    if (id == null || id.length() == 0) {
-                        httpProvider.post(body);
+                    if (writeBehind != null) {
+                        writeBehind.save(id, gson.toJson(data));
                     } else {
-                        httpProvider.put(id, body);
+                        send(data, id);
                     }
                     return new AsyncTaskResult(null);
                 } catch (Exception e) {
@@ -137,41 +288,293 @@ public final class RestAdapter<T> implements Pipe<T> {
             }
 
             @Override
-            protected void onPostExecute(AsyncTaskResult<T> asyncTaskResult) {
+            protected void deliver(AsyncTaskResult<T> asyncTaskResult) {
+                if ( asyncTaskResult.getError() != null ) {
+                    callback.onFailure(asyncTaskResult.getError());
+                } else {
+                    callback.onSuccess(asyncTaskResult.getResult());
+                }
+            }
+        }, callback);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable saveAll(Collection<T> items, final Callback<List<T>> callback) {
+        final List<T> pending = new ArrayList<T>(items);
+        final List<String> ids = new ArrayList<String>(pending.size());
+
+        try {
+            for (T item : pending) {
+                ids.add(readId(item));
+            }
+        } catch (Exception e) {
+            callback.onFailure(e);
+            return RequestControl.FINISHED;
+        }
+
+        return execute(new ControlledTask<List<T>>() {
+            @Override
+            protected AsyncTaskResult inBackground() {
+                try {
+                    if (writeBehind != null) {
+                        List<String> bodies = new ArrayList<String>(pending.size());
+                        for (T item : pending) {
+                            bodies.add(gson.toJson(item));
+                        }
+                        writeBehind.saveAll(ids, bodies);
+                        return new AsyncTaskResult(pending);
+                    }
+
+                    String bulkEndpoint = config.getBulkEndpoint();
+                    if (bulkEndpoint != null) {
+                        byte[] response = httpProvider.put(bulkEndpoint, new JsonBody(gson, pending));
+                        List<T> saved = response == null || response.length == 0
+                                ? Collections.<T>emptyList()
+                                : parse(new ByteArrayInputStream(response));
+                        return new AsyncTaskResult(saved.isEmpty() ? pending : saved);
+                    }
+
+                    // one request after the other, so they reuse the same connection
+                    List<T> saved = new ArrayList<T>(pending.size());
+                    Map<T, Exception> failures = new LinkedHashMap<T, Exception>();
+                    for (int i = 0; i < pending.size(); i++) {
+                        T item = pending.get(i);
+                        try {
+                            send(item, ids.get(i));
+                            saved.add(item);
+                        } catch (Exception e) {
+                            failures.put(item, e);
+                        }
+                    }
+                    if (!failures.isEmpty()) {
+                        return new AsyncTaskResult(new BulkOperationException(saved, failures));
+                    }
+                    return new AsyncTaskResult(saved);
+                } catch (Exception e) {
+                    return new AsyncTaskResult(e);
+                }
+            }
+
+            @Override
+            protected void deliver(AsyncTaskResult<List<T>> asyncTaskResult) {
                 if ( asyncTaskResult.getError() != null ) {
                     callback.onFailure(asyncTaskResult.getError());
                 } else {
                     callback.onSuccess(asyncTaskResult.getResult());
                 }
             }
-        }.execute();
+        }, callback);
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cancellable remove(final String id, final Callback<Void> callback) {
+        return execute(new ControlledTask<byte[]>() {
+            @Override
+            protected AsyncTaskResult inBackground() {
+                try {
+                    if (writeBehind != null) {
+                        writeBehind.remove(id);
+                        return new AsyncTaskResult(null);
+                    }
+                    byte[] response = httpProvider.delete(id);
+                    snapshots.remove(id);
+                    return new AsyncTaskResult(response);
+                } catch (Exception e) {
+                    return new AsyncTaskResult(e);
+                }
+            }
+
+            @Override
+            protected void deliver(AsyncTaskResult<byte[]> asyncTaskResult) {
+                if ( asyncTaskResult.getError() != null ) {
+                    callback.onFailure(asyncTaskResult.getError());
+                } else {
+                    callback.onSuccess(null);
+                }
+            }
+        }, callback);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void remove(final String id, final Callback<Void> callback) {
-        new AsyncTask<Void, Void, AsyncTaskResult<byte[]>>() {
+    public Cancellable removeAll(Collection<String> ids, final Callback<Void> callback) {
+        final List<String> pending = new ArrayList<String>(ids);
+
+        return execute(new ControlledTask<Void>() {
             @Override
-            protected AsyncTaskResult doInBackground(Void... voids) {
+            protected AsyncTaskResult inBackground() {
                 try {
-                    return new AsyncTaskResult(httpProvider.delete(id));
+                    if (writeBehind != null) {
+                        writeBehind.removeAll(pending);
+                        return new AsyncTaskResult(null);
+                    }
+
+                    // one request after the other, so they reuse the same connection; without
+                    // a bulk endpoint, one per id
+                    String bulkEndpoint = config.getBulkEndpoint();
+                    List<List<String>> requests = chunkIds(pending, bulkEndpoint != null ? MAX_BULK_IDS_LENGTH : 0);
+                    List<String> removed = new ArrayList<String>(pending.size());
+                    Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+                    for (List<String> chunk : requests) {
+                        try {
+                            httpProvider.delete(bulkEndpoint != null ? bulkEndpoint + "/" + joinIds(chunk) : chunk.get(0));
+                            snapshots.keySet().removeAll(chunk);
+                            removed.addAll(chunk);
+                        } catch (Exception e) {
+                            for (String id : chunk) {
+                                failures.put(id, e);
+                            }
+                        }
+                    }
+                    if (!failures.isEmpty()) {
+                        return new AsyncTaskResult(new BulkOperationException(removed, failures));
+                    }
+                    return new AsyncTaskResult(null);
                 } catch (Exception e) {
                     return new AsyncTaskResult(e);
                 }
             }
 
             @Override
-            protected void onPostExecute(AsyncTaskResult<byte[]> asyncTaskResult) {
+            protected void deliver(AsyncTaskResult<Void> asyncTaskResult) {
                 if ( asyncTaskResult.getError() != null ) {
                     callback.onFailure(asyncTaskResult.getError());
                 } else {
                     callback.onSuccess(null);
                 }
             }
-        }.execute();
+        }, callback);
+    }
+
+    /**
+     * Posts a new object or puts an existing one, depending on whether it has an id. When the
+     * pipe makes partial updates and knows the state of the object, only its changed fields
+     * are sent, as a PATCH; nothing is sent if none changed.
+     */
+    private void send(T data, String id) {
+        if (id == null || id.length() == 0) {
+            httpProvider.post(new JsonBody(gson, data));
+            return;
+        }
+        if (!config.isPartialUpdates()) {
+            httpProvider.put(id, new JsonBody(gson, data));
+            return;
+        }
+
+        JsonElement state = gson.toJsonTree(data);
+        JsonObject before = snapshots.get(id);
+        if (before != null && state.isJsonObject() && patchSupported) {
+            JsonObject patch = MergePatch.diff(before, state.getAsJsonObject());
+            if (patch.entrySet().isEmpty()) {
+                return;
+            }
+            try {
+                httpProvider.patch(id, new JsonBody(patchGson, patch));
+                snapshots.put(id, state.getAsJsonObject());
+                return;
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof MethodNotSupportedException)) {
+                    throw e;
+                }
+                patchSupported = false;
+            }
+        }
+        httpProvider.put(id, new JsonBody(gson, state));
+        if (state.isJsonObject()) {
+            snapshots.put(id, state.getAsJsonObject());
+        }
+    }
+
+    /**
+     * Keeps the state of the given objects, as read from the server, if the pipe makes partial updates.
+     *
+     * @param replace whether the objects are the whole collection, so the other states are stale
+     */
+    private void snapshot(List<T> items, boolean replace) throws Exception {
+        if (!config.isPartialUpdates()) {
+            return;
+        }
+        if (replace) {
+            snapshots.clear();
+        }
+        for (T item : items) {
+            if (item == null) {
+                continue;
+            }
+            String id = readId(item);
+            JsonElement state = gson.toJsonTree(item);
+            if (id != null && id.length() > 0 && state.isJsonObject()) {
+                snapshots.put(id, state.getAsJsonObject());
+            }
+        }
+    }
+
+    /**
+     * Splits the given ids into the lists removed by one request each. A list holds one id,
+     * and more while they fit in maxLength characters once joined by {@link #joinIds(List)}.
+     */
+    static List<List<String>> chunkIds(List<String> ids, int maxLength) throws IOException {
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = new ArrayList<String>();
+        int length = 0;
+        for (String id : ids) {
+            int idLength = URLEncoder.encode(id, "UTF-8").length();
+            if (!chunk.isEmpty() && length + 1 + idLength > maxLength) {
+                chunks.add(chunk);
+                chunk = new ArrayList<String>();
+            }
+            length = chunk.isEmpty() ? idLength : length + 1 + idLength;
+            chunk.add(id);
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    static String joinIds(List<String> ids) throws IOException {
+        StringBuilder joined = new StringBuilder();
+        for (String id : ids) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(URLEncoder.encode(id, "UTF-8"));
+        }
+        return joined.toString();
+    }
+
+    private List<T> parse(InputStream stream) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, "utf-8"));
+        T[] resultArray = gson.fromJson(reader, arrayKlass);
+        if (resultArray == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(resultArray);
+    }
+
+    private String readId(Object item) {
+        Object id = PropertyAccessor.forRecordId(item.getClass(), config.getRecordId()).read(item);
+        return id == null ? null : id.toString();
+    }
+
+    private Cancellable execute(ControlledTask<?> task, Callback<?> callback) {
+        task.control.start();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.control.finish();
+            callback.onFailure(e);
+        }
+        return task.control;
     }
 
     /**
@@ -187,6 +590,51 @@ public final class RestAdapter<T> implements Pipe<T> {
         return (Class<T[]>) ((T[])Array.newInstance(klass, 1)).getClass();
     }
 
+    /**
+     * Runs the background part of an operation under its {@link RequestControl}, so the
+     * providers abort its requests when it is cancelled or runs out of time, and only hands
+     * its result over if it was not cancelled.
+     */
+    private abstract class ControlledTask<R> extends PipeTask<AsyncTaskResult<R>> {
+
+        final RequestControl control = new RequestControl(config.getTotalTimeoutMillis());
+
+        ControlledTask() {
+            super(callbackExecutor);
+        }
+
+        protected abstract AsyncTaskResult inBackground();
+
+        protected abstract void deliver(AsyncTaskResult<R> asyncTaskResult);
+
+        @Override
+        protected AsyncTaskResult doInBackground() {
+            control.attach();
+            try {
+                AsyncTaskResult result = inBackground();
+                if (result.getError() != null) {
+                    // an aborted request fails with whatever the connection reports, tell why instead
+                    try {
+                        control.checkpoint();
+                    } catch (IOException stopped) {
+                        return new AsyncTaskResult(stopped);
+                    }
+                }
+                return result;
+            } finally {
+                control.detach();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(AsyncTaskResult<R> asyncTaskResult) {
+            if (control.finish()) {
+                deliver(asyncTaskResult);
+            }
+        }
+
+    }
+
     private class AsyncTaskResult<T> {
 
         private T result;
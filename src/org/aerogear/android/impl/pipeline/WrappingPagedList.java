@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.impl.core.RequestControl;
+import org.aerogear.android.pipeline.PagedList;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PagedList} wrapping the items of a page read by a {@link RestAdapter}.
+ */
+final class WrappingPagedList<T> extends AbstractList<T> implements PagedList<T> {
+
+    private final RestAdapter<T> adapter;
+    private final PageConfig config;
+    private final List<T> data;
+    private final Map<String, String> nextQuery;
+    private PrefetchedPage<T> prefetched;
+    private Cancellable prefetchRead;
+
+    WrappingPagedList(RestAdapter<T> adapter, PageConfig config, List<T> data, Map<String, String> nextQuery) {
+        this.adapter = adapter;
+        this.config = config;
+        this.data = data;
+        this.nextQuery = nextQuery;
+    }
+
+    @Override
+    public T get(int index) {
+        return data.get(index);
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        return nextQuery != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Cancellable next(Callback<PagedList<T>> callback) {
+        if (!hasNext()) {
+            callback.onFailure(new IllegalStateException("There is no next page"));
+            return RequestControl.FINISHED;
+        }
+        Callback<PagedList<T>> delivering = deliverTo(config, callback);
+        if (prefetched != null) {
+            PrefetchedPage<T> page = prefetched;
+            prefetched = null;
+            page.deliverTo(delivering);
+            // cancelling the prefetch still in flight drops the page
+            return prefetchRead;
+        }
+        return adapter.readPage(config, nextQuery, delivering);
+    }
+
+    synchronized void prefetch() {
+        if (hasNext() && prefetched == null) {
+            prefetched = new PrefetchedPage<T>();
+            prefetchRead = adapter.readPage(config, nextQuery, prefetched);
+        }
+    }
+
+    /**
+     * Wraps a callback so the page after the delivered one is prefetched when the config asks for it.
+     */
+    static <T> Callback<PagedList<T>> deliverTo(final PageConfig config, final Callback<PagedList<T>> callback) {
+        if (!config.isPrefetch()) {
+            return callback;
+        }
+        return new Callback<PagedList<T>>() {
+            @Override
+            public void onSuccess(PagedList<T> page) {
+                ((WrappingPagedList<T>) page).prefetch();
+                callback.onSuccess(page);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        };
+    }
+
+    /**
+     * Holds the result of a prefetch until a callback asks for it.
+     */
+    private static final class PrefetchedPage<T> implements Callback<PagedList<T>> {
+
+        private boolean done;
+        private PagedList<T> page;
+        private Exception error;
+        private Callback<PagedList<T>> waiting;
+
+        @Override
+        public void onSuccess(PagedList<T> data) {
+            complete(data, null);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            complete(null, e);
+        }
+
+        void deliverTo(Callback<PagedList<T>> callback) {
+            synchronized (this) {
+                if (!done) {
+                    waiting = callback;
+                    return;
+                }
+            }
+            deliver(callback);
+        }
+
+        private void complete(PagedList<T> data, Exception e) {
+            Callback<PagedList<T>> callback;
+            synchronized (this) {
+                page = data;
+                error = e;
+                done = true;
+                callback = waiting;
+                waiting = null;
+            }
+            if (callback != null) {
+                deliver(callback);
+            }
+        }
+
+        private void deliver(Callback<PagedList<T>> callback) {
+            if (error != null) {
+                callback.onFailure(error);
+            } else {
+                callback.onSuccess(page);
+            }
+        }
+
+    }
+
+}
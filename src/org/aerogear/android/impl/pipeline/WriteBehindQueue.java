@@ -0,0 +1,347 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import android.util.Log;
+import org.aerogear.android.Callback;
+import org.aerogear.android.core.HttpProvider;
+import org.aerogear.android.core.HttpStatusException;
+import org.aerogear.android.impl.datamanager.FileStorage;
+import org.aerogear.android.impl.datamanager.TimeOrderedIdGenerator;
+import org.aerogear.android.pipeline.BulkOperationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of the saves and removals of a pipe, sent to the server in the background.
+ *
+ * Writes are kept in a {@link FileStorage} by object id, so a later write of an object replaces
+ * the pending one: saves followed by a save or a removal only send the last of them. A flush
+ * runs a short while after the first pending write, so a burst of writes goes out together,
+ * and sends at most a batch of writes, in the order they were made; with a bulk endpoint,
+ * consecutive saves and removals go out as single bulk requests.
+ *
+ * When a request fails with an I/O error the device is assumed to be offline, and when the server
+ * answers 5xx or 429 it is assumed to be unavailable: the write stays queued and the flush is
+ * retried with an exponential backoff, or right away on {@link #flush()}, e.g. when connectivity
+ * comes back. Writes failing for any other reason, such as a 4xx status, are dropped. The
+ * outcome of each flush is reported to the callback of the queue, on a background thread.
+ */
+public class WriteBehindQueue {
+
+    private static final String TAG = "AeroGear";
+
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 5000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AeroGear write-behind");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Comparator<PendingWrite> IN_ORDER = new Comparator<PendingWrite>() {
+        @Override
+        public int compare(PendingWrite left, PendingWrite right) {
+            return left.getSequence() < right.getSequence() ? -1 : left.getSequence() == right.getSequence() ? 0 : 1;
+        }
+    };
+
+    private final FileStorage<PendingWrite> storage;
+    private final HttpProvider httpProvider;
+    private final String bulkEndpoint;
+    private final long flushDelayMillis;
+    private final int maxBatchSize;
+    private final Callback<List<PendingWrite>> callback;
+
+    private long lastSequence;
+    private ScheduledFuture<?> scheduledFlush;
+    private long retryDelayMillis;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flushNow();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Flush of pending writes failed", e);
+            }
+        }
+    };
+
+    /**
+     * Opens the queue kept in the given file, and schedules a flush if writes are pending.
+     *
+     * @param file the file keeping the pending writes
+     * @param httpProvider the provider sending the writes
+     * @param config the bulk endpoint, flush delay, batch size and callback of the queue
+     */
+    public WriteBehindQueue(File file, HttpProvider httpProvider, PipeConfig config) {
+        // the ids are never generated, writes are saved by object id
+        this.storage = new FileStorage<PendingWrite>(file, new TimeOrderedIdGenerator());
+        this.httpProvider = httpProvider;
+        this.bulkEndpoint = config.getBulkEndpoint();
+        this.flushDelayMillis = config.getWriteBehindDelayMillis();
+        this.maxBatchSize = config.getWriteBehindBatchSize();
+        this.callback = config.getWriteBehindCallback();
+        for (PendingWrite write : storage.readAll()) {
+            lastSequence = Math.max(lastSequence, write.getSequence());
+        }
+        if (lastSequence > 0) {
+            scheduleFlush(flushDelayMillis);
+        }
+    }
+
+    /**
+     * Sends the pending writes now, instead of waiting for the next flush.
+     */
+    public synchronized void flush() {
+        retryDelayMillis = 0;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        scheduleFlush(0);
+    }
+
+    /**
+     * @return the writes waiting to be sent, in the order they were made
+     */
+    public List<PendingWrite> getPendingWrites() {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>(storage.readAll());
+        Collections.sort(writes, IN_ORDER);
+        return writes;
+    }
+
+    void save(String id, String body) {
+        saveAll(Collections.singletonList(id), Collections.singletonList(body));
+    }
+
+    /**
+     * Queues the saves of objects, given by id and JSON.
+     */
+    synchronized void saveAll(List<String> ids, List<String> bodies) {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            writes.add(new PendingWrite(++lastSequence, ids.get(i), bodies.get(i)));
+        }
+        enqueue(writes);
+    }
+
+    void remove(String id) {
+        removeAll(Collections.singletonList(id));
+    }
+
+    /**
+     * Queues the removals of objects, given by id.
+     */
+    synchronized void removeAll(List<String> ids) {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>(ids.size());
+        for (String id : ids) {
+            writes.add(new PendingWrite(++lastSequence, id, null));
+        }
+        enqueue(writes);
+    }
+
+    /**
+     * Sends the next batch of pending writes, on the calling thread.
+     */
+    void flushNow() {
+        synchronized (this) {
+            scheduledFlush = null;
+        }
+        List<PendingWrite> pending = getPendingWrites();
+        List<PendingWrite> batch = pending.subList(0, Math.min(maxBatchSize, pending.size()));
+
+        List<PendingWrite> succeeded = new ArrayList<PendingWrite>();
+        Map<PendingWrite, Exception> failures = new LinkedHashMap<PendingWrite, Exception>();
+        boolean retryLater = false;
+        int start = 0;
+        while (start < batch.size()) {
+            int end = groupEnd(batch, start);
+            List<PendingWrite> group = batch.subList(start, end);
+            try {
+                send(group);
+                succeeded.addAll(group);
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    retryLater = true;
+                    break;
+                }
+                Log.w(TAG, "Dropping " + group.size() + " pending writes", e);
+                for (PendingWrite write : group) {
+                    failures.put(write, e);
+                }
+            }
+            acknowledge(group);
+            start = end;
+        }
+
+        synchronized (this) {
+            if (retryLater) {
+                retryDelayMillis = retryDelayMillis == 0
+                        ? INITIAL_RETRY_DELAY_MILLIS : Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+                scheduleFlush(retryDelayMillis);
+            } else {
+                retryDelayMillis = 0;
+                if (pending.size() > batch.size()) {
+                    scheduleFlush(flushDelayMillis);
+                }
+            }
+        }
+        report(succeeded, failures);
+    }
+
+    private void enqueue(List<PendingWrite> writes) {
+        Map<Serializable, PendingWrite> byKey = new LinkedHashMap<Serializable, PendingWrite>();
+        for (PendingWrite write : writes) {
+            byKey.put(key(write), write);
+        }
+        storage.saveAll(byKey);
+        // a flush already scheduled, e.g. waiting to retry, also takes these writes
+        if (scheduledFlush == null) {
+            scheduleFlush(flushDelayMillis);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        scheduledFlush = flusher.schedule(flushTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the end of the run of writes, from start, sent by a single request
+     */
+    private int groupEnd(List<PendingWrite> batch, int start) {
+        PendingWrite first = batch.get(start);
+        if (bulkEndpoint == null || !first.hasId()) {
+            return start + 1;
+        }
+        int end = start + 1;
+        while (end < batch.size() && batch.get(end).hasId() && batch.get(end).isRemove() == first.isRemove()) {
+            end++;
+        }
+        if (first.isRemove()) {
+            // as many removals as fit in the URL of one request
+            List<String> ids = new ArrayList<String>(end - start);
+            for (PendingWrite write : batch.subList(start, end)) {
+                ids.add(write.getId());
+            }
+            try {
+                end = start + RestAdapter.chunkIds(ids, RestAdapter.MAX_BULK_IDS_LENGTH).get(0).size();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return end;
+    }
+
+    private void send(List<PendingWrite> group) {
+        PendingWrite first = group.get(0);
+        if (group.size() == 1 && (bulkEndpoint == null || !first.hasId())) {
+            if (first.isRemove()) {
+                httpProvider.delete(first.getId());
+            } else if (first.hasId()) {
+                httpProvider.put(first.getId(), first.getBody());
+            } else {
+                httpProvider.post(first.getBody());
+            }
+            return;
+        }
+        List<String> ids = new ArrayList<String>(group.size());
+        StringBuilder bodies = new StringBuilder("[");
+        for (PendingWrite write : group) {
+            ids.add(write.getId());
+            if (!write.isRemove()) {
+                if (bodies.length() > 1) {
+                    bodies.append(',');
+                }
+                bodies.append(write.getBody());
+            }
+        }
+        if (first.isRemove()) {
+            try {
+                httpProvider.delete(bulkEndpoint + "/" + RestAdapter.joinIds(ids));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            httpProvider.put(bulkEndpoint, bodies.append(']').toString());
+        }
+    }
+
+    /**
+     * Removes the sent writes from the queue, unless a later write of the same object replaced them.
+     */
+    private synchronized void acknowledge(List<PendingWrite> sent) {
+        List<Serializable> keys = new ArrayList<Serializable>(sent.size());
+        for (PendingWrite write : sent) {
+            PendingWrite current = storage.read(key(write));
+            if (current != null && current.getSequence() == write.getSequence()) {
+                keys.add(key(write));
+            }
+        }
+        storage.removeAll(keys);
+    }
+
+    private void report(List<PendingWrite> succeeded, Map<PendingWrite, Exception> failures) {
+        if (callback == null || (succeeded.isEmpty() && failures.isEmpty())) {
+            return;
+        }
+        if (failures.isEmpty()) {
+            callback.onSuccess(succeeded);
+        } else {
+            callback.onFailure(new BulkOperationException(succeeded, failures));
+        }
+    }
+
+    private static Serializable key(PendingWrite write) {
+        return write.hasId() ? write.getId() : "new object #" + write.getSequence();
+    }
+
+    /**
+     * Returns whether the same request may succeed later: it failed with an I/O error, or the
+     * server was unavailable.
+     */
+    private static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            if (cause instanceof HttpStatusException) {
+                return ((HttpStatusException) cause).isTransient();
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.reflection;
+
+import org.aerogear.android.RecordId;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads a property of the items of a class, through its public getter or its field. The
+ * accessors are resolved once per class and property and shared by the pipes and the stores.
+ */
+public final class PropertyAccessor {
+
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyAccessor>> accessors =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<String, PropertyAccessor>>();
+
+    /**
+     * Prefixes the keys of the record id accessors, which no property name starts with.
+     */
+    private static final String RECORD_ID = "@";
+
+    private final Field field;
+    private final Method getter;
+
+    private PropertyAccessor(Field field, Method getter) {
+        this.field = field;
+        this.getter = getter;
+    }
+
+    /**
+     * Returns the accessor of the given property: its public getter first, then a field
+     * with the property name.
+     *
+     * @throws IllegalArgumentException if the class has no such property
+     */
+    public static PropertyAccessor forProperty(Class<?> klass, String property) {
+        ConcurrentMap<String, PropertyAccessor> ofClass = ofClass(klass);
+        PropertyAccessor accessor = ofClass.get(property);
+        if (accessor == null) {
+            accessor = resolve(klass, property, new String[] {"get", "is"});
+            ofClass.put(property, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the accessor of the record id of the given class: a member annotated with
+     * {@link RecordId} first, then the public getter of the property and finally a field
+     * with the property name.
+     *
+     * @throws IllegalArgumentException if the class has no such member
+     */
+    public static PropertyAccessor forRecordId(Class<?> klass, String property) {
+        ConcurrentMap<String, PropertyAccessor> ofClass = ofClass(klass);
+        PropertyAccessor accessor = ofClass.get(RECORD_ID + property);
+        if (accessor == null) {
+            Member annotated = findAnnotated(klass);
+            if (annotated instanceof Field) {
+                accessor = new PropertyAccessor((Field) annotated, null);
+            } else if (annotated != null) {
+                accessor = new PropertyAccessor(null, (Method) annotated);
+            } else {
+                accessor = resolve(klass, property, new String[] {"get"});
+            }
+            ofClass.put(RECORD_ID + property, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the value of the given property of the item.
+     *
+     * @throws IllegalArgumentException if the class of the item has no such property
+     */
+    public static Object read(Object item, String property) {
+        return forProperty(item.getClass(), property).read(item);
+    }
+
+    /**
+     * Returns the value of the property of the given instance.
+     *
+     * @throws IllegalArgumentException if it can not be read
+     */
+    public Object read(Object instance) {
+        try {
+            return field != null ? field.get(instance) : getter.invoke(instance);
+        } catch (Exception e) {
+            Member member = field != null ? field : getter;
+            throw new IllegalArgumentException("Can not read " + member.getName() + " of " + instance.getClass().getName(), e);
+        }
+    }
+
+    private static ConcurrentMap<String, PropertyAccessor> ofClass(Class<?> klass) {
+        ConcurrentMap<String, PropertyAccessor> ofClass = accessors.get(klass);
+        if (ofClass == null) {
+            ofClass = new ConcurrentHashMap<String, PropertyAccessor>();
+            ConcurrentMap<String, PropertyAccessor> existing = accessors.putIfAbsent(klass, ofClass);
+            if (existing != null) {
+                ofClass = existing;
+            }
+        }
+        return ofClass;
+    }
+
+    private static PropertyAccessor resolve(Class<?> klass, String property, String[] getterPrefixes) {
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String prefix : getterPrefixes) {
+            try {
+                return new PropertyAccessor(null, klass.getMethod(prefix + suffix));
+            } catch (NoSuchMethodException e) {
+                // try the next one
+            }
+        }
+        for (Class<?> current = klass; current != null; current = current.getSuperclass()) {
+            try {
+                Field field = current.getDeclaredField(property);
+                field.setAccessible(true);
+                return new PropertyAccessor(field, null);
+            } catch (NoSuchFieldException e) {
+                // look in the superclass
+            }
+        }
+        throw new IllegalArgumentException("No property \"" + property + "\" found in " + klass.getName());
+    }
+
+    private static Member findAnnotated(Class<?> klass) {
+        for (Class<?> current = klass; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.isAnnotationPresent(RecordId.class)) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            }
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(RecordId.class) && method.getParameterTypes().length == 0) {
+                    method.setAccessible(true);
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.pipeline;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports the outcome of a bulk {@link Pipe} operation of which at least one item failed.
+ */
+public class BulkOperationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<?> succeeded;
+    private final Map<?, Exception> failures;
+
+    public BulkOperationException(List<?> succeeded, Map<?, Exception> failures) {
+        super(failures.size() + " of " + (succeeded.size() + failures.size()) + " items failed");
+        this.succeeded = Collections.unmodifiableList(succeeded);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the items (or ids, for a removal) which were processed successfully.
+     */
+    public List<?> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Returns the cause of failure of every failed item (or id, for a removal).
+     */
+    public Map<?, Exception> getFailures() {
+        return failures;
+    }
+
+}
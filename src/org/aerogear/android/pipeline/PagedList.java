@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.pipeline;
+
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+
+import java.util.List;
+
+/**
+ * A page of a collection read from a {@link Pipe}. The items of the page are
+ * the elements of this list; further pages are requested through {@link #next(Callback)}.
+ *
+ * @param <T> The data type of the {@link Pipe}
+ */
+public interface PagedList<T> extends List<T> {
+
+    /**
+     * Returns whether the server announced a page after this one.
+     *
+     * @return true if {@link #next(Callback)} can be called
+     */
+    boolean hasNext();
+
+    /**
+     * Reads the page after this one.
+     *
+     * @param callback The callback for consuming the next page.
+     * @return a handle cancelling the read
+     */
+    Cancellable next(Callback<PagedList<T>> callback);
+
+}
@@ -18,9 +18,12 @@
 package org.aerogear.android.pipeline;
 
 import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.impl.pipeline.PageConfig;
 import org.aerogear.android.impl.pipeline.Type;
 
 import java.net.URL;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -49,23 +52,64 @@ public interface Pipe<T> {
      * Reads all the data from the underlying server connection.
      *
      * @param callback The callback for consuming the result from the {@link Pipe} invocation.
+     * @return a handle cancelling the operation
      */
-    void read(Callback<List<T>> callback);
+    Cancellable read(Callback<List<T>> callback);
+
+    /**
+     * Reads the first page of the data from the underlying server connection. Further pages
+     * are read through the delivered {@link PagedList}.
+     *
+     * @param config describes how the server pages the collection
+     * @param callback The callback for consuming the first page.
+     * @return a handle cancelling the operation
+     */
+    Cancellable readPaged(PageConfig config, Callback<PagedList<T>> callback);
 
     /**
      * Saves or updates a given object on the server.
      *
      * @param item the item to save or update
      * @param callback The callback for consuming the result from the {@link Pipe} invocation.
+     * @return a handle cancelling the operation
+     */
+    Cancellable save(T item, Callback<T> callback);
+
+    /**
+     * Saves or updates the given objects on the server. If some of the objects could not
+     * be saved, the callback receives a {@link BulkOperationException}.
+     *
+     * A pipe with a bulk endpoint sends all the objects in one request, which succeeds or
+     * fails as a whole: the server tells no per-object outcome, so on failure the callback
+     * gets the cause itself rather than a {@link BulkOperationException}.
+     *
+     * @param items the items to save or update
+     * @param callback The callback for consuming the result from the {@link Pipe} invocation.
+     * @return a handle cancelling the operation
      */
-    void save(T item, Callback<T> callback);
+    Cancellable saveAll(Collection<T> items, Callback<List<T>> callback);
 
     /**
      * Removes an object from the underlying server connection. The given key argument is used as the objects ID.
      *
      * @param id representing the ‘id’ of the object to be removed
      * @param callback The callback for consuming the result from the {@link Pipe} invocation.
+     * @return a handle cancelling the operation
+     */
+    Cancellable remove(String id, Callback<Void> callback);
+
+    /**
+     * Removes the objects with the given ids from the underlying server connection. If some of the
+     * objects could not be removed, the callback receives a {@link BulkOperationException}.
+     *
+     * A pipe with a bulk endpoint removes the objects in as few requests as the length of their
+     * URLs allows. Each request succeeds or fails as a whole, so the ids it carried are reported
+     * together.
+     *
+     * @param ids the ‘id’s of the objects to be removed
+     * @param callback The callback for consuming the result from the {@link Pipe} invocation.
+     * @return a handle cancelling the operation
      */
-    void remove(String id, Callback<Void> callback);
+    Cancellable removeAll(Collection<String> ids, Callback<Void> callback);
 
 }
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager.impl;
+
+import org.aerogear.android.datamanager.EvictionListener;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.SizeEstimator;
+import org.aerogear.android.impl.datamanager.BoundedMemoryStorage;
+import org.aerogear.android.impl.datamanager.IndexType;
+import org.aerogear.android.impl.datamanager.StoreConfig;
+import org.aerogear.android.impl.helper.Data;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BoundedMemoryStorageTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        StoreConfig config = new StoreConfig();
+        config.setMaxEntries(2);
+        BoundedMemoryStorage<Data> store = new BoundedMemoryStorage<Data>(new StubGeneratorId(), config);
+
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.read(1);
+        store.save(new Data("baz", "desc of baz"));
+
+        assertEquals("verifying the size", 2, store.size());
+        assertNotNull("foo was used recently", store.read(1));
+        assertNull("bar should be evicted", store.read(2));
+        assertEquals("verifying the evictions", 1, store.evictionCount());
+    }
+
+    @Test
+    public void testEvictsOverByteLimit() {
+        StoreConfig config = new StoreConfig();
+        config.setMaxBytes(25);
+        config.setSizeEstimator(new SizeEstimator<Data>() {
+            @Override
+            public long sizeOf(Data item) {
+                return 10;
+            }
+        });
+        final List<Serializable> evicted = new ArrayList<Serializable>();
+        config.setEvictionListener(new EvictionListener<Data>() {
+            @Override
+            public void onEviction(Serializable id, Data item) {
+                evicted.add(id);
+            }
+        });
+        BoundedMemoryStorage<Data> store = new BoundedMemoryStorage<Data>(new StubGeneratorId(), config);
+
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.save(new Data("baz", "desc of baz"));
+
+        assertEquals("verifying the size", 2, store.size());
+        assertEquals("verifying the bytes", 20, store.sizeInBytes());
+        assertEquals("verifying the evicted ids", Collections.<Serializable>singletonList(1), evicted);
+
+        store.remove(3);
+        assertEquals("verifying the bytes", 10, store.sizeInBytes());
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        StoreConfig config = new StoreConfig();
+        config.setMaxEntries(10);
+        BoundedMemoryStorage<Data> store = new BoundedMemoryStorage<Data>(new StubGeneratorId(), config);
+
+        store.save(new Data("foo", "desc of foo"));
+        store.read(1);
+        store.read(1);
+        store.read(2);
+
+        assertEquals("verifying the hits", 2, store.hitCount());
+        assertEquals("verifying the misses", 1, store.missCount());
+    }
+
+    @Test
+    public void testEvictedItemsLeaveIndexes() {
+        StoreConfig config = new StoreConfig();
+        config.setMaxEntries(1);
+        config.setIndexes(Collections.singletonMap("name", IndexType.HASH));
+        BoundedMemoryStorage<Data> store = new BoundedMemoryStorage<Data>(new StubGeneratorId(), config);
+
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+
+        assertTrue("foo should be evicted", store.query(Query.equal("name", "foo")).isEmpty());
+        Collection<Data> bars = store.query(Query.equal("name", "bar"));
+        assertEquals("verifying the bars", 1, bars.size());
+    }
+
+    @Test
+    public void testSaveAllEvictsOverflow() {
+        StoreConfig config = new StoreConfig();
+        config.setMaxEntries(2);
+        BoundedMemoryStorage<Data> store = new BoundedMemoryStorage<Data>(new StubGeneratorId(), config);
+
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar"),
+                new Data("baz", "desc of baz")));
+
+        assertEquals("verifying the size", 2, store.size());
+        assertNull("foo should be evicted", store.read(1));
+        assertEquals("verifying the evictions", 1, store.evictionCount());
+    }
+
+}
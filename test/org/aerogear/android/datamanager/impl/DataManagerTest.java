@@ -18,12 +18,23 @@
 package org.aerogear.android.datamanager.impl;
 
 import org.aerogear.android.DataManager;
+import org.aerogear.android.datamanager.IdGenerator;
 import org.aerogear.android.datamanager.Store;
+import org.aerogear.android.impl.datamanager.BoundedMemoryStorage;
+import org.aerogear.android.impl.datamanager.LongKeyedMemoryStorage;
+import org.aerogear.android.impl.datamanager.StoreConfig;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.UUID;
+
 import static junit.framework.Assert.*;
+import static org.aerogear.android.impl.datamanager.StoreType.FILE;
 import static org.aerogear.android.impl.datamanager.StoreType.MEMORY;
+import static org.aerogear.android.impl.datamanager.StoreType.SERIALIZED;
 
 public class DataManagerTest {
 
@@ -85,4 +96,67 @@ public class DataManagerTest {
         assertNull("foo store should be null", fooStore);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCreateStoreWithFileType() throws IOException {
+        File directory = File.createTempFile("stores", "");
+        directory.delete();
+        directory.mkdirs();
+        DataManager fileDataManager = new DataManager(directory);
+
+        Store store = fileDataManager.add("foo", FILE);
+
+        assertNotNull("store could not be null", store);
+        assertEquals("verifying the type", FILE, store.getType());
+        assertTrue("verifying the log file", new File(directory, "foo").exists());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateStoreWithFileTypeNeedsDirectory() {
+        dataManager.add("foo", FILE);
+    }
+
+    @Test
+    public void testCreateBoundedStore() {
+        StoreConfig config = new StoreConfig();
+        config.setMaxEntries(100);
+
+        Store store = dataManager.add("foo", MEMORY, config);
+
+        assertTrue("store should be bounded", store instanceof BoundedMemoryStorage);
+        assertEquals("verifying the type", MEMORY, store.getType());
+    }
+
+    @Test
+    public void testCreateLongKeyedStore() {
+        StoreConfig config = new StoreConfig();
+        config.setLongKeys(true);
+
+        Store store = dataManager.add("foo", MEMORY, config);
+
+        assertTrue("store should have long keys", store instanceof LongKeyedMemoryStorage);
+        assertEquals("verifying the type", MEMORY, store.getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLongKeyedStoreRefusesOtherIdGenerators() {
+        StoreConfig config = new StoreConfig();
+        config.setLongKeys(true);
+        DataManager uuids = new DataManager(new IdGenerator() {
+            @Override
+            public Serializable generate() {
+                return UUID.randomUUID().toString();
+            }
+        });
+
+        uuids.add("foo", MEMORY, config);
+    }
+
+    @Test
+    public void testCreateStoreWithSerializedType() {
+        Store store = dataManager.add("foo", SERIALIZED);
+
+        assertNotNull("store could not be null", store);
+        assertEquals("verifying the type", SERIALIZED, store.getType());
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.datamanager.impl;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.impl.datamanager.FileStorage;
+import org.aerogear.android.impl.datamanager.IndexType;
+import org.aerogear.android.impl.datamanager.StoreType;
+import org.aerogear.android.impl.helper.Data;
+import org.aerogear.android.impl.helper.DirectExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileStorageTest {
+
+    private File file;
+    private FileStorage<Data> store;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("store", ".log");
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void testStoreType() {
+        assertEquals("verifying the type", StoreType.FILE, store.getType());
+    }
+
+    @Test
+    public void testSaveAndRead() {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+
+        assertEquals("verifying the name", "foo", store.read(1).getName());
+        assertEquals("datas should 2 data", 2, store.readAll().size());
+    }
+
+    @Test
+    public void testItemsSurviveReopen() throws IOException {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.remove(1);
+        store.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+        assertNull("removed item should stay removed", store.read(1));
+        assertEquals("verifying the name", "bar", store.read(2).getName());
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        store.save(new Data("foo", "desc of foo"));
+        store.close();
+        long intact = file.length();
+
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] {1, 0, 0, 1, 0, 42});
+        out.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+        assertEquals("verifying the name", "foo", store.read(1).getName());
+        assertEquals("torn record should be cut off", intact, file.length());
+    }
+
+    @Test
+    public void testZeroFilledTailIsDropped() throws IOException {
+        store.save(new Data("foo", "desc of foo"));
+        store.close();
+        long intact = file.length();
+
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[64]);
+        out.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+        assertEquals("verifying the name", "foo", store.read(1).getName());
+        assertEquals("zeros should be cut off", intact, file.length());
+    }
+
+    @Test
+    public void testCorruptRecordFollowedByOthersFailsOpen() throws IOException {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.close();
+        long length = file.length();
+
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        log.seek(20);
+        int value = log.read();
+        log.seek(20);
+        log.write(value ^ 0xff);
+        log.close();
+
+        try {
+            new FileStorage<Data>(file, new StubGeneratorId());
+            fail("the corrupt record should be reported");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals("the records after it should be kept", length, file.length());
+    }
+
+    @Test
+    public void testCompaction() {
+        for (int i = 0; i < 20; i++) {
+            store.save(new Data("foo " + i, "desc of foo"));
+        }
+        for (int i = 1; i <= 15; i++) {
+            store.remove(i);
+        }
+        long before = file.length();
+
+        store.compact();
+
+        assertTrue("log should shrink", file.length() < before);
+        assertEquals("datas should 5 data", 5, store.readAll().size());
+        assertEquals("verifying the name", "foo 19", store.read(20).getName());
+    }
+
+    @Test
+    public void testReset() {
+        store.save(new Data("foo", "desc of foo"));
+
+        store.reset();
+
+        assertNull("foo should be null", store.read(1));
+        assertEquals("log should be empty", 0, file.length());
+    }
+
+    @Test
+    public void testIndexesAreRebuiltOnOpen() throws IOException {
+        store.close();
+        store = new FileStorage<Data>(file, new StubGeneratorId(), Collections.singletonMap("name", IndexType.HASH));
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId(), Collections.singletonMap("name", IndexType.HASH));
+        assertEquals("datas should 1 data", 1, store.query(Query.equal("name", "bar")).size());
+    }
+
+    @Test
+    public void testBatchSurvivesReopen() throws IOException {
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar"),
+                new Data("baz", "desc of baz")));
+        store.beginBatch().remove(1).save(new Data("qux", "desc of qux")).commit();
+        store.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+        assertNull("removed item should stay removed", store.read(1));
+        assertEquals("verifying the name", "baz", store.read(3).getName());
+        assertEquals("verifying the name", "qux", store.read(4).getName());
+        assertEquals("datas should 3 data", 3, store.readAll().size());
+    }
+
+    @Test
+    public void testTornBatchIsDroppedAsAWhole() throws IOException {
+        store.save(new Data("foo", "desc of foo"));
+        store.saveAll(Arrays.asList(new Data("bar", "desc of bar"), new Data("baz", "desc of baz")));
+        store.close();
+
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        log.setLength(log.length() - 1);
+        log.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+        assertEquals("verifying the name", "foo", store.read(1).getName());
+        assertNull("bar was part of the torn batch", store.read(2));
+        assertNull("baz was part of the torn batch", store.read(3));
+    }
+
+    @Test
+    public void testCompactionKeepsBatchedItems() throws IOException {
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar"),
+                new Data("baz", "desc of baz")));
+        store.removeAll(Arrays.<Serializable>asList(1, 3));
+        store.compact();
+        store.close();
+
+        store = new FileStorage<Data>(file, new StubGeneratorId());
+        assertEquals("datas should 1 data", 1, store.readAll().size());
+        assertEquals("verifying the name", "bar", store.read(2).getName());
+    }
+
+    @Test
+    public void testListenerSeesBatchedChanges() {
+        MemoryStorageTest.RecordingListener listener = new MemoryStorageTest.RecordingListener();
+        store.addListener(listener, new DirectExecutor());
+
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar")));
+        store.remove(1);
+
+        assertEquals("verifying the change sets", 2, listener.changes.size());
+        assertEquals("verifying the inserted", 2, listener.changes.get(0).getInserted().size());
+        assertEquals("verifying the removed", Collections.<Serializable>singleton(1), listener.changes.get(1).getRemoved());
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager.impl;
+
+import org.aerogear.android.datamanager.ChangeSet;
+import org.aerogear.android.datamanager.LongIdGenerator;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.IndexType;
+import org.aerogear.android.impl.datamanager.LongKeyedMemoryStorage;
+import org.aerogear.android.impl.datamanager.StoreType;
+import org.aerogear.android.impl.helper.Data;
+import org.aerogear.android.impl.helper.DirectExecutor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongKeyedMemoryStorageTest {
+
+    private LongKeyedMemoryStorage<Data> store;
+
+    @Before
+    public void setup() {
+        store = new LongKeyedMemoryStorage<Data>(new StubLongIdGenerator());
+    }
+
+    @Test
+    public void testStoreType() {
+        assertEquals("verifying the type", StoreType.MEMORY, store.getType());
+    }
+
+    @Test
+    public void testSaveReadAndRemove() {
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar")));
+
+        assertEquals("verifying the name", "foo", store.read(1L).getName());
+        assertEquals("verifying the name", "bar", store.read(2).getName());
+        assertEquals("decimal strings are ids too", "bar", store.read("2").getName());
+        assertNull("ids which are not numbers are never found", store.read("bar"));
+
+        store.remove(1L);
+        assertNull("foo should be removed", store.read(1));
+        assertEquals("datas should 1 data", 1, store.readAll().size());
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        Map<Long, Data> expected = new HashMap<Long, Data>();
+        Random random = new Random(42);
+        long lastId = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (random.nextInt(3) == 0 && lastId > 0) {
+                long id = 1 + random.nextInt((int) lastId);
+                store.remove(id);
+                expected.remove(id);
+            } else {
+                Data data = new Data("data " + i, "desc of data " + i);
+                store.save(data);
+                expected.put(++lastId, data);
+            }
+        }
+
+        assertEquals("verifying the size", expected.size(), store.readAll().size());
+        for (long id = 1; id <= lastId; id++) {
+            assertSame("verifying the item " + id, expected.get(id), store.read(id));
+        }
+    }
+
+    @Test
+    public void testQueryUsesIndexes() {
+        store = new LongKeyedMemoryStorage<Data>(new StubLongIdGenerator(),
+                Collections.singletonMap("name", IndexType.HASH));
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.removeAll(Arrays.<Serializable>asList(1L));
+
+        assertTrue("foo should be removed", store.query(Query.equal("name", "foo")).isEmpty());
+        assertEquals("verifying the bars", 1, store.query(Query.equal("name", "bar")).size());
+    }
+
+    @Test
+    public void testBatchWithStringIdsReplacesContent() {
+        store.save(new Data("old", "desc of old"));
+
+        WriteBatch<Data> batch = store.beginBatch();
+        batch.reset();
+        batch.save("7", new Data(7L, "foo", "desc of foo"));
+        batch.commit();
+
+        assertEquals("verifying the size", 1, store.readAll().size());
+        assertEquals("verifying the name", "foo", store.read(7L).getName());
+    }
+
+    @Test
+    public void testInvalidIdFailsWholeBatch() {
+        store.save(new Data("old", "desc of old"));
+        final List<ChangeSet<Data>> published = new ArrayList<ChangeSet<Data>>();
+        store.addListener(new StoreListener<Data>() {
+            @Override
+            public void onChange(ChangeSet<Data> changes) {
+                published.add(changes);
+            }
+        }, new DirectExecutor());
+
+        WriteBatch<Data> batch = store.beginBatch();
+        batch.reset();
+        batch.save("not a number", new Data("foo", "desc of foo"));
+        try {
+            batch.commit();
+            fail("the id is not a long");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals("the store should be untouched", "old", store.read(1L).getName());
+        assertTrue("nothing should be published", published.isEmpty());
+    }
+
+    private static final class StubLongIdGenerator implements LongIdGenerator {
+
+        private long lastIdGenerated = 0;
+
+        @Override
+        public long generateLong() {
+            return ++lastIdGenerated;
+        }
+
+        @Override
+        public Serializable generate() {
+            return generateLong();
+        }
+
+    }
+
+}
@@ -17,13 +17,30 @@
 
 package org.aerogear.android.datamanager.impl;
 
+import org.aerogear.android.datamanager.ChangeSet;
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.datamanager.StoreListener;
+import org.aerogear.android.datamanager.WriteBatch;
+import org.aerogear.android.impl.datamanager.DefaultIdGenerator;
+import org.aerogear.android.impl.datamanager.IndexType;
 import org.aerogear.android.impl.datamanager.MemoryStorage;
 import org.aerogear.android.impl.datamanager.StoreType;
 import org.aerogear.android.impl.helper.Data;
+import org.aerogear.android.impl.helper.DirectExecutor;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -103,4 +120,230 @@ public class MemoryStorageTest {
         assertNull("bar should be null", bar);
     }
 
+    @Test
+    public void testQueryWithoutIndex() {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+
+        Collection<Data> datas = store.query(Query.equal("name", "bar"));
+        assertEquals("datas should 1 data", 1, datas.size());
+        assertEquals("verifying the description", "desc of bar", datas.iterator().next().getDescription());
+    }
+
+    @Test
+    public void testQueryWithIndexes() {
+        Map<String, IndexType> indexes = new HashMap<String, IndexType>();
+        indexes.put("name", IndexType.SORTED);
+        indexes.put("description", IndexType.HASH);
+        MemoryStorage<Data> indexed = new MemoryStorage<Data>(new StubGeneratorId(), indexes);
+        indexed.save(new Data("apple", "fruit"));
+        indexed.save(new Data("banana", "fruit"));
+        indexed.save(new Data("carrot", "vegetable"));
+        indexed.save(new Data("date", "fruit"));
+
+        assertEquals("verifying the equality query", 3, indexed.query(Query.equal("description", "fruit")).size());
+        assertEquals("verifying the range query", 2, indexed.query(Query.between("name", "b", "d")).size());
+        assertEquals("verifying the combined query", 1, indexed.query(
+                Query.and(Query.between("name", "b", "d"), Query.equal("description", "fruit"))).size());
+
+        indexed.remove(2);
+        assertEquals("removed item left the index", 2, indexed.query(Query.equal("description", "fruit")).size());
+    }
+
+    @Test
+    public void testRangeQueryComparesNumbersByValue() {
+        Map<String, IndexType> indexes = new HashMap<String, IndexType>();
+        indexes.put("id", IndexType.SORTED);
+        MemoryStorage<Data> indexed = new MemoryStorage<Data>(new StubGeneratorId(), indexes);
+        for (long id = 1; id <= 4; id++) {
+            store.save(new Data(id, "foo", "desc of foo"));
+            indexed.save(new Data(id, "foo", "desc of foo"));
+        }
+
+        // the ids are longs, the bounds integers
+        assertEquals("verifying the scanned query", 2, store.query(Query.between("id", 2, 3)).size());
+        assertEquals("verifying the indexed query", 2, indexed.query(Query.between("id", 2, 3)).size());
+        assertEquals("verifying a decimal bound", 3, store.query(Query.between("id", 1.5, null)).size());
+    }
+
+    @Test
+    public void testReadAllReturnsSnapshot() {
+        store.save(new Data("foo", "desc of foo"));
+
+        Collection<Data> datas = store.readAll();
+        assertSame("unchanged store shares its snapshot", datas, store.readAll());
+
+        store.save(new Data("bar", "desc of bar"));
+        assertEquals("snapshot should not change", 1, datas.size());
+        assertEquals("datas should 2 data", 2, store.readAll().size());
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws InterruptedException {
+        final MemoryStorage<Data> shared = new MemoryStorage<Data>(new DefaultIdGenerator());
+        final int writers = 4;
+        final int itemsPerWriter = 2000;
+        final CountDownLatch done = new CountDownLatch(writers);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int w = 0; w < writers; w++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < itemsPerWriter; i++) {
+                        shared.save(new Data("foo", "desc of foo"));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            try {
+                for (Data data : shared.readAll()) {
+                    assertNotNull("data could not be null", data);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+                break;
+            }
+        }
+        done.await();
+
+        assertNull("reading while writing should not fail", failure.get());
+        assertEquals("verifying the item count", writers * itemsPerWriter, shared.readAll().size());
+    }
+
+    @Test
+    public void testSaveAllAndRemoveAll() {
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar"),
+                new Data("baz", "desc of baz")));
+        assertEquals("datas should 3 data", 3, store.readAll().size());
+
+        store.removeAll(Arrays.<Serializable>asList(1, 3));
+        assertEquals("datas should 1 data", 1, store.readAll().size());
+        assertEquals("verifying the name", "bar", store.read(2).getName());
+    }
+
+    @Test
+    public void testBatchIsAppliedOnCommit() {
+        store.save(new Data("foo", "desc of foo"));
+
+        WriteBatch<Data> batch = store.beginBatch()
+                .save(new Data("bar", "desc of bar"))
+                .remove(1);
+        assertEquals("nothing applied before commit", 1, store.readAll().size());
+
+        batch.commit();
+        assertNull("foo should be removed", store.read(1));
+        assertEquals("verifying the name", "bar", store.read(2).getName());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBatchCanBeCommittedOnce() {
+        WriteBatch<Data> batch = store.beginBatch().save(new Data("foo", "desc of foo"));
+        batch.commit();
+        batch.commit();
+    }
+
+    @Test
+    public void testReadersNeverSeePartOfABatch() throws InterruptedException {
+        final MemoryStorage<Data> shared = new MemoryStorage<Data>(new DefaultIdGenerator());
+        final int batchSize = 50;
+        final int batches = 200;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int b = 0; b < batches; b++) {
+                    WriteBatch<Data> batch = shared.beginBatch();
+                    for (int i = 0; i < batchSize; i++) {
+                        batch.save(new Data("foo", "desc of foo"));
+                    }
+                    batch.commit();
+                }
+                done.countDown();
+            }
+        }).start();
+        while (done.getCount() > 0) {
+            assertEquals("only whole batches should be visible", 0, shared.readAll().size() % batchSize);
+        }
+        done.await();
+
+        assertEquals("verifying the item count", batchSize * batches, shared.readAll().size());
+    }
+
+    @Test
+    public void testListenerGetsOneChangeSetPerBatch() {
+        RecordingListener listener = new RecordingListener();
+        store.addListener(listener, new DirectExecutor());
+
+        store.save(new Data("foo", "desc of foo"));
+        store.beginBatch().save(new Data("bar", "desc of bar")).save(new Data("baz", "desc of baz")).remove(1).commit();
+        store.reset();
+
+        assertEquals("verifying the change sets", 3, listener.changes.size());
+        assertEquals("verifying the inserted", 1, listener.changes.get(0).getInserted().size());
+        ChangeSet<Data> batch = listener.changes.get(1);
+        assertEquals("verifying the batch inserts", 2, batch.getInserted().size());
+        assertEquals("verifying the batch removals", Collections.<Serializable>singleton(1), batch.getRemoved());
+        assertEquals("verifying the reset removals", 2, listener.changes.get(2).getRemoved().size());
+    }
+
+    @Test
+    public void testPendingChangeSetsAreMerged() {
+        RecordingListener listener = new RecordingListener();
+        QueueExecutor executor = new QueueExecutor();
+        store.addListener(listener, executor);
+
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.remove(1);
+        executor.runAll();
+
+        assertEquals("verifying the change sets", 1, listener.changes.size());
+        ChangeSet<Data> changes = listener.changes.get(0);
+        assertEquals("only bar is left inserted", Collections.<Serializable>singleton(2), changes.getInserted().keySet());
+        assertTrue("foo was inserted and removed", changes.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testRemovedListenerIsNotNotified() {
+        RecordingListener listener = new RecordingListener();
+        store.addListener(listener, new DirectExecutor());
+        store.removeListener(listener);
+
+        store.save(new Data("foo", "desc of foo"));
+
+        assertTrue("verifying the change sets", listener.changes.isEmpty());
+    }
+
+    static final class RecordingListener implements StoreListener<Data> {
+
+        final List<ChangeSet<Data>> changes = new ArrayList<ChangeSet<Data>>();
+
+        @Override
+        public void onChange(ChangeSet<Data> changeSet) {
+            changes.add(changeSet);
+        }
+
+    }
+
+    private static final class QueueExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager.impl;
+
+import org.aerogear.android.datamanager.Query;
+import org.aerogear.android.impl.datamanager.IndexType;
+import org.aerogear.android.impl.datamanager.SerializedMemoryStorage;
+import org.aerogear.android.impl.datamanager.StoreType;
+import org.aerogear.android.impl.helper.Data;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SerializedMemoryStorageTest {
+
+    private SerializedMemoryStorage<Data> store;
+
+    @Before
+    public void setup() {
+        store = new SerializedMemoryStorage<Data>(new StubGeneratorId());
+    }
+
+    @Test
+    public void testStoreType() {
+        assertEquals("verifying the type", StoreType.SERIALIZED, store.getType());
+    }
+
+    @Test
+    public void testReadDeserializesACopy() {
+        Data foo = new Data("foo", "desc of foo");
+        store.save(foo);
+
+        Data read = store.read(1);
+        assertEquals("verifying the name", "foo", read.getName());
+        assertNotSame("items are kept serialized", foo, read);
+        assertNotSame("items are deserialized on every read", read, store.read(1));
+    }
+
+    @Test
+    public void testHotCacheSharesRecentItems() {
+        store = new SerializedMemoryStorage<Data>(new StubGeneratorId(),
+                Collections.<String, IndexType>emptyMap(), 1);
+        store.saveAll(Arrays.asList(new Data("foo", "desc of foo"), new Data("bar", "desc of bar")));
+
+        Data foo = store.read(1);
+        assertSame("recently read item should be cached", foo, store.read(1));
+
+        store.read(2);
+        assertNotSame("foo should leave the cache", foo, store.read(1));
+    }
+
+    @Test
+    public void testRemovedSpaceIsReclaimed() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            description.append("desc of foo ");
+        }
+        for (int i = 0; i < 200; i++) {
+            store.save(new Data("foo " + i, description.toString()));
+        }
+        long full = store.sizeInBytes();
+        for (int i = 1; i < 200; i++) {
+            store.remove(i);
+        }
+
+        assertTrue("removed items should not be counted", store.sizeInBytes() < full / 100);
+        assertEquals("datas should 1 data", 1, store.readAll().size());
+        assertEquals("verifying the name", "foo 199", store.read(200).getName());
+    }
+
+    @Test
+    public void testItemLargerThanABuffer() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            description.append("desc ");
+        }
+        store.save(new Data("foo", description.toString()));
+
+        assertEquals("verifying the description", description.toString(), store.read(1).getDescription());
+    }
+
+    @Test
+    public void testQueryUsesIndexes() {
+        store = new SerializedMemoryStorage<Data>(new StubGeneratorId(),
+                Collections.singletonMap("name", IndexType.HASH), 0);
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.remove(1);
+
+        assertTrue("foo should be removed", store.query(Query.equal("name", "foo")).isEmpty());
+        assertEquals("verifying the bars", 1, store.query(Query.equal("name", "bar")).size());
+    }
+
+}
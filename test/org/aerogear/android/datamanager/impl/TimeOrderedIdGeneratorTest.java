@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.datamanager.impl;
+
+import org.aerogear.android.impl.datamanager.TimeOrderedIdGenerator;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TimeOrderedIdGeneratorTest {
+
+    @Test
+    public void testIdsKeepIncreasing() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1);
+        long previous = generator.generateLong();
+        // more than the 4096 ids of a millisecond
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.generateLong();
+            assertTrue("ids should increase", id > previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void testIdsAreTimeOrdered() throws InterruptedException {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1);
+        long before = generator.generateLong();
+        Thread.sleep(5);
+
+        TimeOrderedIdGenerator other = new TimeOrderedIdGenerator(0);
+        assertTrue("later ids of any generator should be greater", other.generateLong() > before);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeOutOfRange() {
+        new TimeOrderedIdGenerator(1024);
+    }
+
+    @Test
+    public void testConcurrentIdsAreUnique() throws InterruptedException {
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final int threads = 4;
+        final int idsPerThread = 5000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < idsPerThread; i++) {
+                        ids.add(generator.generate());
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals("verifying the unique ids", threads * idsPerThread, ids.size());
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.core;
+
+import org.aerogear.android.core.HeaderAndStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.Assert.*;
+
+public class DiskResponseCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("cache", "");
+        directory.delete();
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testStoreAndRead() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024);
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Link", "<next>; rel=\"next\"");
+
+        readFully(cache.put("http://server.com/tasks", headers, future(), body("[1,2,3]")));
+
+        HeaderAndStream cached = cache.get("http://server.com/tasks");
+        assertNotNull("entry should be cached", cached);
+        assertEquals("verifying the body", "[1,2,3]", readFully(cached.getStream()));
+        assertEquals("verifying the header", "<next>; rel=\"next\"", cached.getHeader("link"));
+    }
+
+    @Test
+    public void testPartialReadIsNotStored() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024 * 1024);
+        byte[] large = new byte[64 * 1024];
+
+        InputStream stream = cache.put("http://server.com/tasks", new HashMap<String, String>(), future(),
+                new ByteArrayInputStream(large));
+        stream.read(new byte[16]);
+        stream.close();
+
+        assertNull("partial entry should not be cached", cache.get("http://server.com/tasks"));
+        assertEquals("no temporary file left", 0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testFailedDrainDiscardsEntry() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024 * 1024);
+        InputStream failing = new InputStream() {
+            private int read;
+
+            @Override
+            public int read() throws IOException {
+                if (read == 16) {
+                    throw new IOException("connection reset");
+                }
+                read++;
+                return 0;
+            }
+        };
+
+        InputStream stream = cache.put("http://server.com/tasks", new HashMap<String, String>(), future(), failing);
+        stream.read(new byte[16]);
+        try {
+            stream.close();
+            fail("the failure should be thrown");
+        } catch (IOException expected) {
+        }
+
+        assertNull("entry should not be cached", cache.get("http://server.com/tasks"));
+        assertEquals("temporary file should be deleted", 0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testEncodingHeadersAreNotStored() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024);
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Encoding", "gzip");
+        headers.put("content-length", "27");
+        headers.put("ETag", "\"1\"");
+
+        readFully(cache.put("http://server.com/tasks", headers, future(), body("[1,2,3]")));
+
+        HeaderAndStream cached = cache.get("http://server.com/tasks");
+        assertNull("the body is stored decoded", cached.getHeader("content-encoding"));
+        assertNull("the body is stored decoded", cached.getHeader("content-length"));
+        assertEquals("verifying the other header", "\"1\"", cached.getHeader("etag"));
+        cached.getStream().close();
+    }
+
+    @Test
+    public void testExpiredEntry() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024);
+
+        readFully(cache.put("http://server.com/tasks", new HashMap<String, String>(),
+                System.currentTimeMillis() - 1, body("[]")));
+
+        assertNull("expired entry should not be returned", cache.get("http://server.com/tasks"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 300);
+        String body = new String(new char[100]).replace('\0', 'x');
+
+        readFully(cache.put("http://server.com/a", new HashMap<String, String>(), future(), body(body)));
+        readFully(cache.put("http://server.com/b", new HashMap<String, String>(), future(), body(body)));
+        cache.get("http://server.com/a").close();
+        readFully(cache.put("http://server.com/c", new HashMap<String, String>(), future(), body(body)));
+
+        assertNotNull("recently used entry kept", cache.get("http://server.com/a"));
+        assertNull("least recently used entry evicted", cache.get("http://server.com/b"));
+        assertNotNull("new entry kept", cache.get("http://server.com/c"));
+        assertTrue("verifying the size bound", cache.size() <= 300);
+    }
+
+    @Test
+    public void testEntriesSurviveReopen() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024);
+        readFully(cache.put("http://server.com/tasks", new HashMap<String, String>(), future(), body("[1]")));
+
+        DiskResponseCache reopened = new DiskResponseCache(directory, 1024);
+        assertEquals("verifying the body", "[1]", readFully(reopened.get("http://server.com/tasks").getStream()));
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024);
+        readFully(cache.put("http://server.com/tasks?{}", new HashMap<String, String>(), future(), body("[1]")));
+        readFully(cache.put("http://server.com/projects?{}", new HashMap<String, String>(), future(), body("[2]")));
+
+        cache.invalidate("http://server.com/tasks");
+
+        assertNull("invalidated entry", cache.get("http://server.com/tasks?{}"));
+        assertNotNull("other entry kept", cache.get("http://server.com/projects?{}"));
+    }
+
+    private long future() {
+        return System.currentTimeMillis() + 60000;
+    }
+
+    private InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+
+    private String readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        stream.close();
+        return out.toString();
+    }
+
+}
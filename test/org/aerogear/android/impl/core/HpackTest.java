@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class HpackTest {
+
+    // RFC 7541, C.4: requests with Huffman coding
+    private static final String FIRST = "828684418cf1e3c2e5f23a6ba0ab90f4ff";
+    private static final String SECOND = "828684be5886a8eb10649cbf";
+    private static final String THIRD = "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf";
+
+    @Test
+    public void testEncodesRfcExamples() {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+
+        assertEquals(FIRST, hex(encoder.encode(headers(
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"))));
+        assertEquals(SECOND, hex(encoder.encode(headers(
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache"))));
+        assertEquals(THIRD, hex(encoder.encode(headers(
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value"))));
+    }
+
+    @Test
+    public void testDecodesRfcExamples() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+
+        assertEquals(headers(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                decoder.decode(bytes(FIRST)));
+        assertEquals(headers(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache"), decoder.decode(bytes(SECOND)));
+        assertEquals(headers(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com", "custom-key", "custom-value"), decoder.decode(bytes(THIRD)));
+    }
+
+    @Test
+    public void testRepeatedHeadersShrink() throws IOException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<Map.Entry<String, String>> headers = headers(":method", "POST", ":authority", "server.com",
+                "content-type", "application/json", "x-device", "nexus");
+
+        byte[] first = encoder.encode(headers);
+        byte[] second = encoder.encode(headers);
+
+        assertEquals("repeated headers should take a byte each", 4, second.length);
+        assertEquals(headers, decoder.decode(first));
+        assertEquals(headers, decoder.decode(second));
+    }
+
+    @Test
+    public void testCredentialsAreNeverIndexed() throws IOException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        List<Map.Entry<String, String>> headers = headers("authorization", "Bearer secret");
+
+        byte[] first = encoder.encode(headers);
+        byte[] second = encoder.encode(headers);
+
+        assertEquals("should be a never indexed literal", 0x10, first[0] & 0xf0);
+        assertTrue("should not be indexed", Arrays.equals(first, second));
+        assertEquals(headers, new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE).decode(first));
+    }
+
+    @Test
+    public void testTableSizeUpdate() throws IOException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<Map.Entry<String, String>> headers = headers("x-device", "nexus");
+        decoder.decode(encoder.encode(headers));
+
+        encoder.setMaxTableSize(0);
+        byte[] block = encoder.encode(headers);
+
+        assertEquals("block should start with the update", 0x20, block[0] & 0xff);
+        assertEquals(headers, decoder.decode(block));
+        assertEquals("nothing is indexed anymore", block.length - 1, encoder.encode(headers).length);
+    }
+
+    @Test
+    public void testHuffmanRoundTrip() throws IOException {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Huffman.encode(data, out);
+
+        assertEquals(Huffman.encodedLength(data), out.size());
+        assertTrue(Arrays.equals(data, Huffman.decode(out.toByteArray(), 0, out.size())));
+    }
+
+    @Test
+    public void testInvalidIndexIsRejected() {
+        try {
+            new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE).decode(bytes("be"));
+            fail("index 62 is not in an empty table");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static List<Map.Entry<String, String>> headers(String... namesAndValues) {
+        List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new SimpleImmutableEntry<String, String>(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    private static String hex(byte[] data) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : data) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return data;
+    }
+
+}
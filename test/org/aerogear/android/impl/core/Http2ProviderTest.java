@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.aerogear.android.core.BodyWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class Http2ProviderTest {
+
+    private static final byte[] FALLBACK = "fallback".getBytes();
+
+    private LocalHttp2Server server;
+    private HttpConnectionPool pool;
+
+    @Before
+    public void setup() throws IOException {
+        server = new LocalHttp2Server(0);
+        pool = new HttpConnectionPool();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        pool.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        Http2Provider provider = provider(server.url("/context/tasks"));
+
+        assertEquals("[{\"id\":1,\"name\":\"foo\"}]", new String(provider.get()));
+
+        LocalHttp2Server.Request request = server.getRequests().get(0);
+        assertEquals("GET", request.method());
+        assertEquals("/context/tasks", request.path());
+        assertEquals("application/json", request.headers.get("accept"));
+    }
+
+    @Test
+    public void testWrites() throws Exception {
+        Http2Provider provider = provider(server.url("/context/tasks"));
+
+        assertEquals("{\"name\":\"foo\"}", new String(provider.post("{\"name\":\"foo\"}")));
+        assertEquals("{\"id\":1}", new String(provider.put("1", "{\"id\":1}")));
+        assertEquals(0, provider.delete("1").length);
+
+        List<LocalHttp2Server.Request> requests = server.getRequests();
+        assertEquals("POST /context/tasks", requests.get(0).method() + " " + requests.get(0).path());
+        assertEquals("PUT /context/tasks/1", requests.get(1).method() + " " + requests.get(1).path());
+        assertEquals("DELETE /context/tasks/1", requests.get(2).method() + " " + requests.get(2).path());
+    }
+
+    @Test
+    public void testStreamedBodyLargerThanWindow() throws Exception {
+        Http2Provider provider = provider(server.url("/context/tasks"));
+        final byte[] content = new byte[3 * Http2Frame.DEFAULT_WINDOW_SIZE];
+        Arrays.fill(content, (byte) 'a');
+
+        byte[] echo = provider.put("1", new BodyWriter() {
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                // in small writes, as a serializer does
+                for (int offset = 0; offset < content.length; offset += 1000) {
+                    out.write(content, offset, Math.min(1000, content.length - offset));
+                }
+            }
+        });
+
+        assertEquals(content.length, echo.length);
+        LocalHttp2Server.Request request = server.getRequests().get(0);
+        assertEquals(null, request.headers.get("content-length"));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneConnection() throws Exception {
+        final Http2Provider provider = provider(server.url("/context/tasks"));
+        // the server answers once it holds all of them, so they must be in flight together
+        server.holdResponsesUntil(8);
+
+        List<byte[]> responses = inParallel(8, provider);
+
+        assertEquals(8, responses.size());
+        assertEquals("one connection should carry all requests", 1, server.getConnectionCount());
+        Set<Integer> streams = new HashSet<Integer>();
+        for (LocalHttp2Server.Request request : server.getRequests()) {
+            streams.add(request.streamId);
+        }
+        assertEquals("each request has its stream", 8, streams.size());
+    }
+
+    @Test
+    public void testMaxConcurrentStreamsIsHonoured() throws Exception {
+        server.close();
+        server = new LocalHttp2Server(2);
+        Http2Provider provider = provider(server.url("/context/tasks"));
+
+        List<byte[]> responses = inParallel(6, provider);
+
+        assertEquals(6, responses.size());
+        assertTrue("at most 2 streams should be open", server.getMaxOpenStreams() <= 2);
+    }
+
+    @Test
+    public void testLargeBodiesAreFlowControlled() throws Exception {
+        byte[] response = provider(server.url("/large")).get();
+        assertEquals(LocalHttp2Server.LARGE_BODY_LENGTH, response.length);
+
+        char[] data = new char[200 * 1024];
+        Arrays.fill(data, 'x');
+        byte[] echoed = provider(server.url("/context/tasks")).post(new String(data));
+        assertEquals(data.length, echoed.length);
+    }
+
+    @Test
+    public void testReadsAreWeightedAboveWrites() throws Exception {
+        Http2Provider provider = provider(server.url("/context/tasks"));
+        provider.get();
+        provider.post("{}");
+
+        List<LocalHttp2Server.Request> requests = server.getRequests();
+        assertTrue(requests.get(0).weight > requests.get(1).weight);
+    }
+
+    @Test
+    public void testSlowServerDoesNotHoldUpOthers() throws Exception {
+        // accepts connections through its backlog but never answers the HTTP/2 preface
+        final ServerSocket silent = new ServerSocket(0);
+        Thread connecting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.getHttp2Connection("localhost", silent.getLocalPort(), 0);
+                } catch (IOException e) {
+                    // the server closed
+                }
+            }
+        });
+        connecting.setDaemon(true);
+        connecting.start();
+        Thread.sleep(100);
+
+        try {
+            long start = System.currentTimeMillis();
+            URL url = server.url("/context/tasks");
+            assertTrue(pool.getHttp2Connection("localhost", url.getPort(), 0).isUsable());
+            assertTrue("the pool should not wait for the silent server", System.currentTimeMillis() - start < 5000);
+        } finally {
+            silent.close();
+        }
+    }
+
+    @Test
+    public void testHttp1ServerGoesThroughFallback() throws Exception {
+        final ServerSocket http1 = new ServerSocket(0);
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = http1.accept();
+                        accepted.incrementAndGet();
+                        InputStream in = socket.getInputStream();
+                        in.read(new byte[1024]);
+                        OutputStream out = socket.getOutputStream();
+                        out.write("HTTP/1.1 505 HTTP Version Not Supported\r\nConnection: close\r\n\r\n".getBytes());
+                        out.flush();
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            Http2Provider provider = provider(new URL("http://localhost:" + http1.getLocalPort() + "/context"));
+            assertTrue(Arrays.equals(FALLBACK, provider.get()));
+            assertTrue(Arrays.equals(FALLBACK, provider.get()));
+            assertEquals("the server should be tried once", 1, accepted.get());
+        } finally {
+            http1.close();
+        }
+    }
+
+    @Test
+    public void testHttpsGoesThroughFallback() throws Exception {
+        Http2Provider provider = provider(new URL("https://localhost/context"));
+
+        assertTrue(Arrays.equals(FALLBACK, provider.post("{}")));
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    private Http2Provider provider(URL url) {
+        return new Http2Provider(url, pool, new HttpStubProvider(url) {
+            @Override
+            public byte[] get() {
+                return FALLBACK;
+            }
+
+            @Override
+            public byte[] post(String data) {
+                return FALLBACK;
+            }
+        });
+    }
+
+    private static List<byte[]> inParallel(int count, final Http2Provider provider) throws InterruptedException {
+        final List<byte[]> responses = new ArrayList<byte[]>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        byte[] response = provider.get();
+                        synchronized (responses) {
+                            responses.add(response);
+                        }
+                    } catch (Exception e) {
+                        // counted as missing
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        synchronized (responses) {
+            return new ArrayList<byte[]>(responses);
+        }
+    }
+
+}
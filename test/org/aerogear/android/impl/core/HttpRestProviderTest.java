@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.aerogear.android.core.HeaderAndStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class HttpRestProviderTest {
+
+    private ServerSocket silentServer;
+    private final List<Socket> accepted = new ArrayList<Socket>();
+    private HttpConnectionPool pool;
+    private HttpRestProvider provider;
+
+    @Before
+    public void setup() throws IOException {
+        // the requests go to the local server rather than to Robolectric's fake HTTP layer
+        Robolectric.getFakeHttpLayer().interceptHttpRequests(false);
+        silentServer = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        // accepts connections and never answers
+                        Socket socket = silentServer.accept();
+                        synchronized (accepted) {
+                            accepted.add(socket);
+                        }
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        pool = new HttpConnectionPool();
+        provider = new HttpRestProvider(new URL("http://localhost:" + silentServer.getLocalPort() + "/tasks/"), pool);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        silentServer.close();
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void testReadTimeout() {
+        provider.setTimeouts(1000, 200);
+
+        assertTrue(failure(null) instanceof SocketTimeoutException);
+    }
+
+    @Test(timeout = 10000)
+    public void testTotalTimeoutAbortsRequest() {
+        RequestControl control = new RequestControl(300);
+        control.start();
+
+        assertTrue(failure(control) instanceof SocketTimeoutException);
+        assertTrue(control.isExpired());
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelAbortsRequest() throws Exception {
+        final RequestControl control = new RequestControl(0);
+        final Throwable[] thrown = new Throwable[1];
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                thrown[0] = failure(control);
+            }
+        });
+        worker.start();
+
+        Thread.sleep(200);
+        control.cancel();
+        worker.join();
+
+        assertTrue(thrown[0] instanceof OperationCancelledException);
+        assertTrue(control.isCancelled());
+    }
+
+    @Test(timeout = 10000)
+    public void testRepeatedHeadersAreJoined() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        Thread responder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    while (request.readLine().length() > 0) {
+                        // skips the request headers
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\n"
+                            + "Link: </tasks/?page=1>; rel=\"prev\"\r\n"
+                            + "Link: </tasks/?page=3>; rel=\"next\"\r\n"
+                            + "Content-Length: 2\r\n"
+                            + "Connection: close\r\n\r\n[]").getBytes("US-ASCII"));
+                    out.flush();
+                    socket.close();
+                } catch (IOException e) {
+                    // reported by the request failing
+                }
+            }
+        });
+        responder.start();
+        try {
+            HttpRestProvider linked = new HttpRestProvider(new URL("http://localhost:" + server.getLocalPort() + "/tasks/"), pool);
+            HeaderAndStream response = linked.getStream(new HashMap<String, String>());
+            response.close();
+
+            assertEquals("</tasks/?page=1>; rel=\"prev\", </tasks/?page=3>; rel=\"next\"", response.getHeader("link"));
+        } finally {
+            responder.join();
+            server.close();
+        }
+    }
+
+    /**
+     * Reads from the silent server under the given control and returns why it failed.
+     */
+    private Throwable failure(RequestControl control) {
+        if (control != null) {
+            control.attach();
+        }
+        try {
+            provider.get();
+            fail("the server never answers");
+            return null;
+        } catch (RuntimeException e) {
+            return e.getCause();
+        } finally {
+            if (control != null) {
+                control.detach();
+            }
+        }
+    }
+
+}
@@ -17,9 +17,14 @@
 
 package org.aerogear.android.impl.core;
 
+import org.aerogear.android.core.BodyWriter;
+import org.aerogear.android.core.HeaderAndStream;
 import org.aerogear.android.core.HttpProvider;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
 
 public class HttpStubProvider implements HttpProvider {
 
@@ -37,16 +42,46 @@ public class HttpStubProvider implements HttpProvider {
         return null;
     }
 
+    public HeaderAndStream getStream(Map<String, String> parameters) {
+        return null;
+    }
+
+    public HeaderAndStream getStream(Map<String, String> parameters, boolean conditional) {
+        return getStream(parameters);
+    }
+
     public byte [] post(String data) {
         return null;
     }
 
+    public byte [] post(BodyWriter body) {
+        return post(asString(body));
+    }
+
     public byte [] put(String id, String data) {
         return null;
     }
 
+    public byte [] put(String id, BodyWriter body) {
+        return put(id, asString(body));
+    }
+
+    public byte [] patch(String id, BodyWriter body) {
+        return null;
+    }
+
     public byte [] delete(String id) {
         return null;
     }
 
+    protected static String asString(BodyWriter body) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            body.writeTo(out);
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -0,0 +1,370 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.aerogear.android.impl.core.Http2Frame.*;
+
+/**
+ * A minimal in-process HTTP/2 server. GETs answer a JSON array, or a large body under
+ * <code>/large</code>, writes echo their body, and every request is recorded.
+ */
+final class LocalHttp2Server {
+
+    static final int LARGE_BODY_LENGTH = 3 << 20;
+
+    private final ServerSocket serverSocket;
+    private final int maxConcurrentStreams;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    private int heldUntil;
+    private int openStreams;
+    private int maxOpenStreams;
+
+    /**
+     * @param maxConcurrentStreams the streams each connection allows, 0 for no limit
+     */
+    LocalHttp2Server(int maxConcurrentStreams) throws IOException {
+        this.serverSocket = new ServerSocket(0);
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        sockets.add(socket);
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                new ServerConnection(socket).serve();
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    URL url(String path) throws MalformedURLException {
+        return new URL("http://localhost:" + serverSocket.getLocalPort() + path);
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<Request>(requests);
+        }
+    }
+
+    /**
+     * Holds all responses until the given number of requests arrived.
+     */
+    synchronized void holdResponsesUntil(int requestCount) {
+        heldUntil = requestCount;
+    }
+
+    synchronized int getMaxOpenStreams() {
+        return maxOpenStreams;
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private synchronized void opened(Request request) {
+        requests.add(request);
+        openStreams++;
+        maxOpenStreams = Math.max(maxOpenStreams, openStreams);
+        notifyAll();
+    }
+
+    private synchronized void awaitRelease() throws InterruptedException {
+        while (requests.size() < heldUntil) {
+            wait();
+        }
+    }
+
+    /**
+     * Counts the stream of the request as closed, before the client can see it is.
+     */
+    private synchronized void closed(Request request) {
+        if (!request.closed) {
+            request.closed = true;
+            openStreams--;
+        }
+    }
+
+    static final class Request {
+
+        final int streamId;
+        final int weight;
+        final Map<String, String> headers = new HashMap<String, String>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private boolean closed;
+
+        private Request(int streamId, int weight) {
+            this.streamId = streamId;
+            this.weight = weight;
+        }
+
+        String method() {
+            return headers.get(":method");
+        }
+
+        String path() {
+            return headers.get(":path");
+        }
+
+    }
+
+    private final class ServerConnection {
+
+        private final Socket socket;
+        private final Object writeLock = new Object();
+        private final Hpack.Encoder encoder = new Hpack.Encoder();
+        private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        private final Map<Integer, Request> open = new HashMap<Integer, Request>();
+        private final Map<Integer, Long> streamWindows = new HashMap<Integer, Long>();
+        private OutputStream out;
+        private long connectionWindow = DEFAULT_WINDOW_SIZE;
+        private long initialWindow = DEFAULT_WINDOW_SIZE;
+
+        private ServerConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void serve() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                byte[] preface = new byte[24];
+                in.readFully(preface);
+                if (!Arrays.equals(preface, Hpack.bytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"))) {
+                    socket.close();
+                    return;
+                }
+                synchronized (writeLock) {
+                    Http2Frame.write(out, SETTINGS, 0, 0, maxConcurrentStreams > 0
+                            ? settings(SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams) : new byte[0]);
+                    out.flush();
+                }
+                while (true) {
+                    Http2Frame frame = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+                    switch (frame.type) {
+                        case SETTINGS:
+                            if (!frame.hasFlag(FLAG_ACK)) {
+                                readSettings(frame);
+                            }
+                            break;
+                        case WINDOW_UPDATE:
+                            readWindowUpdate(frame);
+                            break;
+                        case HEADERS:
+                            readHeaders(in, frame);
+                            break;
+                        case DATA:
+                            readData(frame);
+                            break;
+                        case GOAWAY:
+                            socket.close();
+                            return;
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException e) {
+                // the client went away
+            }
+        }
+
+        private void readSettings(Http2Frame frame) throws IOException {
+            for (int i = 0; i < frame.payload.length; i += 6) {
+                int id = (frame.payload[i] & 0xff) << 8 | (frame.payload[i + 1] & 0xff);
+                if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+                    synchronized (this) {
+                        initialWindow = readInt(frame.payload, i + 2);
+                    }
+                }
+            }
+            synchronized (writeLock) {
+                Http2Frame.write(out, SETTINGS, FLAG_ACK, 0, new byte[0]);
+                out.flush();
+            }
+        }
+
+        private synchronized void readWindowUpdate(Http2Frame frame) {
+            long increment = readInt(frame.payload, 0) & 0x7fffffff;
+            if (frame.streamId == 0) {
+                connectionWindow += increment;
+            } else if (streamWindows.containsKey(frame.streamId)) {
+                streamWindows.put(frame.streamId, streamWindows.get(frame.streamId) + increment);
+            }
+            notifyAll();
+        }
+
+        private void readHeaders(DataInputStream in, Http2Frame frame) throws IOException {
+            int offset = frame.hasFlag(FLAG_PRIORITY) ? 5 : 0;
+            int weight = frame.hasFlag(FLAG_PRIORITY) ? (frame.payload[4] & 0xff) + 1 : 16;
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(frame.payload, offset, frame.payload.length - offset);
+            Http2Frame fragment = frame;
+            while (!fragment.hasFlag(FLAG_END_HEADERS)) {
+                fragment = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+                block.write(fragment.payload, 0, fragment.payload.length);
+            }
+            Request request = new Request(frame.streamId, weight);
+            for (Map.Entry<String, String> header : decoder.decode(block.toByteArray())) {
+                request.headers.put(header.getKey(), header.getValue());
+            }
+            synchronized (this) {
+                open.put(frame.streamId, request);
+                streamWindows.put(frame.streamId, initialWindow);
+            }
+            opened(request);
+            if (frame.hasFlag(FLAG_END_STREAM)) {
+                respondLater(request);
+            }
+        }
+
+        private void readData(Http2Frame frame) throws IOException {
+            Request request;
+            synchronized (this) {
+                request = open.get(frame.streamId);
+            }
+            if (request == null) {
+                return;
+            }
+            request.body.write(frame.payload, 0, frame.payload.length);
+            if (frame.payload.length > 0) {
+                synchronized (writeLock) {
+                    Http2Frame.write(out, WINDOW_UPDATE, 0, 0, intPayload(frame.payload.length));
+                    Http2Frame.write(out, WINDOW_UPDATE, 0, frame.streamId, intPayload(frame.payload.length));
+                    out.flush();
+                }
+            }
+            if (frame.hasFlag(FLAG_END_STREAM)) {
+                respondLater(request);
+            }
+        }
+
+        private void respondLater(final Request request) {
+            Thread responder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        awaitRelease();
+                        respond(request);
+                    } catch (Exception e) {
+                        // the client went away
+                    } finally {
+                        closed(request);
+                    }
+                }
+            });
+            responder.setDaemon(true);
+            responder.start();
+        }
+
+        private void respond(Request request) throws IOException, InterruptedException {
+            byte[] body;
+            if (request.path().startsWith("/large")) {
+                body = new byte[LARGE_BODY_LENGTH];
+                Arrays.fill(body, (byte) 'a');
+            } else if (request.method().equals("GET")) {
+                body = Hpack.bytes("[{\"id\":1,\"name\":\"foo\"}]");
+            } else {
+                body = request.body.toByteArray();
+            }
+            List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+            headers.add(new SimpleImmutableEntry<String, String>(":status", "200"));
+            headers.add(new SimpleImmutableEntry<String, String>("content-type", "application/json"));
+            headers.add(new SimpleImmutableEntry<String, String>("content-length", String.valueOf(body.length)));
+            if (body.length == 0) {
+                closed(request);
+            }
+            synchronized (writeLock) {
+                Http2Frame.write(out, HEADERS, FLAG_END_HEADERS | (body.length == 0 ? FLAG_END_STREAM : 0),
+                        request.streamId, encoder.encode(headers));
+                out.flush();
+            }
+            int offset = 0;
+            while (offset < body.length) {
+                int length;
+                synchronized (this) {
+                    while (connectionWindow <= 0 || streamWindows.get(request.streamId) <= 0) {
+                        wait();
+                    }
+                    long streamWindow = streamWindows.get(request.streamId);
+                    length = (int) Math.min(Math.min(body.length - offset, DEFAULT_MAX_FRAME_SIZE),
+                            Math.min(connectionWindow, streamWindow));
+                    connectionWindow -= length;
+                    streamWindows.put(request.streamId, streamWindow - length);
+                }
+                int flags = 0;
+                if (offset + length == body.length) {
+                    flags = FLAG_END_STREAM;
+                    closed(request);
+                }
+                synchronized (writeLock) {
+                    Http2Frame.write(out, DATA, flags, request.streamId, body, offset, length);
+                    out.flush();
+                }
+                offset += length;
+            }
+            synchronized (this) {
+                open.remove(request.streamId);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import org.aerogear.android.core.BodyWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class RequestBodyTest {
+
+    @Test
+    public void testStringBodyIsUtf8WithKnownLength() throws IOException {
+        RequestBody body = RequestBody.of(ByteArrayBody.utf8("{\"name\":\"café\"}"), -1);
+
+        assertFalse(body.isCompressed());
+        assertEquals("é takes two bytes", 16, body.getContentLength());
+        assertEquals("{\"name\":\"café\"}", new String(written(body), "UTF-8"));
+    }
+
+    @Test
+    public void testUnknownLengthIsChunkedWithoutCompression() throws IOException {
+        RequestBody body = RequestBody.of(new StreamedBody("[1,2,3]"), -1);
+
+        assertEquals(-1, body.getContentLength());
+        assertEquals("[1,2,3]", new String(written(body), "UTF-8"));
+    }
+
+    @Test
+    public void testUnknownLengthIsCompressedWithoutMeasuring() throws IOException {
+        StreamedBody streamed = new StreamedBody("[1,2,3]");
+        RequestBody body = RequestBody.of(streamed, 100);
+        assertTrue("the size of the body is not known", body.isCompressed());
+        assertEquals(-1, body.getContentLength());
+        assertEquals("nothing should be written up front", 0, streamed.writes);
+
+        GZIPInputStream content = new GZIPInputStream(new ByteArrayInputStream(written(body)));
+        assertEquals("[1,2,3]", new String(HttpRestProvider.readFully(content), "UTF-8"));
+        assertEquals("the body should be written once", 1, streamed.writes);
+    }
+
+    @Test
+    public void testKnownLengthIsComparedToThreshold() throws IOException {
+        assertFalse(RequestBody.of(ByteArrayBody.utf8("[1,2,3]"), 100).isCompressed());
+        assertTrue(RequestBody.of(ByteArrayBody.utf8("[1,2,3]"), 7).isCompressed());
+    }
+
+    private static byte[] written(RequestBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static final class StreamedBody implements BodyWriter {
+
+        private final String json;
+        private int writes;
+
+        private StreamedBody(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            writes++;
+            out.write(json.getBytes("UTF-8"));
+        }
+
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class RequestGuardTest {
+
+    private static final int IO_ERROR = -1;
+    private static final int CLIENT_ERROR = -2;
+
+    @Test
+    public void testIdempotentRequestsAreRetried() throws IOException {
+        RetryPolicy policy = new RetryPolicy(3, 1, 4, 0.2, 10);
+        ScriptedAttempt attempt = new ScriptedAttempt(IO_ERROR, 503, 200);
+
+        assertEquals(200, (int) RequestGuard.run(policy, null, true, attempt));
+        assertEquals(3, attempt.sent);
+        assertEquals("the 503 should be released", 1, attempt.discarded);
+        assertEquals(1, policy.getRequestCount());
+        assertEquals(2, policy.getRetryCount());
+    }
+
+    @Test
+    public void testPostsAreNotRetried() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 4, 0.2, 10);
+        ScriptedAttempt attempt = new ScriptedAttempt(IO_ERROR, 200);
+
+        try {
+            RequestGuard.run(policy, null, false, attempt);
+            fail("the failure should be thrown");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, attempt.sent);
+        assertEquals(0, policy.getRetryCount());
+    }
+
+    @Test
+    public void testOnlyGetHeadPutAndDeleteAreIdempotent() {
+        for (String method : new String[]{"GET", "HEAD", "PUT", "DELETE"}) {
+            assertTrue(method, RequestGuard.isIdempotent(method));
+        }
+        assertFalse(RequestGuard.isIdempotent("POST"));
+        assertFalse(RequestGuard.isIdempotent("PATCH"));
+    }
+
+    @Test
+    public void testLastResponseIsReturnedWhenRetriesRunOut() throws IOException {
+        RetryPolicy policy = new RetryPolicy(2, 1, 4, 0.2, 10);
+        ScriptedAttempt attempt = new ScriptedAttempt(503, 503, 503, 200);
+
+        assertEquals(503, (int) RequestGuard.run(policy, null, true, attempt));
+        assertEquals(3, attempt.sent);
+    }
+
+    @Test
+    public void testBudgetBoundsRetries() throws IOException {
+        RetryPolicy policy = new RetryPolicy(3, 1, 4, 0.5, 2);
+
+        // the allowance of 2 retries is spent by the first request
+        RequestGuard.run(policy, null, true, new ScriptedAttempt(503, 503, 200));
+        assertEquals(503, (int) RequestGuard.run(policy, null, true, new ScriptedAttempt(503, 200)));
+        assertEquals(1, policy.getBudgetExhaustedCount());
+
+        // two more requests earn one retry
+        RequestGuard.run(policy, null, true, new ScriptedAttempt(200));
+        assertEquals(200, (int) RequestGuard.run(policy, null, true, new ScriptedAttempt(503, 200)));
+        assertEquals(3, policy.getRetryCount());
+    }
+
+    @Test
+    public void testBackoffIsBounded() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0.2, 10);
+        for (int retry = 0; retry < 10; retry++) {
+            long backoff = policy.backoffMillis(retry);
+            assertTrue(backoff >= 0 && backoff <= Math.min(1000, 100 << retry));
+        }
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker("http://server.com/", 2, 60000);
+
+        RequestGuard.run(null, breaker, true, new ScriptedAttempt(500));
+        RequestGuard.run(null, breaker, true, new ScriptedAttempt(500));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        ScriptedAttempt attempt = new ScriptedAttempt(200);
+        try {
+            RequestGuard.run(null, breaker, true, attempt);
+            fail("the circuit should be open");
+        } catch (CircuitOpenException expected) {
+        }
+        assertEquals("nothing should be sent", 0, attempt.sent);
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    @Test
+    public void testTrialRequestClosesCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("http://server.com/", 1, 10);
+        try {
+            RequestGuard.run(null, breaker, true, new ScriptedAttempt(IO_ERROR));
+        } catch (IOException expected) {
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(20);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        RequestGuard.run(null, breaker, true, new ScriptedAttempt(200));
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getSuccessCount());
+        assertEquals(1, breaker.getFailureCount());
+    }
+
+    @Test
+    public void testFailedTrialReopensCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("http://server.com/", 3, 10);
+        for (int i = 0; i < 3; i++) {
+            RequestGuard.run(null, breaker, true, new ScriptedAttempt(500));
+        }
+        Thread.sleep(20);
+
+        RequestGuard.run(null, breaker, true, new ScriptedAttempt(500));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenedCount());
+    }
+
+    @Test
+    public void testLateSuccessLeavesCircuitOpen() throws IOException {
+        final CircuitBreaker breaker = new CircuitBreaker("http://server.com/", 2, 60000);
+        ScriptedAttempt slow = new ScriptedAttempt(200) {
+            @Override
+            public Integer send() throws IOException {
+                // the circuit opens while this request is in flight
+                RequestGuard.run(null, breaker, true, new ScriptedAttempt(500));
+                RequestGuard.run(null, breaker, true, new ScriptedAttempt(500));
+                return super.send();
+            }
+        };
+
+        RequestGuard.run(null, breaker, true, slow);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getSuccessCount());
+    }
+
+    @Test
+    public void testClientFailureReleasesTrialRequest() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("http://server.com/", 1, 10);
+        try {
+            RequestGuard.run(null, breaker, true, new ScriptedAttempt(IO_ERROR));
+        } catch (IOException expected) {
+        }
+        Thread.sleep(20);
+
+        try {
+            RequestGuard.run(null, breaker, true, new ScriptedAttempt(CLIENT_ERROR));
+            fail("the failure should be thrown");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        RequestGuard.run(null, breaker, true, new ScriptedAttempt(200));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testCancelStopsBackoff() throws IOException {
+        RetryPolicy policy = new RetryPolicy(3, 600000, 600000, 0.2, 10);
+        final RequestControl control = new RequestControl(0);
+        ScriptedAttempt attempt = new ScriptedAttempt(IO_ERROR, 200) {
+            @Override
+            public Integer send() throws IOException {
+                control.cancel();
+                return super.send();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        control.attach();
+        try {
+            RequestGuard.run(policy, null, true, attempt);
+            fail("the operation should be cancelled");
+        } catch (OperationCancelledException expected) {
+        } finally {
+            control.detach();
+        }
+        assertTrue("the backoff should stop", System.currentTimeMillis() - start < 5000);
+        assertEquals(1, attempt.sent);
+    }
+
+    @Test
+    public void testDeadlineStopsBackoff() throws IOException {
+        RetryPolicy policy = new RetryPolicy(3, 600000, 600000, 0.2, 10);
+        RequestControl control = new RequestControl(50);
+        ScriptedAttempt attempt = new ScriptedAttempt(IO_ERROR, 200);
+
+        long start = System.currentTimeMillis();
+        control.attach();
+        control.start();
+        try {
+            RequestGuard.run(policy, null, true, attempt);
+            fail("the operation should run out of time");
+        } catch (SocketTimeoutException expected) {
+        } finally {
+            control.detach();
+        }
+        assertTrue("the backoff should stop", System.currentTimeMillis() - start < 5000);
+    }
+
+    /**
+     * Answers with the given status codes in turn, an I/O error for -1 and a failure of
+     * the client for -2.
+     */
+    private static class ScriptedAttempt implements RequestGuard.Attempt<Integer> {
+
+        private final List<Integer> script;
+        private int sent;
+        private int discarded;
+
+        private ScriptedAttempt(Integer... script) {
+            this.script = new LinkedList<Integer>(Arrays.asList(script));
+        }
+
+        @Override
+        public Integer send() throws IOException {
+            sent++;
+            int statusCode = script.remove(0);
+            if (statusCode == IO_ERROR) {
+                throw new IOException("connection refused");
+            }
+            if (statusCode == CLIENT_ERROR) {
+                throw new IllegalStateException("not serializable");
+            }
+            return statusCode;
+        }
+
+        @Override
+        public int statusCode(Integer response) {
+            return response;
+        }
+
+        @Override
+        public void discard(Integer response) {
+            discarded++;
+        }
+    }
+
+}
@@ -17,7 +17,9 @@
 
 package org.aerogear.android.impl.helper;
 
-public class Data {
+import java.io.Serializable;
+
+public class Data implements Serializable {
 
     private Long id;
     private String name;
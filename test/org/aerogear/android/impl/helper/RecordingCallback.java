@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.helper;
+
+import org.aerogear.android.Callback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps what an operation delivered to its callback, for the tests to check.
+ */
+public class RecordingCallback<T> implements Callback<T> {
+
+    private final List<T> results = new ArrayList<T>();
+    private Exception failure;
+
+    @Override
+    public void onSuccess(T data) {
+        results.add(data);
+    }
+
+    @Override
+    public void onFailure(Exception e) {
+        failure = e;
+    }
+
+    /**
+     * @return the results delivered so far, in order
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the last result delivered, or null if there was none
+     */
+    public T getResult() {
+        return results.isEmpty() ? null : results.get(results.size() - 1);
+    }
+
+    /**
+     * @return the last failure delivered, or null if there was none
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.impl.core.HttpStubProvider;
+import org.aerogear.android.impl.core.RequestControl;
+import org.aerogear.android.impl.datamanager.DefaultIdGenerator;
+import org.aerogear.android.impl.datamanager.MemoryStorage;
+import org.aerogear.android.impl.helper.Data;
+import org.aerogear.android.impl.helper.DirectExecutor;
+import org.aerogear.android.impl.helper.RecordingCallback;
+import org.aerogear.android.pipeline.PagedList;
+import org.aerogear.android.pipeline.Pipe;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CachedPipeTest {
+
+    private StubPipe server;
+    private MemoryStorage<Data> store;
+    private CachedPipe<Data> pipe;
+
+    @Before
+    public void setup() throws MalformedURLException {
+        server = new StubPipe();
+        store = new MemoryStorage<Data>(new DefaultIdGenerator());
+        pipe = new CachedPipe<Data>(server, store, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+    }
+
+    @Test
+    public void testReadWithEmptyStoreDeliversOnce() {
+        server.items.add(new Data(1L, "foo", "desc"));
+        server.items.add(new Data(2L, "bar", "desc"));
+
+        RecordingCallback<List<Data>> callback = new RecordingCallback<List<Data>>();
+        pipe.read(callback);
+
+        assertEquals("should be called once", 1, callback.getResults().size());
+        assertEquals("verifying the fresh items", 2, callback.getResults().get(0).size());
+        assertEquals("items should be stored", "foo", store.read("1").getName());
+        assertEquals("items should be stored", "bar", store.read("2").getName());
+    }
+
+    @Test
+    public void testReadDeliversStoreThenRefreshes() {
+        store.save(new Data(3L, "old", "desc"));
+        server.items.add(new Data(1L, "foo", "desc"));
+
+        RecordingCallback<List<Data>> callback = new RecordingCallback<List<Data>>();
+        pipe.read(callback);
+
+        assertEquals("should be called twice", 2, callback.getResults().size());
+        assertEquals("verifying the cached items", "old", callback.getResults().get(0).get(0).getName());
+        assertEquals("verifying the fresh items", "foo", callback.getResults().get(1).get(0).getName());
+        assertEquals("store should be replaced", 1, store.readAll().size());
+        assertEquals("store should be replaced", "foo", store.read("1").getName());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsStore() {
+        store.save(new Data(3L, "old", "desc"));
+        server.failing = true;
+
+        RecordingCallback<List<Data>> callback = new RecordingCallback<List<Data>>();
+        pipe.read(callback);
+
+        assertEquals("cached items should be delivered", 1, callback.getResults().size());
+        assertTrue("failure should be delivered", callback.getFailure() != null);
+        assertEquals("store should be kept", 1, store.readAll().size());
+    }
+
+    @Test
+    public void testSaveWritesThrough() {
+        RecordingCallback<Data> callback = new RecordingCallback<Data>();
+        pipe.save(new Data(1L, "foo", "desc"), callback);
+
+        assertEquals("should succeed", 1, callback.getResults().size());
+        assertEquals("item should be stored", "foo", store.read("1").getName());
+    }
+
+    @Test
+    public void testSaveThroughRestAdapterWritesThrough() throws MalformedURLException {
+        final List<String> puts = new ArrayList<String>();
+        URL url = new URL("http://server.com/context/data");
+        RestAdapter<Data> adapter = new RestAdapter<Data>(Data.class, new HttpStubProvider(url) {
+            @Override
+            public byte[] put(String id, String data) {
+                puts.add(id);
+                return new byte[0];
+            }
+        }, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+        pipe = new CachedPipe<Data>(adapter, store, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+
+        RecordingCallback<Data> callback = new RecordingCallback<Data>();
+        pipe.save(new Data(1L, "foo", "desc"), callback);
+
+        assertEquals("should be sent", Arrays.asList("1"), puts);
+        assertEquals("should deliver the saved item", "foo", callback.getResults().get(0).getName());
+        assertEquals("item should be stored", "foo", store.read("1").getName());
+    }
+
+    @Test
+    public void testFailedSaveIsNotStored() {
+        server.failing = true;
+
+        RecordingCallback<Data> callback = new RecordingCallback<Data>();
+        pipe.save(new Data(1L, "foo", "desc"), callback);
+
+        assertTrue("failure should be delivered", callback.getFailure() != null);
+        assertTrue("store should be empty", store.readAll().isEmpty());
+    }
+
+    @Test
+    public void testRemoveDeletesFromStore() {
+        pipe.save(new Data(1L, "foo", "desc"), new RecordingCallback<Data>());
+        pipe.save(new Data(2L, "bar", "desc"), new RecordingCallback<Data>());
+
+        RecordingCallback<Void> callback = new RecordingCallback<Void>();
+        pipe.remove("1", callback);
+
+        assertEquals("should succeed", 1, callback.getResults().size());
+        assertNull("item should be removed", store.read("1"));
+        assertEquals("other items should be kept", "bar", store.read("2").getName());
+    }
+
+    private static final class StubPipe implements Pipe<Data> {
+
+        private final List<Data> items = new ArrayList<Data>();
+        private boolean failing;
+
+        @Override
+        public Type getType() {
+            return Type.REST;
+        }
+
+        @Override
+        public URL getUrl() {
+            try {
+                return new URL("http://server.com/context/data");
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Cancellable read(Callback<List<Data>> callback) {
+            if (failing) {
+                callback.onFailure(new RuntimeException("offline"));
+            } else {
+                callback.onSuccess(new ArrayList<Data>(items));
+            }
+            return RequestControl.FINISHED;
+        }
+
+        @Override
+        public Cancellable readPaged(PageConfig config, Callback<PagedList<Data>> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Cancellable save(Data item, Callback<Data> callback) {
+            if (failing) {
+                callback.onFailure(new RuntimeException("offline"));
+            } else {
+                // as RestAdapter does
+                callback.onSuccess(null);
+            }
+            return RequestControl.FINISHED;
+        }
+
+        @Override
+        public Cancellable saveAll(Collection<Data> items, Callback<List<Data>> callback) {
+            if (failing) {
+                callback.onFailure(new RuntimeException("offline"));
+            } else {
+                callback.onSuccess(new ArrayList<Data>(items));
+            }
+            return RequestControl.FINISHED;
+        }
+
+        @Override
+        public Cancellable remove(String id, Callback<Void> callback) {
+            return removeAll(Arrays.asList(id), callback);
+        }
+
+        @Override
+        public Cancellable removeAll(Collection<String> ids, Callback<Void> callback) {
+            if (failing) {
+                callback.onFailure(new RuntimeException("offline"));
+            } else {
+                callback.onSuccess(null);
+            }
+            return RequestControl.FINISHED;
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.impl.helper.RecordingCallback;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class CoalescingCallbackTest {
+
+    @Test
+    public void testWaitingCallbacksShareResult() {
+        CoalescingCallback<String> coalescing = new CoalescingCallback<String>();
+        RecordingCallback<String> first = new RecordingCallback<String>();
+        RecordingCallback<String> second = new RecordingCallback<String>();
+
+        assertTrue("first caller starts the operation", coalescing.join(first).isFirst());
+        assertFalse("second caller waits", coalescing.join(second).isFirst());
+
+        coalescing.onSuccess("result");
+        assertEquals("every caller received the result", "result", first.getResult());
+        assertEquals("every caller received the result", "result", second.getResult());
+
+        assertTrue("next caller starts a new operation", coalescing.join(new RecordingCallback<String>()).isFirst());
+    }
+
+    @Test
+    public void testLastWaiterLeavingCancelsOperation() {
+        CoalescingCallback<String> coalescing = new CoalescingCallback<String>();
+        Operation operation = new Operation();
+
+        CoalescingCallback<String>.Waiter first = coalescing.join(new RecordingCallback<String>());
+        first.start(operation);
+        CoalescingCallback<String>.Waiter second = coalescing.join(new RecordingCallback<String>());
+
+        first.cancel();
+        assertFalse("another caller still waits", operation.isCancelled());
+
+        second.cancel();
+        assertTrue("nobody waits any more", operation.isCancelled());
+        assertTrue("next caller starts a new operation", coalescing.join(new RecordingCallback<String>()).isFirst());
+    }
+
+    private static final class Operation implements Cancellable {
+
+        private boolean cancelled;
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+    }
+
+}
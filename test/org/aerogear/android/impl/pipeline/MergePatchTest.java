@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class MergePatchTest {
+
+    @Test
+    public void testUnchangedObjectGivesEmptyPatch() {
+        JsonObject state = json("{\"id\":1,\"name\":\"foo\",\"tags\":[\"a\"]}");
+
+        assertTrue(MergePatch.diff(state, json("{\"id\":1,\"name\":\"foo\",\"tags\":[\"a\"]}")).entrySet().isEmpty());
+    }
+
+    @Test
+    public void testChangedAddedAndRemovedMembers() {
+        JsonObject patch = MergePatch.diff(json("{\"id\":1,\"name\":\"foo\",\"done\":false}"),
+                json("{\"id\":1,\"name\":\"bar\",\"due\":3}"));
+
+        assertEquals(json("{\"name\":\"bar\",\"due\":3,\"done\":null}"), patch);
+    }
+
+    @Test
+    public void testNestedObjectsAreDiffedAndArraysReplaced() {
+        JsonObject patch = MergePatch.diff(
+                json("{\"owner\":{\"name\":\"foo\",\"mail\":\"foo@example.com\"},\"tags\":[\"a\",\"b\"]}"),
+                json("{\"owner\":{\"name\":\"foo\",\"mail\":\"bar@example.com\"},\"tags\":[\"a\"]}"));
+
+        assertEquals(json("{\"owner\":{\"mail\":\"bar@example.com\"},\"tags\":[\"a\"]}"), patch);
+    }
+
+    private static JsonObject json(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.aerogear.android.core.HeaderAndStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.Assert.*;
+
+public class NextPageResolverTest {
+
+    private URL url;
+
+    @Before
+    public void setup() throws MalformedURLException {
+        url = new URL("http://server.com/context/tasks");
+    }
+
+    @Test
+    public void testOffsetFirstPage() {
+        PageConfig config = new PageConfig();
+        config.setLimit(5);
+
+        Map<String, String> query = NextPageResolver.firstPage(config);
+        assertEquals("verifying the offset", "0", query.get("offset"));
+        assertEquals("verifying the limit", "5", query.get("limit"));
+    }
+
+    @Test
+    public void testOffsetNextPage() {
+        PageConfig config = new PageConfig();
+        config.setLimit(5);
+
+        Map<String, String> next = NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config), response(null, null), 5);
+        assertEquals("verifying the offset", "5", next.get("offset"));
+    }
+
+    @Test
+    public void testOffsetLastPage() {
+        PageConfig config = new PageConfig();
+        config.setLimit(5);
+
+        assertNull("short page is the last one",
+                NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config), response(null, null), 3));
+    }
+
+    @Test
+    public void testWebLinkingNextPage() {
+        PageConfig config = new PageConfig();
+        config.setStrategy(PageConfig.Strategy.WEB_LINKING);
+        String link = "<http://server.com/context/tasks?page=1>; rel=\"prev\", "
+                + "<http://server.com/context/tasks?page=3&per_page=10>; rel=\"next\"";
+
+        Map<String, String> next = NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config), response("Link", link), 10);
+        assertEquals("verifying the page", "3", next.get("page"));
+        assertEquals("verifying the page size", "10", next.get("per_page"));
+    }
+
+    @Test
+    public void testWebLinkingLastPage() {
+        PageConfig config = new PageConfig();
+        config.setStrategy(PageConfig.Strategy.WEB_LINKING);
+
+        assertNull("no next link", NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config),
+                response("Link", "<http://server.com/context/tasks?page=1>; rel=\"prev\""), 10));
+    }
+
+    @Test
+    public void testWebLinkingParsesEachLink() {
+        PageConfig config = new PageConfig();
+        config.setStrategy(PageConfig.Strategy.WEB_LINKING);
+        String link = "<http://server.com/context/tasks?page=1&sort=name,date>; rel=\"prev\"; title=\"back, to 1\", "
+                + "</context/tasks?page=3&sort=name,date>; rel=\"next\"";
+
+        Map<String, String> next = NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config), response("Link", link), 10);
+        assertEquals("verifying the page", "3", next.get("page"));
+        assertEquals("verifying the sort", "name,date", next.get("sort"));
+    }
+
+    @Test
+    public void testWebLinkingWithoutParametersIsLastPage() {
+        PageConfig config = new PageConfig();
+        config.setStrategy(PageConfig.Strategy.WEB_LINKING);
+
+        assertNull("a link without query reads the first page", NextPageResolver.nextPage(config, url,
+                NextPageResolver.firstPage(config), response("Link", "<http://server.com/context/tasks>; rel=\"next\""), 10));
+        assertNull("a link with an empty query reads the first page", NextPageResolver.nextPage(config, url,
+                NextPageResolver.firstPage(config), response("Link", "<http://server.com/context/tasks?>; rel=\"next\""), 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWebLinkingToAnotherResourceFails() {
+        PageConfig config = new PageConfig();
+        config.setStrategy(PageConfig.Strategy.WEB_LINKING);
+
+        NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config),
+                response("Link", "<http://server.com/context/archive?page=2>; rel=\"next\""), 10);
+    }
+
+    @Test
+    public void testHeaderTokenNextPage() {
+        PageConfig config = new PageConfig();
+        config.setStrategy(PageConfig.Strategy.HEADERS);
+        config.setNextIdentifier("X-Next-Token");
+
+        Map<String, String> next = NextPageResolver.nextPage(config, url, NextPageResolver.firstPage(config), response("x-next-token", "abc"), 10);
+        assertEquals("verifying the cursor", "abc", next.get("cursor"));
+        assertEquals("verifying the limit", "10", next.get("limit"));
+    }
+
+    private HeaderAndStream response(String header, String value) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (header != null) {
+            headers.put(header, value);
+        }
+        return new HeaderAndStream(200, headers, new ByteArrayInputStream(new byte[0]));
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.pipeline;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static junit.framework.Assert.*;
+
+public class PipelineExecutorsTest {
+
+    @Test
+    public void testBoundedExecutorLimits() {
+        ThreadPoolExecutor executor = PipelineExecutors.newBoundedExecutor(2, 16);
+
+        assertEquals("verifying the threads", 2, executor.getMaximumPoolSize());
+        assertEquals("verifying the queue limit", 16, executor.getQueue().remainingCapacity());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBoundedExecutorRejectsWhenQueueIsFull() throws InterruptedException {
+        ThreadPoolExecutor executor = PipelineExecutors.newBoundedExecutor(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        executor.execute(blocking);
+        executor.execute(blocking);
+        try {
+            executor.execute(blocking);
+            fail("third operation should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+}
@@ -143,4 +143,21 @@ public class PipelineTest {
         assertNull("Not deleted pipe", fooPipe);
     }
 
+    @Test
+    public void testPipesShareTheCircuitBreakerOfTheirBaseURL() throws MalformedURLException {
+        Pipeline pipeline = new Pipeline(url);
+        assertNull("circuit breakers are disabled by default", pipeline.getCircuitBreaker(url));
+
+        pipeline.enableCircuitBreakers(3, 1000);
+        pipeline.pipe().name("foo").useClass(Data.class).buildAndAdd();
+        pipeline.pipe().name("bar").useClass(Data.class).buildAndAdd();
+        URL other = new URL("http://other.com/");
+        pipeline.pipe().name("baz").useClass(Data.class).url(other).buildAndAdd();
+
+        assertNotNull(pipeline.getCircuitBreaker(url));
+        assertNotNull(pipeline.getCircuitBreaker(other));
+        assertTrue("each base URL has its breaker",
+                pipeline.getCircuitBreaker(url) != pipeline.getCircuitBreaker(other));
+    }
+
 }
@@ -19,17 +19,38 @@ package org.aerogear.android.impl.pipeline;
 
 import com.xtremelabs.robolectric.RobolectricTestRunner;
 import junit.framework.Assert;
+import org.aerogear.android.Callback;
+import org.aerogear.android.Cancellable;
+import org.aerogear.android.core.BodyWriter;
+import org.aerogear.android.core.HeaderAndStream;
+import org.aerogear.android.pipeline.BulkOperationException;
+import org.aerogear.android.pipeline.PagedList;
 import org.aerogear.android.pipeline.Pipe;
+import org.apache.http.MethodNotSupportedException;
 import org.aerogear.android.impl.core.HttpStubProvider;
+import org.aerogear.android.impl.core.RequestControl;
 import org.aerogear.android.impl.helper.Data;
+import org.aerogear.android.impl.helper.DirectExecutor;
+import org.aerogear.android.impl.helper.RecordingCallback;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 @RunWith(RobolectricTestRunner.class)
 public class RestAdapterTest {
@@ -53,4 +74,348 @@ public class RestAdapterTest {
         assertEquals("verifying the given URL", "http://server.com/context/", restPipe.getUrl().toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testReadParsesResponseStream() {
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public HeaderAndStream getStream(Map<String, String> parameters) {
+                String json = "[{\"id\":1,\"name\":\"foo\"},{\"id\":2,\"name\":\"bar\"}]";
+                return new HeaderAndStream(200, new HashMap<String, String>(), new ByteArrayInputStream(json.getBytes()));
+            }
+        };
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+        final List<Data> result = new ArrayList<Data>();
+
+        restPipe.read(new Callback<List<Data>>() {
+            @Override
+            public void onSuccess(List<Data> data) {
+                result.addAll(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertEquals("verifying the parsed items", 2, result.size());
+        assertEquals("verifying the first item", "foo", result.get(0).getName());
+    }
+
+    @Test
+    public void testReadPagedFollowsOffset() {
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public HeaderAndStream getStream(Map<String, String> parameters) {
+                String json = "0".equals(parameters.get("offset"))
+                        ? "[{\"id\":1,\"name\":\"foo\"},{\"id\":2,\"name\":\"bar\"}]"
+                        : "[{\"id\":3,\"name\":\"baz\"}]";
+                return new HeaderAndStream(200, new HashMap<String, String>(), new ByteArrayInputStream(json.getBytes()));
+            }
+        };
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+        PageConfig config = new PageConfig();
+        config.setLimit(2);
+        final List<PagedList<Data>> pages = new ArrayList<PagedList<Data>>();
+        Callback<PagedList<Data>> callback = new Callback<PagedList<Data>>() {
+            @Override
+            public void onSuccess(PagedList<Data> data) {
+                pages.add(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        restPipe.readPaged(config, callback);
+        assertEquals("verifying the first page", 2, pages.get(0).size());
+        assertTrue("first page has a next one", pages.get(0).hasNext());
+
+        pages.get(0).next(callback);
+        assertEquals("verifying the second page", 1, pages.get(1).size());
+        assertFalse("second page is the last one", pages.get(1).hasNext());
+    }
+
+    @Test
+    public void testSaveAllReportsFailedItems() {
+        final List<String> puts = new ArrayList<String>();
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public byte[] put(String id, String data) {
+                if ("2".equals(id)) {
+                    throw new RuntimeException("server error");
+                }
+                puts.add(id);
+                return null;
+            }
+        };
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+        final List<Exception> errors = new ArrayList<Exception>();
+
+        restPipe.saveAll(Arrays.asList(new Data(1L, "foo", "desc of foo"), new Data(2L, "bar", "desc of bar")),
+                new Callback<List<Data>>() {
+                    @Override
+                    public void onSuccess(List<Data> data) {
+                        fail("one item failed");
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        errors.add(e);
+                    }
+                });
+
+        assertEquals("verifying the sent items", Arrays.asList("1"), puts);
+        BulkOperationException error = (BulkOperationException) errors.get(0);
+        assertEquals("verifying the saved items", 1, error.getSucceeded().size());
+        assertTrue("verifying the failed item", error.getFailures().containsKey(new Data(2L, "bar", "desc of bar")));
+    }
+
+    @Test
+    public void testBulkEndpointSendsOneRequest() {
+        final List<String> requests = new ArrayList<String>();
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public byte[] put(String id, String data) {
+                requests.add("PUT " + id);
+                return null;
+            }
+
+            @Override
+            public byte[] delete(String id) {
+                requests.add("DELETE " + id);
+                return null;
+            }
+        };
+        PipeConfig config = new PipeConfig();
+        config.setBulkEndpoint("bulk");
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), config);
+
+        restPipe.saveAll(Arrays.asList(new Data(1L, "foo", "desc of foo"), new Data(2L, "bar", "desc of bar")),
+                new Callback<List<Data>>() {
+                    @Override
+                    public void onSuccess(List<Data> data) {
+                        assertEquals("verifying the saved items", 2, data.size());
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+        restPipe.removeAll(Arrays.asList("1", "2"), new Callback<Void>() {
+            @Override
+            public void onSuccess(Void data) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertEquals("verifying the requests", Arrays.asList("PUT bulk", "DELETE bulk/1,2"), requests);
+    }
+
+    @Test
+    public void testLongBulkRemovalsAreSplit() {
+        final List<String> requests = new ArrayList<String>();
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public byte[] delete(String id) {
+                requests.add(id);
+                if (requests.size() == 2) {
+                    throw new RuntimeException(new IOException("connection reset"));
+                }
+                return null;
+            }
+        };
+        PipeConfig config = new PipeConfig();
+        config.setBulkEndpoint("bulk");
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), config);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(String.format("%019d", i));
+        }
+        RecordingCallback<Void> callback = new RecordingCallback<Void>();
+
+        restPipe.removeAll(ids, callback);
+
+        assertEquals("verifying the requests", 2, requests.size());
+        for (String request : requests) {
+            assertTrue(request, request.length() <= "bulk/".length() + RestAdapter.MAX_BULK_IDS_LENGTH);
+        }
+        BulkOperationException error = (BulkOperationException) callback.getFailure();
+        assertEquals("the ids of the first request are removed",
+                requests.get(0).split(",").length, error.getSucceeded().size());
+        assertEquals("the ids of the failed request are reported",
+                100 - error.getSucceeded().size(), error.getFailures().size());
+    }
+
+    @Test
+    public void testReadReusesResultWhenNotModified() {
+        final List<Boolean> conditionals = new ArrayList<Boolean>();
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public HeaderAndStream getStream(Map<String, String> parameters, boolean conditional) {
+                conditionals.add(conditional);
+                if (conditional) {
+                    return new HeaderAndStream(304, new HashMap<String, String>(), new ByteArrayInputStream(new byte[0]));
+                }
+                String json = "[{\"id\":1,\"name\":\"foo\"}]";
+                return new HeaderAndStream(200, new HashMap<String, String>(), new ByteArrayInputStream(json.getBytes()));
+            }
+        };
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+        final List<List<Data>> results = new ArrayList<List<Data>>();
+        Callback<List<Data>> callback = new Callback<List<Data>>() {
+            @Override
+            public void onSuccess(List<Data> data) {
+                results.add(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        restPipe.read(callback);
+        restPipe.read(callback);
+
+        assertEquals("verifying the conditional requests", Arrays.asList(false, true), conditionals);
+        assertSame("verifying the cached result", results.get(0), results.get(1));
+    }
+
+    @Test
+    public void testSaveStreamsUtf8Json() {
+        final List<String> bodies = new ArrayList<String>();
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public byte[] put(String id, BodyWriter body) {
+                assertEquals("the length is only known once written", -1, body.getContentLength());
+                bodies.add(asString(body));
+                return new byte[0];
+            }
+        };
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+
+        restPipe.save(new Data(1L, "café", "bar"), new Callback<Data>() {
+            @Override
+            public void onSuccess(Data data) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0), bodies.get(0).contains("\"name\":\"café\""));
+    }
+
+    @Test
+    public void testPartialUpdatesPatchChangedFields() {
+        final List<String> requests = new ArrayList<String>();
+        final boolean[] patchSupported = {true};
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public HeaderAndStream getStream(Map<String, String> parameters) {
+                String json = "[{\"id\":1,\"name\":\"foo\",\"description\":\"desc of foo\"}]";
+                return new HeaderAndStream(200, new HashMap<String, String>(), new ByteArrayInputStream(json.getBytes()));
+            }
+
+            @Override
+            public byte[] patch(String id, BodyWriter body) {
+                if (!patchSupported[0]) {
+                    throw new RuntimeException(new MethodNotSupportedException("PATCH"));
+                }
+                requests.add("PATCH " + id + " " + asString(body));
+                return new byte[0];
+            }
+
+            @Override
+            public byte[] put(String id, String data) {
+                requests.add("PUT " + id + " " + data);
+                return new byte[0];
+            }
+        };
+        PipeConfig config = new PipeConfig();
+        config.setPartialUpdates(true);
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), config);
+        final List<Data> read = new ArrayList<Data>();
+        restPipe.read(new Callback<List<Data>>() {
+            @Override
+            public void onSuccess(List<Data> data) {
+                read.addAll(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Callback<Data> callback = new Callback<Data>() {
+            @Override
+            public void onSuccess(Data data) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Data item = read.get(0);
+
+        restPipe.save(item, callback);
+        assertTrue("an unchanged object is not sent", requests.isEmpty());
+
+        item.setName("bar");
+        item.setDescription(null);
+        restPipe.save(item, callback);
+        assertEquals("PATCH 1 {\"name\":\"bar\",\"description\":null}", requests.get(0));
+
+        patchSupported[0] = false;
+        item.setName("baz");
+        restPipe.save(item, callback);
+        assertEquals("falls back to the whole object", "PUT 1 {\"id\":1,\"name\":\"baz\"}", requests.get(1));
+
+        patchSupported[0] = true;
+        item.setName("qux");
+        restPipe.save(item, callback);
+        assertEquals("keeps putting once PATCH was refused", "PUT 1 {\"id\":1,\"name\":\"qux\"}", requests.get(2));
+    }
+
+    @Test
+    public void testCancelledOperationSkipsCallback() {
+        HttpStubProvider provider = new HttpStubProvider(url) {
+            @Override
+            public byte[] put(String id, String data) {
+                // the user leaves the screen while the request is in flight
+                RequestControl.current().cancel();
+                return data.getBytes();
+            }
+        };
+        Pipe<Data> restPipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), new PipeConfig());
+        final List<Object> delivered = new ArrayList<Object>();
+
+        Cancellable operation = restPipe.save(new Data(1L, "foo", "bar"), new Callback<Data>() {
+            @Override
+            public void onSuccess(Data data) {
+                delivered.add(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                delivered.add(e);
+            }
+        });
+
+        assertTrue("verifying the operation was cancelled", operation.isCancelled());
+        assertTrue("verifying the callback was not called", delivered.isEmpty());
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aerogear.android.impl.pipeline;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.aerogear.android.core.HttpStatusException;
+import org.aerogear.android.impl.core.HttpStubProvider;
+import org.aerogear.android.impl.helper.Data;
+import org.aerogear.android.impl.helper.DirectExecutor;
+import org.aerogear.android.impl.helper.RecordingCallback;
+import org.aerogear.android.pipeline.BulkOperationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class WriteBehindQueueTest {
+
+    private File file;
+    private RecordingProvider provider;
+    private PipeConfig config;
+    private RecordingCallback<List<PendingWrite>> callback;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("writes", ".log");
+        provider = new RecordingProvider(new URL("http://server.com/context/"));
+        callback = new RecordingCallback<List<PendingWrite>>();
+        config = new PipeConfig();
+        // flushes are run by the tests
+        config.setWriteBehindDelayMillis(60 * 1000);
+        config.setWriteBehindCallback(callback);
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void testWritesOfTheSameObjectCollapse() {
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1,\"name\":\"foo\"}");
+        queue.save("2", "{\"id\":2,\"name\":\"bar\"}");
+        queue.save("1", "{\"id\":1,\"name\":\"baz\"}");
+        queue.remove("2");
+
+        queue.flushNow();
+
+        assertEquals("verifying the requests",
+                Arrays.asList("put 1 {\"id\":1,\"name\":\"baz\"}", "delete 2"), provider.requests);
+        assertEquals("verifying the reported writes", 2, callback.getResult().size());
+        assertTrue("queue should be empty", queue.getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void testNewObjectsArePosted() {
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save(null, "{\"name\":\"foo\"}");
+        queue.save(null, "{\"name\":\"bar\"}");
+
+        queue.flushNow();
+
+        assertEquals("verifying the requests",
+                Arrays.asList("post {\"name\":\"foo\"}", "post {\"name\":\"bar\"}"), provider.requests);
+    }
+
+    @Test
+    public void testWritesStayQueuedWhileOffline() {
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1}");
+        queue.save("2", "{\"id\":2}");
+
+        provider.offline = true;
+        queue.flushNow();
+        assertEquals("writes should stay queued", 2, queue.getPendingWrites().size());
+        assertNull("nothing should be reported", callback.getResult());
+
+        provider.offline = false;
+        queue.flushNow();
+        assertEquals("verifying the requests", Arrays.asList("put 1 {\"id\":1}", "put 2 {\"id\":2}"), provider.requests);
+        assertTrue("queue should be empty", queue.getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void testWritesStayQueuedWhileServerIsUnavailable() {
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1}");
+
+        provider.status = 503;
+        queue.flushNow();
+        assertEquals("write should stay queued", 1, queue.getPendingWrites().size());
+        assertNull("nothing should be reported", callback.getResult());
+        assertNull("nothing should be reported", callback.getFailure());
+
+        provider.status = 200;
+        queue.flushNow();
+        assertEquals("verifying the requests", Arrays.asList("put 1 {\"id\":1}"), provider.requests);
+        assertTrue("queue should be empty", queue.getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void testClientErrorsAreReportedAndDropped() {
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1}");
+
+        provider.status = 400;
+        queue.flushNow();
+
+        assertTrue("failure should be reported", callback.getFailure() instanceof BulkOperationException);
+        assertTrue("queue should be empty", queue.getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void testRejectedWritesAreReportedAndDropped() {
+        provider.rejecting = true;
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1}");
+
+        queue.flushNow();
+
+        assertTrue("failure should be reported", callback.getFailure() instanceof BulkOperationException);
+        assertEquals("verifying the failures", 1, ((BulkOperationException) callback.getFailure()).getFailures().size());
+        assertTrue("queue should be empty", queue.getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void testBulkEndpointBatchesRuns() {
+        config.setBulkEndpoint("bulk");
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1}");
+        queue.save("2", "{\"id\":2}");
+        queue.removeAll(Arrays.asList("3", "4"));
+
+        queue.flushNow();
+
+        assertEquals("verifying the requests",
+                Arrays.asList("put bulk [{\"id\":1},{\"id\":2}]", "delete bulk/3,4"), provider.requests);
+    }
+
+    @Test
+    public void testLongBulkRemovalsAreSplit() {
+        config.setBulkEndpoint("bulk");
+        config.setWriteBehindBatchSize(100);
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(String.format("%019d", i));
+        }
+        queue.removeAll(ids);
+
+        queue.flushNow();
+
+        assertEquals("verifying the requests", 2, provider.requests.size());
+        for (String request : provider.requests) {
+            assertTrue(request, request.length() <= "delete bulk/".length() + RestAdapter.MAX_BULK_IDS_LENGTH);
+        }
+        assertTrue("queue should be empty", queue.getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void testFlushSendsABatchAtATime() {
+        config.setWriteBehindBatchSize(2);
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.removeAll(Arrays.asList("1", "2", "3"));
+
+        queue.flushNow();
+
+        assertEquals("verifying the requests", Arrays.asList("delete 1", "delete 2"), provider.requests);
+        assertEquals("verifying the pending writes", 1, queue.getPendingWrites().size());
+    }
+
+    @Test
+    public void testWritesSurviveReopen() {
+        WriteBehindQueue queue = new WriteBehindQueue(file, provider, config);
+        queue.save("1", "{\"id\":1}");
+        queue.remove("2");
+
+        List<PendingWrite> pending = new WriteBehindQueue(file, provider, config).getPendingWrites();
+
+        assertEquals("verifying the pending writes", 2, pending.size());
+        assertEquals("verifying the order", "1", pending.get(0).getId());
+        assertTrue("verifying the removal", pending.get(1).isRemove());
+    }
+
+    @Test
+    public void testPipeQueuesItsWrites() {
+        config.setWriteBehindFile(file);
+        RestAdapter<Data> pipe = new RestAdapter<Data>(Data.class, provider, new DirectExecutor(), new DirectExecutor(), config);
+
+        pipe.save(new Data(1L, "foo", "desc of foo"), new RecordingCallback<Data>());
+        pipe.remove("2", new RecordingCallback<Void>());
+
+        assertTrue("nothing should be sent yet", provider.requests.isEmpty());
+        assertEquals("verifying the pending writes", 2, pipe.getWriteBehindQueue().getPendingWrites().size());
+    }
+
+    private static final class RecordingProvider extends HttpStubProvider {
+
+        private final List<String> requests = new ArrayList<String>();
+        private boolean offline;
+        private boolean rejecting;
+        private int status = 200;
+
+        private RecordingProvider(URL url) {
+            super(url);
+        }
+
+        @Override
+        public byte[] post(String data) {
+            return record("post " + data);
+        }
+
+        @Override
+        public byte[] put(String id, String data) {
+            return record("put " + id + " " + data);
+        }
+
+        @Override
+        public byte[] delete(String id) {
+            return record("delete " + id);
+        }
+
+        private byte[] record(String request) {
+            if (offline) {
+                throw new RuntimeException(new IOException("Network is unreachable"));
+            }
+            if (rejecting) {
+                throw new IllegalStateException("Rejected");
+            }
+            if (status >= 400) {
+                // as the providers answer an error status
+                throw new HttpStatusException(status, new byte[0]);
+            }
+            requests.add(request);
+            return null;
+        }
+
+    }
+
+}
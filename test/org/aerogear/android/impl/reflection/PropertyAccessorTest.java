@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aerogear.android.impl.reflection;
+
+import org.aerogear.android.RecordId;
+import org.aerogear.android.impl.helper.Data;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class PropertyAccessorTest {
+
+    @Test
+    public void testDefaultGetter() throws Exception {
+        PropertyAccessor accessor = PropertyAccessor.forRecordId(Data.class, "id");
+        assertEquals("verifying the id", 42L, accessor.read(new Data(42L, "foo", "desc of foo")));
+        assertNull("id not set yet", accessor.read(new Data("foo", "desc of foo")));
+    }
+
+    @Test
+    public void testConfiguredField() throws Exception {
+        PropertyAccessor accessor = PropertyAccessor.forRecordId(Keyed.class, "key");
+        assertEquals("verifying the id", "abc", accessor.read(new Keyed("abc", null)));
+    }
+
+    @Test
+    public void testAnnotationWins() throws Exception {
+        PropertyAccessor accessor = PropertyAccessor.forRecordId(Annotated.class, "id");
+        assertEquals("verifying the id", 7, accessor.read(new Annotated(7)));
+    }
+
+    @Test
+    public void testPropertyGetter() {
+        assertEquals("verifying the name", "foo", PropertyAccessor.read(new Data(42L, "foo", "desc of foo"), "name"));
+        assertEquals("verifying the boolean getter", true, PropertyAccessor.read(new Flagged(), "done"));
+        assertSame("accessors are resolved once", PropertyAccessor.forProperty(Data.class, "name"),
+                PropertyAccessor.forProperty(Data.class, "name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingProperty() {
+        PropertyAccessor.forRecordId(Data.class, "uuid");
+    }
+
+    public static class Keyed {
+        private String key;
+        private String id;
+
+        public Keyed(String key, String id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    public static class Flagged {
+        public boolean isDone() {
+            return true;
+        }
+    }
+
+    public static class Annotated {
+        @RecordId
+        private int number;
+
+        public Annotated(int number) {
+            this.number = number;
+        }
+
+        public String getId() {
+            return "not the id";
+        }
+    }
+
+}